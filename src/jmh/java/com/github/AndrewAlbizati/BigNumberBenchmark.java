@@ -0,0 +1,145 @@
+package com.github.AndrewAlbizati;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link BigNumber} with BigDecimal on the arithmetic of the game's economy: producing cookies
+ * (cookies + cps * seconds), checking that a price is affordable, and paying it. BigDecimal is rounded to 16 digits,
+ * so neither keeps more digits than the other needs.
+ * <p>
+ * Each benchmark runs over {@link #SIZE} amounts from a million to 10^600, half of them past a double's range, so the
+ * results cover both kinds of BigNumber and don't depend on one magnitude.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BigNumberBenchmark {
+    private static final int SIZE = 1024;
+
+    private final long[] cookies = new long[SIZE];
+    private final long[] costs = new long[SIZE];
+    private final long[] produced = new long[SIZE];
+    private final BigDecimal[] cookiesDecimal = new BigDecimal[SIZE];
+    private final BigDecimal[] costsDecimal = new BigDecimal[SIZE];
+    private final BigDecimal[] producedDecimal = new BigDecimal[SIZE];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        for (int i = 0; i < SIZE; i++) {
+            double log10 = 6 + random.nextDouble() * 594;
+            double costFactor = 0.5 + random.nextDouble();
+            double productionFactor = random.nextDouble() / 1000;
+
+            cookies[i] = BigNumber.exp(log10 * Math.log(10));
+            costs[i] = BigNumber.multiply(cookies[i], costFactor);
+            produced[i] = BigNumber.multiply(cookies[i], productionFactor);
+            cookiesDecimal[i] = decimal(log10);
+            costsDecimal[i] = cookiesDecimal[i].multiply(new BigDecimal(costFactor), MathContext.DECIMAL64);
+            producedDecimal[i] = cookiesDecimal[i].multiply(new BigDecimal(productionFactor), MathContext.DECIMAL64);
+        }
+    }
+
+    /**
+     * Returns 10^log10, which a double can't hold past 10^308.
+     */
+    private static BigDecimal decimal(double log10) {
+        int exponent = (int) Math.floor(log10);
+        return new BigDecimal(Math.pow(10, log10 - exponent), MathContext.DECIMAL64).scaleByPowerOfTen(exponent);
+    }
+
+    @Benchmark
+    public long produceBigNumber() {
+        long total = 0;
+        for (int i = 0; i < SIZE; i++) {
+            total += BigNumber.add(cookies[i], produced[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int produceBigDecimal() {
+        int total = 0;
+        for (int i = 0; i < SIZE; i++) {
+            total += cookiesDecimal[i].add(producedDecimal[i], MathContext.DECIMAL64).scale();
+        }
+        return total;
+    }
+
+    /**
+     * Checks whether each price is affordable, and pays it if it is, the same as {@link Game#buy(Items, long)}.
+     */
+    @Benchmark
+    public long buyBigNumber() {
+        long total = 0;
+        for (int i = 0; i < SIZE; i++) {
+            if (PurchaseSolver.affordable(costs[i], cookies[i])) {
+                total += BigNumber.subtract(cookies[i], costs[i]);
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int buyBigDecimal() {
+        int total = 0;
+        for (int i = 0; i < SIZE; i++) {
+            if (costsDecimal[i].compareTo(cookiesDecimal[i]) <= 0) {
+                total += cookiesDecimal[i].subtract(costsDecimal[i], MathContext.DECIMAL64).scale();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Scales each amount, e.g. the seconds a price takes to produce at a certain CPS.
+     */
+    @Benchmark
+    public long multiplyBigNumber() {
+        long total = 0;
+        for (int i = 0; i < SIZE; i++) {
+            total += BigNumber.multiply(cookies[i], produced[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int multiplyBigDecimal() {
+        int total = 0;
+        for (int i = 0; i < SIZE; i++) {
+            total += cookiesDecimal[i].multiply(producedDecimal[i], MathContext.DECIMAL64).scale();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int formatBigNumber() {
+        StringBuilder sb = new StringBuilder(32);
+        int total = 0;
+        for (int i = 0; i < SIZE; i++) {
+            sb.setLength(0);
+            total += NumberFormatter.appendCompact(sb, cookies[i]).length();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int formatBigDecimal() {
+        int total = 0;
+        for (int i = 0; i < SIZE; i++) {
+            total += cookiesDecimal[i].round(MathContext.DECIMAL32).toString().length();
+        }
+        return total;
+    }
+}
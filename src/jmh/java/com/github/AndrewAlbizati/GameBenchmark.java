@@ -0,0 +1,212 @@
+package com.github.AndrewAlbizati;
+
+import org.javacord.api.entity.message.embed.EmbedBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.Color;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the game methods that run on every click, purchase, message edit, and save.
+ * Inventories are a new game, a game that has been played for a while, and one that has been played for weeks.
+ * Prices are {@link BigNumber}s, so a game that owns a thousand of everything is priced the same way.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GameBenchmark {
+    // Amount of each item owned
+    @Param({"0", "25", "150", "1000"})
+    public long owned;
+
+    private Game game;
+    private ByteBuffer buffer;
+
+    /**
+     * Creates a game that owns the given amount of every item, with enough cookies left to keep buying.
+     */
+    static Game createGame(long userId, long owned) {
+        long[] items = new long[Store.SIZE];
+        Arrays.fill(items, owned);
+        long now = System.currentTimeMillis();
+        return new Game(new GameSave(userId, 1, now, now, BigNumber.fromDouble(1e12 + owned * 1e9), items));
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        game = createGame(1, owned);
+        buffer = ByteBuffer.allocate(SaveCodec.recordSize(Store.SIZE));
+    }
+
+    @Benchmark
+    public long getCostBits() {
+        return game.getCostBits(Items.FACTORY, 10);
+    }
+
+    /**
+     * The amount asked for with /buy, from one to far more than anyone can afford.
+     */
+    @State(Scope.Thread)
+    public static class AmountState {
+        @Param({"1", "1000", "1000000", "1000000000000"})
+        public long amount;
+    }
+
+    @Benchmark
+    public long getAffordableAmount(AmountState state) {
+        return game.getAffordableAmount(Items.FACTORY, state.amount);
+    }
+
+    /**
+     * The amount asked for, for {@link #getAffordableAmountByScan(ScanState)}. It would take hours per call for
+     * 10^12, so it stops at 10^6.
+     */
+    @State(Scope.Thread)
+    public static class ScanState {
+        @Param({"1", "1000", "1000000"})
+        public long amount;
+    }
+
+    /**
+     * Decreases the amount one at a time until it's affordable, the way /buy did before {@link PurchaseSolver},
+     * to compare with {@link #getAffordableAmount(AmountState)}.
+     */
+    @Benchmark
+    public long getAffordableAmountByScan(ScanState state) {
+        long cookies = game.getCookiesBits();
+        long amount = state.amount;
+        while (BigNumber.compare(cookies, game.getCostBits(Items.FACTORY, amount)) < 0) {
+            amount--;
+        }
+        return amount;
+    }
+
+    @Benchmark
+    public Game updateCPS() {
+        game.updateCPS();
+        return game;
+    }
+
+    @Benchmark
+    public Game updateCookies() {
+        game.updateCookies();
+        return game;
+    }
+
+    @Benchmark
+    public PaybackIndex.Advice advise() {
+        return game.advise(System.currentTimeMillis(), PaybackIndex.LOOKAHEAD);
+    }
+
+    /**
+     * Ranks the items by payback without the index, pricing each one with Math.pow, to compare with {@link #advise()}.
+     */
+    @Benchmark
+    public double[] adviseByScan() {
+        double cookies = game.getProjectedCookies(System.currentTimeMillis());
+        double cps = game.getCookiesPerSecond();
+        double[] payback = new double[Store.SIZE];
+        for (Items item : Items.values()) {
+            double cost = BigNumber.toDouble(game.getCostBits(item, 1));
+            double saving = cookies >= cost ? 0 : (cost - cookies) / cps;
+            payback[item.ordinal()] = saving + cost / Store.getCPS(item.ordinal());
+        }
+        Arrays.sort(payback);
+        return payback;
+    }
+
+    @Benchmark
+    public Object toEmbedBuilder() {
+        return game.toEmbedBuilder();
+    }
+
+    /**
+     * Renders the same embed the way it was rendered before the static text was cached, with String.format, a new
+     * Color, and a regex for every item name, to compare with {@link #toEmbedBuilder()}. Run with the gc profiler
+     * to compare allocations per render.
+     */
+    @Benchmark
+    public Object toEmbedBuilderUncached() {
+        EmbedBuilder eb = new EmbedBuilder();
+        eb.setTitle("Cookie Clicker");
+        eb.setColor(new Color(204, 204, 204));
+
+        eb.setThumbnail("https://play-lh.googleusercontent.com/OssE3ON9WsLZedOF39UCgtIHcRYfV0OqQS9O78LfmRdxSyKdHX52G2OFa0LkG6D-k9w");
+
+        double cps = game.getCookiesPerSecond();
+        eb.setDescription("Cookies: **" + String.format("%,d", (long) BigNumber.toDouble(game.getCookiesBits())) + "**\n" +
+                "Cookies/second: **" + String.format("%,.1f", (double) Math.round(cps * 10) / 10) + "**");
+
+        eb.addField("Buying Items", "Type /buy <item name> to buy an item");
+
+        for (Items item : Items.values()) {
+            int i = item.ordinal();
+            eb.addField(uncachedName(item) + " (:cookie: " + String.format("%,d", (long) BigNumber.toDouble(game.getCostBits(item, 1))) + ")",
+                    "*" + Store.getDescription(i) + " (" + Store.getCPS(i) + " CPS)" +
+                            "*\n**" + game.getAmountOwned(item) + " owned.**");
+        }
+
+        eb.setFooter("Updates every time the cookie is clicked");
+
+        return eb;
+    }
+
+    /**
+     * Items.toString before its display name was cached.
+     */
+    private static String uncachedName(Items item) {
+        StringBuilder sb = new StringBuilder();
+        for (String s1 : item.name().replaceAll("_", " ").split(" ")) {
+            sb.append(s1.substring(0, 1).toUpperCase());
+            sb.append(s1.substring(1).toLowerCase());
+            sb.append(" ");
+        }
+        return sb.substring(0, sb.length() - 1);
+    }
+
+    @Benchmark
+    public String toJSONObject() {
+        return game.toJSONObject().toJSONString();
+    }
+
+    /**
+     * The binary save of the same game, to compare with {@link #toJSONObject()}.
+     */
+    @Benchmark
+    public ByteBuffer toBinary() {
+        buffer.clear();
+        SaveCodec.encode(buffer, SaveCodec.TYPE_GAME, 1, game.toSave(System.currentTimeMillis()));
+        return buffer;
+    }
+
+    /**
+     * A fresh game for every purchase, so prices don't grow over the run. Creating it isn't measured.
+     */
+    @State(Scope.Thread)
+    public static class PurchaseState {
+        @Param({"0", "25", "150", "1000"})
+        public long owned;
+
+        private Game game;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            game = createGame(1, owned);
+        }
+    }
+
+    @Benchmark
+    public boolean buy(PurchaseState state) {
+        return state.game.buy(Items.FACTORY, 10);
+    }
+}
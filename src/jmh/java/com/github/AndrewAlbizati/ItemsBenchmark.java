@@ -0,0 +1,35 @@
+package com.github.AndrewAlbizati;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks parsing item names from /buy and the item names shown in game messages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ItemsBenchmark {
+    // Names the way users type them, including one that isn't an item
+    private final String[] names = {"cursor", "Grandma", "FACTORY", "mine", "shipment", "alchemy_lab", "Portal",
+            "time_machine", "bakery"};
+    private int next;
+
+    @Benchmark
+    public Items stringToItem() {
+        next = (next + 1) % names.length;
+        return Items.stringToItem(names[next]);
+    }
+
+    @Benchmark
+    public String itemToString() {
+        next = (next + 1) % Store.SIZE;
+        return Items.values()[next].toString();
+    }
+}
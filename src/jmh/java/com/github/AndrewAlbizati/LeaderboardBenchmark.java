@@ -0,0 +1,64 @@
+package com.github.AndrewAlbizati;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the ranking in /help, compared with sorting every game by cookies the way /help used to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LeaderboardBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int games;
+
+    private GameRegistry registry;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        registry = new GameRegistry();
+        Random random = new Random(1);
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= games; i++) {
+            // Most players own a few items, a few own a lot
+            long[] owned = new long[Store.SIZE];
+            for (int j = 0; j < Store.SIZE; j++) {
+                owned[j] = (long) (Math.pow(random.nextDouble(), 4) * 200 / (j + 1));
+            }
+            registry.put(i, new Game(new GameSave(i, i, now, now, BigNumber.fromDouble(random.nextDouble() * 1e7), owned)));
+        }
+    }
+
+    /**
+     * What /help reads: the top 10 and the caller's place.
+     */
+    @Benchmark
+    public int leaderboard() {
+        long now = System.currentTimeMillis();
+        Leaderboard leaderboard = registry.getLeaderboard();
+        return leaderboard.top(10, now).size() + leaderboard.rank(games / 2, now);
+    }
+
+    /**
+     * Sorts every game by cookies and keeps the top 10.
+     */
+    @Benchmark
+    public List<Game> sortAll() {
+        List<Game> sorted = new ArrayList<>(registry.values());
+        sorted.sort((a, b) -> BigNumber.compare(b.getCookiesBits(), a.getCookiesBits()));
+        return sorted.subList(0, Math.min(10, sorted.size()));
+    }
+}
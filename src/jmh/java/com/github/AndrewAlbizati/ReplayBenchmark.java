@@ -0,0 +1,55 @@
+package com.github.AndrewAlbizati;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks replaying a game's events. Scores are events per second.
+ * The log is mostly clicks a few hundred milliseconds apart, with a purchase every 50 events.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReplayBenchmark {
+    private static final int EVENTS = 100_000;
+
+    private GameEventLog.Snapshot log;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // Every event is kept, rather than the oldest being folded away
+        GameEventLog.setMaxBytes(EVENTS * 16);
+        long start = System.currentTimeMillis();
+        GameEventLog events = new GameEventLog(GameReplay.State.newGame(1, start));
+        events.newGame(start);
+
+        Random random = new Random(1);
+        long now = start;
+        for (int i = 1; i < EVENTS; i++) {
+            now += random.nextInt(500);
+            if (i % 50 == 0) {
+                events.buy(now, random.nextInt(3), 1);
+            } else {
+                events.click(now);
+            }
+        }
+
+        log = events.snapshot();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public GameReplay.State replay() {
+        return GameReplay.replay(log);
+    }
+}
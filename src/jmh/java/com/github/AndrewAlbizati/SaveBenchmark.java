@@ -0,0 +1,145 @@
+package com.github.AndrewAlbizati;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks saving and loading every game, as the binary snapshot of {@link SaveStore} and as saves.json the way
+ * the bot used to write it. The size of the file is reported as the bytes counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class SaveBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int games;
+
+    // json or binary
+    @Param({"json", "binary"})
+    public String format;
+
+    private List<Game> registry;
+    private Path directory;
+    private Path jsonFile;
+    private SaveStore store;
+
+    /**
+     * The size of the file written by the last save, or read by the last load.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class FileSize {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        registry = new ArrayList<>(games);
+        Random random = new Random(1);
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= games; i++) {
+            // Most players own a few items, a few own a lot
+            long[] owned = new long[Store.SIZE];
+            for (int j = 0; j < Store.SIZE; j++) {
+                owned[j] = (long) (Math.pow(random.nextDouble(), 4) * 200 / (j + 1));
+            }
+            registry.add(new Game(new GameSave(i, i, now, now, BigNumber.fromDouble(random.nextDouble() * 1e7), owned)));
+        }
+
+        directory = Files.createTempDirectory("cookie-clicker-saves");
+        jsonFile = directory.resolve("saves.json");
+        store = new SaveStore(directory.resolve("saves.dat").toString(), directory.resolve("saves.wal").toString(), false);
+        // So there's something to load
+        save(new FileSize());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.delete();
+        Files.deleteIfExists(jsonFile);
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Writes every game. The binary snapshot is also synced to disk, which saves.json never was.
+     */
+    @Benchmark
+    public void save(FileSize size) throws IOException {
+        long saveTime = System.currentTimeMillis();
+        if (format.equals("json")) {
+            JSONObject gamesObj = new JSONObject();
+            for (Game game : registry) {
+                gamesObj.put(String.valueOf(game.getUserId()), game.toJSONObject(saveTime));
+            }
+            JSONObject saves = new JSONObject();
+            saves.put("games", gamesObj);
+            saves.put("last-saved", saveTime);
+
+            try (FileWriter writer = new FileWriter(jsonFile.toFile(), StandardCharsets.UTF_8)) {
+                writer.write(saves.toJSONString());
+            }
+            size.bytes = Files.size(jsonFile);
+        } else {
+            List<GameSave> saves = new ArrayList<>(registry.size());
+            for (Game game : registry) {
+                saves.add(game.toSave(saveTime));
+            }
+            store.replaceAll(saves);
+            size.bytes = Files.size(directory.resolve("saves.dat"));
+        }
+    }
+
+    /**
+     * Reads every game back.
+     */
+    @Benchmark
+    public int load(FileSize size) throws IOException, ParseException {
+        if (format.equals("json")) {
+            JSONObject saves;
+            try (FileReader reader = new FileReader(jsonFile.toFile(), StandardCharsets.UTF_8)) {
+                saves = (JSONObject) new JSONParser().parse(reader);
+            }
+            long lastSaved = (long) saves.get("last-saved");
+            JSONObject gamesObj = (JSONObject) saves.get("games");
+            List<GameSave> loaded = new ArrayList<>(gamesObj.size());
+            for (Object obj : gamesObj.keySet()) {
+                long id = Long.parseLong((String) obj);
+                loaded.add(GameSave.fromJSON(id, (JSONObject) gamesObj.get(obj), lastSaved));
+            }
+            size.bytes = Files.size(jsonFile);
+            return loaded.size();
+        }
+
+        Map<Long, GameSave> loaded = store.load();
+        size.bytes = store.getBytesLoaded();
+        return loaded.size();
+    }
+}
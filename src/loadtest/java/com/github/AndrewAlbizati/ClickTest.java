@@ -0,0 +1,156 @@
+package com.github.AndrewAlbizati;
+
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Clicks the same game from several threads at once, while other games are started and quit and every game is
+ * saved and audited, then checks that the game has exactly one cookie per click sent. The game owns no buildings,
+ * so clicks are its only cookies. Exits with 1 if any click was lost.
+ */
+public class ClickTest {
+    private static final String[] DEFAULTS = {
+            "threads=8           // Threads clicking the game",
+            "clicks=50000        // Clicks sent by each thread",
+            "click-limit=0       // Clicks per second handled in full, the rest are folded in later (0 for no limit)",
+    };
+
+    private static final long USER_ID = 300_000_000_000_000_000L;
+
+    private final Properties options;
+    private final Path saveDirectory;
+    private final FakeGateway gateway = new FakeGateway(4, 0);
+    private final Bot bot;
+    private final LongAdder failures = new LongAdder();
+
+    private ClickTest(Properties options) throws IOException {
+        this.options = options;
+        saveDirectory = Files.createTempDirectory("cookie-clicker-clicks");
+        bot = new Bot(gateway, store(), 100);
+        if (integer("click-limit") != 0) {
+            bot.setClickLimiter(new ClickLimiter(integer("click-limit"), integer("click-limit"), 0,
+                    ClickLimiter.Policy.FOLD, 16));
+        }
+    }
+
+    public static void main(String[] args) {
+        Properties options = new Properties();
+        for (String option : DEFAULTS) {
+            put(options, option);
+        }
+        for (String arg : args) {
+            if (!arg.contains("=") || !options.containsKey(arg.substring(0, arg.indexOf('=')))) {
+                System.out.println("Unknown option " + arg);
+                return;
+            }
+            put(options, arg);
+        }
+
+        boolean passed = false;
+        try {
+            passed = new ClickTest(options).run();
+        } catch (IOException | InterruptedException | ParseException | NumberFormatException e) {
+            e.printStackTrace();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static void put(Properties options, String option) {
+        int comment = option.indexOf("//");
+        option = (comment == -1 ? option : option.substring(0, comment)).trim();
+        options.setProperty(option.substring(0, option.indexOf('=')), option.substring(option.indexOf('=') + 1));
+    }
+
+    private int integer(String key) {
+        return Integer.parseInt(options.getProperty(key));
+    }
+
+    private SaveStore store() {
+        return new SaveStore(saveDirectory.resolve("saves.dat").toString(), saveDirectory.resolve("saves.wal").toString());
+    }
+
+    private boolean run() throws IOException, InterruptedException, ParseException {
+        bot.startWithoutApi();
+        Object response = gateway.interaction(USER_ID).call(i -> bot.command("newgame", i)).join();
+        check(":thumbsup:".equals(response), "/newgame responded " + response);
+
+        // Other games change the registry, and saves and audits read every game, while the clicks are added
+        AtomicBoolean clicking = new AtomicBoolean(true);
+        List<Thread> background = List.of(
+                new Thread(() -> churn(clicking), "click-test-churn"),
+                new Thread(() -> {
+                    while (clicking.get()) {
+                        bot.saveGames();
+                        bot.auditGames();
+                    }
+                }, "click-test-save"));
+        background.forEach(Thread::start);
+
+        int clicks = integer("clicks");
+        long start = System.currentTimeMillis();
+        List<Thread> clickers = new ArrayList<>();
+        for (int i = 0; i < integer("threads"); i++) {
+            Thread clicker = new Thread(() -> {
+                for (int click = 0; click < clicks; click++) {
+                    check(bot.click(USER_ID), "Click found no game");
+                }
+            }, "click-test-" + i);
+            clickers.add(clicker);
+            clicker.start();
+        }
+        for (Thread clicker : clickers) {
+            clicker.join();
+        }
+        clicking.set(false);
+        for (Thread thread : background) {
+            thread.join();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        bot.foldClicks();
+
+        long sent = (long) clicks * integer("threads");
+        System.out.println(sent + " clicks in " + elapsed + " ms");
+        Game game = bot.getGames().load(USER_ID);
+        double cookies = BigNumber.toDouble(game.getCookiesBits(System.currentTimeMillis()));
+        check(cookies == sent, "Game has " + cookies + " cookies, " + sent + " clicks were sent");
+        GameReplay.Verification verification = GameReplay.verify(game);
+        check(verification.matches(), "Replay doesn't match " + verification);
+
+        // The clicks must also all be saved
+        bot.stop();
+        GameSave save = store().load().get(USER_ID);
+        double saved = save == null ? 0 : BigNumber.toDouble(save.cookiesBits());
+        check(saved == sent, "Game was saved with " + saved + " cookies, " + sent + " clicks were sent");
+
+        System.out.println(failures.sum() == 0 ? "Passed" : "Failed with " + failures.sum() + " errors");
+        return failures.sum() == 0;
+    }
+
+    /**
+     * Starts and quits other games until the clicks are done.
+     */
+    private void churn(AtomicBoolean clicking) {
+        long userId = USER_ID;
+        while (clicking.get()) {
+            userId++;
+            gateway.interaction(userId).call(i -> bot.command("newgame", i)).join();
+            bot.click(userId);
+            gateway.interaction(userId).call(i -> bot.command("quit", i)).join();
+        }
+    }
+
+    private void check(boolean condition, String message) {
+        if (!condition) {
+            failures.increment();
+            System.out.println(message);
+        }
+    }
+}
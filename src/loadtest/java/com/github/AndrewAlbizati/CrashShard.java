@@ -0,0 +1,73 @@
+package com.github.AndrewAlbizati;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs the bot against a {@link FakeGateway}, saving to the working directory, and takes commands from standard
+ * input so {@link CrashTest} can kill it while it's writing. Games are also saved every few milliseconds, so the
+ * kill can land in the middle of a compaction.
+ * <p>
+ * Usage: CrashShard storage latency saveInterval, where storage is journal or mapped.
+ * <p>
+ * Every line of input is a number and a command, one of "newgame user", "click user", "buy user amount" (of
+ * cursors) or "owned user", and is answered once it's done with the same number and the response. /owned answers
+ * with the cursors the user owns, or "none" if they aren't playing.
+ */
+public class CrashShard {
+    private static final PrintStream out = new PrintStream(System.out, true, StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws IOException {
+        boolean mapped = args[0].equals("mapped");
+        long latency = Long.parseLong(args[1]);
+        long saveInterval = Long.parseLong(args[2]);
+
+        FakeGateway gateway = new FakeGateway(4, latency);
+        Bot bot = new Bot(gateway, ShardMap.SINGLE.createGameStore(mapped), 1000);
+        bot.startWithoutApi();
+        for (Game game : bot.getGames().values()) {
+            gateway.restoreMessage(game.getUserId(), game.getMessageId());
+        }
+
+        Thread saver = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(saveInterval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                bot.saveGames();
+            }
+        }, "crash-saver");
+        saver.setDaemon(true);
+        saver.start();
+        out.println("ready");
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] words = line.split(" ");
+            String number = words[0];
+            long userId = Long.parseLong(words[2]);
+            CompletableFuture<Object> response = switch (words[1]) {
+                case "newgame" -> gateway.interaction(userId).call(i -> bot.command("newgame", i));
+                case "buy" -> gateway.interaction(userId)
+                        .withOption("ITEM", Items.CURSOR.toString())
+                        .withOption("AMOUNT", Long.parseLong(words[3]))
+                        .call(i -> bot.command("buy", i));
+                case "click" -> CompletableFuture.completedFuture(bot.click(userId));
+                case "owned" -> {
+                    Game game = bot.getGames().load(userId);
+                    yield CompletableFuture.completedFuture(game == null ? "none" : game.getAmountOwned(Items.CURSOR));
+                }
+                default -> CompletableFuture.completedFuture("Unknown command " + words[1]);
+            };
+            response.whenComplete((r, e) -> out.println(number + " " + (e == null ? r : e)));
+        }
+        bot.stop();
+    }
+}
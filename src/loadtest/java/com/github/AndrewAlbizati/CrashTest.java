@@ -0,0 +1,261 @@
+package com.github.AndrewAlbizati;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Plays games through a {@link CrashShard} process and kills it with SIGKILL at a random time, over and over, while
+ * it's logging purchases and writing snapshots. After every restart, checks that every game whose /newgame was
+ * acknowledged is still there, with at least every cursor whose /buy was acknowledged.
+ */
+public class CrashTest {
+    private static final String[] DEFAULTS = {
+            "crashes=10          // Times the bot is killed",
+            "players=50          // Games played at once",
+            "clicks=20           // Clicks between two purchases",
+            "min-uptime=500      // Shortest time before the bot is killed, in milliseconds",
+            "max-uptime=3000     // Longest time before the bot is killed, in milliseconds",
+            "save-interval=100   // Time between two saves of every game, which may compact the log, in milliseconds",
+            "latency=5           // Time every fake Discord request takes, in milliseconds",
+            "storage=journal     // journal or mapped, see GameStore",
+            "seed=1              // Seed of the times the bot is killed at",
+    };
+
+    private final Properties options;
+    private final Path saveDirectory;
+    private final Random random;
+    // Cursors bought by acknowledged /buys, by player
+    private final AtomicLongArray acknowledged;
+    // Players whose /newgame was acknowledged
+    private final Set<Integer> started = ConcurrentHashMap.newKeySet();
+    private final LongAdder purchases = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    private CrashTest(Properties options) throws IOException {
+        this.options = options;
+        saveDirectory = Files.createTempDirectory("cookie-clicker-crash");
+        random = new Random(Long.parseLong(options.getProperty("seed")));
+        acknowledged = new AtomicLongArray(integer("players"));
+    }
+
+    public static void main(String[] args) {
+        Properties options = new Properties();
+        for (String option : DEFAULTS) {
+            put(options, option);
+        }
+        for (String arg : args) {
+            if (!arg.contains("=") || !options.containsKey(arg.substring(0, arg.indexOf('=')))) {
+                System.out.println("Unknown option " + arg);
+                return;
+            }
+            put(options, arg);
+        }
+
+        boolean passed = false;
+        try {
+            passed = new CrashTest(options).run();
+        } catch (IOException | InterruptedException | NumberFormatException e) {
+            e.printStackTrace();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static void put(Properties options, String option) {
+        int comment = option.indexOf("//");
+        option = (comment == -1 ? option : option.substring(0, comment)).trim();
+        options.setProperty(option.substring(0, option.indexOf('=')), option.substring(option.indexOf('=') + 1));
+    }
+
+    private int integer(String key) {
+        return Integer.parseInt(options.getProperty(key));
+    }
+
+    private boolean run() throws IOException, InterruptedException {
+        System.out.println("Saving to " + saveDirectory);
+        for (int crash = 0; crash <= integer("crashes"); crash++) {
+            Shard shard = new Shard();
+            try {
+                check(shard);
+                if (crash == integer("crashes")) {
+                    break;
+                }
+
+                for (int player = 0; player < acknowledged.length(); player++) {
+                    play(shard, player);
+                }
+                int min = integer("min-uptime");
+                Thread.sleep(min + random.nextInt(Math.max(1, integer("max-uptime") - min)));
+            } finally {
+                // SIGKILL, so nothing is flushed or closed
+                shard.process.destroyForcibly();
+                shard.process.waitFor();
+                // Responses it printed before it was killed were acknowledged too
+                shard.reader.join();
+            }
+            System.out.println("Killed after " + purchases.sum() + " acknowledged purchases");
+        }
+
+        System.out.println(failures.sum() == 0 ? "Passed" : "Failed with " + failures.sum() + " errors");
+        return failures.sum() == 0;
+    }
+
+    /**
+     * Checks that the restarted bot has every game and purchase that was acknowledged before it was killed.
+     */
+    private void check(Shard shard) {
+        for (int player = 0; player < acknowledged.length(); player++) {
+            String owned = shard.send("owned " + userId(player)).join();
+            if (!started.contains(player)) {
+                continue;
+            }
+            if (owned.equals("none")) {
+                fail("Game of player " + player + " was lost");
+            } else if (Long.parseLong(owned) < acknowledged.get(player)) {
+                fail("Player " + player + " has " + owned + " cursors, but " + acknowledged.get(player) + " purchases were acknowledged");
+            }
+        }
+    }
+
+    /**
+     * Starts a game if the player doesn't have one yet, then clicks and buys cursors until the bot is killed.
+     */
+    private CompletableFuture<Void> play(Shard shard, int player) {
+        long userId = userId(player);
+        CompletableFuture<Void> game = CompletableFuture.completedFuture(null);
+        if (!started.contains(player)) {
+            game = shard.send("newgame " + userId).thenAccept(response -> {
+                if (response.equals(":thumbsup:")) {
+                    started.add(player);
+                }
+            });
+        }
+        return game.thenCompose(v -> purchase(shard, player)).exceptionally(e -> null);
+    }
+
+    private CompletableFuture<Void> purchase(Shard shard, int player) {
+        long userId = userId(player);
+        CompletableFuture<String> clicked = CompletableFuture.completedFuture(null);
+        for (int i = 0; i < integer("clicks"); i++) {
+            clicked = clicked.thenCompose(v -> shard.send("click " + userId));
+        }
+        return clicked.thenCompose(v -> shard.send("buy " + userId + " " + (1 + player % 3))).thenCompose(response -> {
+            // e.g. Successfully purchased 2 items
+            if (response.startsWith("Successfully purchased ")) {
+                acknowledged.addAndGet(player, Long.parseLong(response.split(" ")[2]));
+                purchases.increment();
+            }
+            return purchase(shard, player);
+        });
+    }
+
+    private long userId(int player) {
+        return 200_000_000_000_000_000L + player * 7919L;
+    }
+
+    private void check(boolean condition, String message) {
+        if (!condition) {
+            fail(message);
+        }
+    }
+
+    private void fail(String message) {
+        failures.increment();
+        System.out.println(message);
+    }
+
+    /**
+     * A running {@link CrashShard} process, and the commands sent to it that weren't answered yet.
+     */
+    private class Shard {
+        private final Process process;
+        private final Thread reader;
+        private final PrintStream in;
+        // Set once the bot's output ended, after which nothing else is answered
+        private volatile boolean closed;
+        private final AtomicLong nextNumber = new AtomicLong();
+        private final Map<Long, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+
+        Shard() throws IOException {
+            List<String> command = new ArrayList<>();
+            command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(CrashShard.class.getName());
+            command.add(options.getProperty("storage"));
+            command.add(options.getProperty("latency"));
+            command.add(options.getProperty("save-interval"));
+            process = new ProcessBuilder(command)
+                    .directory(saveDirectory.toFile())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            in = new PrintStream(process.getOutputStream(), true, StandardCharsets.UTF_8);
+
+            BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String ready = out.readLine();
+            check("ready".equals(ready), "Bot didn't start, printed " + ready);
+
+            reader = new Thread(() -> read(out), "crash-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Sends a command, e.g. "buy 1 10".
+         * @return A future that completes with the response, or exceptionally if the bot was killed first.
+         */
+        CompletableFuture<String> send(String command) {
+            long number = nextNumber.getAndIncrement();
+            CompletableFuture<String> response = new CompletableFuture<>();
+            pending.put(number, response);
+            synchronized (in) {
+                in.println(number + " " + command);
+            }
+            if (closed) {
+                killed(number);
+            }
+            return response;
+        }
+
+        private void read(BufferedReader out) {
+            try {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    int space = line.indexOf(' ');
+                    CompletableFuture<String> response = pending.remove(Long.parseLong(line.substring(0, space)));
+                    if (response != null) {
+                        response.complete(line.substring(space + 1));
+                    }
+                }
+            } catch (IOException ignored) {
+                // Killed
+            }
+            closed = true;
+            for (long number : pending.keySet()) {
+                killed(number);
+            }
+        }
+
+        private void killed(long number) {
+            CompletableFuture<String> response = pending.remove(number);
+            if (response != null) {
+                response.completeExceptionally(new IOException("Bot was killed"));
+            }
+        }
+    }
+}
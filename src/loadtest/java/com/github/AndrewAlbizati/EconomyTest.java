@@ -0,0 +1,209 @@
+package com.github.AndrewAlbizati;
+
+import java.util.Random;
+
+/**
+ * Checks the arithmetic of the game's economy at its edges: prices of absurd amounts, purchases that would
+ * overflow the amount owned, clicks on large totals, and production at fractions of a second. Exits with 1 if any
+ * check fails.
+ */
+public class EconomyTest {
+    private int failures;
+
+    public static void main(String[] args) {
+        EconomyTest test = new EconomyTest();
+        test.run();
+        System.out.println(test.failures == 0 ? "Passed" : "Failed with " + test.failures + " errors");
+        System.exit(test.failures == 0 ? 0 : 1);
+    }
+
+    private void run() {
+        checkOverflowingAmounts();
+        checkLargeTotals();
+        checkPricesMatchFormula();
+        checkPaybackPricesMatchGame();
+        checkFractionalProduction();
+    }
+
+    /**
+     * Amounts that overflow the amount owned must never be affordable, and must never be bought.
+     */
+    private void checkOverflowingAmounts() {
+        long basePrice = Store.getBasePrice(Items.CURSOR.ordinal());
+        for (long owned : new long[]{0, 1, 1000, Long.MAX_VALUE / 2}) {
+            for (long amount : new long[]{Long.MAX_VALUE, Long.MAX_VALUE - owned, Long.MAX_VALUE - owned + 1}) {
+                long cost = PurchaseSolver.cost(basePrice, owned, amount);
+                if (amount > 0 && (BigNumber.isNegative(cost) || cost == BigNumber.ZERO)) {
+                    fail("cost(" + owned + ", " + amount + ") is " + BigNumber.toDouble(cost));
+                }
+                if (amount > 0 && PurchaseSolver.affordable(cost, BigNumber.MAX_VALUE - 1)) {
+                    fail("cost(" + owned + ", " + amount + ") is affordable");
+                }
+            }
+
+            long bought = PurchaseSolver.maxAffordable(basePrice, owned, BigNumber.fromDouble(1e30), Long.MAX_VALUE);
+            if (bought < 0 || bought > Long.MAX_VALUE - owned) {
+                fail("maxAffordable(" + owned + ", MAX) is " + bought);
+            }
+        }
+
+        // The same through a game, as /buy cursor 9223372036854775807 does
+        Game game = new Game(1);
+        long time = System.currentTimeMillis();
+        while (!game.buy(Items.CURSOR, 1, time)) {
+            game.addCookie(time);
+        }
+        long cookies = game.getCookiesBits(time);
+        long bought = game.buyAffordable(Items.CURSOR, Long.MAX_VALUE, time);
+        if (bought != 0) {
+            fail("Bought " + bought + " cursors without cookies");
+        }
+        if (game.getAmountOwned(Items.CURSOR) < 0 || BigNumber.compare(game.getCookiesBits(time), cookies) > 0) {
+            fail("Buying Long.MAX_VALUE cursors left " + game.getAmountOwned(Items.CURSOR) + " cursors and "
+                    + BigNumber.toDouble(game.getCookiesBits(time)) + " cookies");
+        }
+    }
+
+    /**
+     * A click must still count on totals that a double holds exactly, up to 2^53.
+     */
+    private void checkLargeTotals() {
+        for (double total : new double[]{0x1p49, 0x1p50 + 1, 1e15, 0x1p52, 0x1p53 - 2}) {
+            long cookies = BigNumber.fromDouble(total);
+            long clicked = BigNumber.add(cookies, BigNumber.ONE);
+            if (BigNumber.compare(clicked, cookies) <= 0 || BigNumber.toDouble(clicked) != total + 1) {
+                fail(total + " + 1 is " + BigNumber.toDouble(clicked));
+            }
+
+            // The same through a game, with no production so only the click changes the cookies
+            long time = System.currentTimeMillis();
+            Game game = new Game(new GameSave(1, 1, time, time, cookies, new long[Store.SIZE]));
+            game.addCookie(time);
+            if (BigNumber.toDouble(game.getCookiesBits(time)) != total + 1) {
+                fail("Clicking a game with " + total + " cookies left " + BigNumber.toDouble(game.getCookiesBits(time)));
+            }
+        }
+    }
+
+    /**
+     * Prices within a double's range must be exactly what the price formula always gave.
+     */
+    private void checkPricesMatchFormula() {
+        for (int item = 0; item < Store.SIZE; item++) {
+            long basePrice = Store.getBasePrice(item);
+            for (long owned = 0; owned < 1000; owned += 7) {
+                for (long amount : new long[]{1, 10, 100}) {
+                    double expected = Math.ceil(basePrice * Math.pow(1.1, amount + owned) / 0.1)
+                            - Math.ceil(basePrice * Math.pow(1.1, owned) / 0.1);
+                    double cost = BigNumber.toDouble(PurchaseSolver.cost(basePrice, owned, amount));
+                    if (cost != expected) {
+                        fail("cost(" + item + ", " + owned + ", " + amount + ") is " + cost + ", expected " + expected);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The prices /advise shows come from {@link PaybackIndex}'s cached terms, which must stay equal to
+     * {@link Game#getCostBits(Items, long)} through random purchases. That includes purchases of more items than it
+     * caches, and items owned so many times that their price has overflowed.
+     */
+    private void checkPaybackPricesMatchGame() {
+        Random random = new Random(1);
+        long time = System.currentTimeMillis();
+        long[] ownedChoices = {0, 1, 7000, 100_000, Long.MAX_VALUE / 2, Long.MAX_VALUE - 3, Long.MAX_VALUE};
+        for (int round = 0; round < 200; round++) {
+            long[] owned = new long[Store.SIZE];
+            for (int i = 0; i < Store.SIZE; i++) {
+                owned[i] = random.nextBoolean() ? random.nextInt(500) : ownedChoices[random.nextInt(ownedChoices.length)];
+            }
+            Game game = new Game(new GameSave(1, 1, time, time, BigNumber.MAX_VALUE - 1, owned));
+            // Created before the purchases, so they update it rather than it being built from the final amounts
+            checkAdvice(game, time);
+
+            for (int purchase = 0; purchase < 20; purchase++) {
+                Items item = Items.values()[random.nextInt(Store.SIZE)];
+                long amount = switch (random.nextInt(3)) {
+                    case 0 -> 1 + random.nextInt(PaybackIndex.LOOKAHEAD + 3);
+                    case 1 -> 1 + random.nextInt(1000);
+                    // Up to the most that can be owned, or one past it
+                    default -> random.nextBoolean() ? Long.MAX_VALUE : Math.max(1, Long.MAX_VALUE - game.getAmountOwned(item));
+                };
+                game.buy(item, amount, time);
+                checkAdvice(game, time);
+            }
+        }
+    }
+
+    private void checkAdvice(Game game, long time) {
+        PaybackIndex.Advice advice = game.advise(time, PaybackIndex.LOOKAHEAD);
+        long[] ranked = new long[Store.SIZE];
+        for (PaybackIndex.Choice choice : advice.ranking()) {
+            ranked[choice.item().ordinal()]++;
+            long expected = game.getCostBits(choice.item(), 1);
+            if (choice.costBits() != expected) {
+                fail("Ranked " + choice.item() + " at " + game.getAmountOwned(choice.item()) + " costs "
+                        + BigNumber.toDouble(choice.costBits()) + ", expected " + BigNumber.toDouble(expected));
+            }
+        }
+        for (Items item : Items.values()) {
+            boolean overflowed = game.getCostBits(item, 1) == BigNumber.MAX_VALUE;
+            if (ranked[item.ordinal()] != (overflowed ? 0 : 1)) {
+                fail(item + " at " + game.getAmountOwned(item) + " is ranked " + ranked[item.ordinal()]
+                        + " times, its price " + (overflowed ? "has" : "hasn't") + " overflowed");
+            }
+        }
+
+        // Each step of the plan costs what the game would charge after the earlier steps
+        long[] ahead = new long[Store.SIZE];
+        for (PaybackIndex.Step step : advice.plan()) {
+            int i = step.item().ordinal();
+            long owned = game.getAmountOwned(step.item()) + ahead[i]++;
+            long expected = PurchaseSolver.cost(Store.getBasePrice(i), owned, 1);
+            if (step.costBits() != expected) {
+                fail("Planned " + step.item() + " at " + owned + " costs " + BigNumber.toDouble(step.costBits())
+                        + ", expected " + BigNumber.toDouble(expected));
+            }
+        }
+    }
+
+    /**
+     * Production must count every millisecond, at fractional CPS too, however often the game is read or updated.
+     * Truncating to whole seconds produced nothing in a second split by clicks.
+     */
+    private void checkFractionalProduction() {
+        long start = System.currentTimeMillis();
+        for (long cursors : new long[]{1, 3, 7}) {
+            long[] owned = new long[Store.SIZE];
+            owned[Items.CURSOR.ordinal()] = cursors;
+            Game game = new Game(new GameSave(1, 1, start, start, BigNumber.ZERO, owned));
+            double cps = game.getCookiesPerSecond();
+
+            for (long elapsed : new long[]{1, 250, 999, 1500, 12345}) {
+                check(game.getProjectedCookies(start + elapsed), cps * elapsed / 1000,
+                        cursors + " cursors after " + elapsed + " ms");
+            }
+
+            // A click every 250 ms updates the cookies each time, and must not lose the partial seconds
+            long time = start;
+            for (int click = 1; click <= 40; click++) {
+                time += 250;
+                game.addCookie(time);
+                check(game.getProjectedCookies(time), click + cps * (time - start) / 1000,
+                        cursors + " cursors after " + click + " clicks");
+            }
+        }
+    }
+
+    private void check(double actual, double expected, String message) {
+        if (Math.abs(actual - expected) > 1e-9 * Math.max(1, expected)) {
+            fail(message + " has " + actual + " cookies, expected " + expected);
+        }
+    }
+
+    private void fail(String message) {
+        System.out.println(message);
+        failures++;
+    }
+}
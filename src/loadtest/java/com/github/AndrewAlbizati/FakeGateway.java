@@ -0,0 +1,267 @@
+package com.github.AndrewAlbizati;
+
+import org.javacord.api.entity.message.embed.EmbedBuilder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * An in-memory stand-in for Discord, so the bot can be driven by simulated players without a bot token.
+ * Every request completes after a configurable latency, and requests over the rate limits are held back until
+ * the next window the same way Javacord queues requests that Discord rate limited.
+ */
+public class FakeGateway implements DiscordGateway {
+    private final ScheduledExecutorService scheduler;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final int channelLimit;
+    private final long channelPeriodMillis;
+    private final RateLimit globalLimit;
+
+    private final AtomicLong nextMessageId = new AtomicLong(1);
+    private final ConcurrentHashMap<Long, FakeMessage> messages = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, RateLimit> channelLimits = new ConcurrentHashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder pending = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * A message in a user's private channel.
+     */
+    public static class FakeMessage {
+        private final long userId;
+        private volatile EmbedBuilder embed;
+        private volatile long lastEdited;
+        private final LongAdder edits = new LongAdder();
+
+        private FakeMessage(long userId, EmbedBuilder embed) {
+            this.userId = userId;
+            this.embed = embed;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        public EmbedBuilder getEmbed() {
+            return embed;
+        }
+
+        /**
+         * Returns when the latest edit that reached the message was requested, or 0 if it was never edited.
+         * The embed of that edit was rendered before this time.
+         */
+        public long getLastEdited() {
+            return lastEdited;
+        }
+
+        public long getEdits() {
+            return edits.sum();
+        }
+    }
+
+    /**
+     * Fixed window rate limit. Requests over the limit are assigned to the first later window with room.
+     */
+    private static class RateLimit {
+        private final int limit;
+        private final long periodMillis;
+        private long windowEnd;
+        private int used;
+
+        private RateLimit(int limit, long periodMillis) {
+            this.limit = limit;
+            this.periodMillis = periodMillis;
+        }
+
+        /**
+         * Reserves a request.
+         * @return How long the request has to wait, 0 if it can be sent now.
+         */
+        private synchronized long reserve(long now) {
+            if (now >= windowEnd) {
+                windowEnd = now + periodMillis;
+                used = 0;
+            }
+            if (used >= limit) {
+                windowEnd += periodMillis;
+                used = 0;
+            }
+            used++;
+            return Math.max(0, windowEnd - periodMillis - now);
+        }
+    }
+
+    /**
+     * @param threads The amount of threads used to complete requests.
+     * @param latencyMillis The time every request takes.
+     * @param jitterMillis The maximum random time added to every request.
+     * @param channelLimit The amount of requests per channel allowed in channelPeriodMillis, Discord allows 5 per 5 seconds.
+     * @param channelPeriodMillis The length of a channel's rate limit window.
+     * @param globalLimit The amount of requests allowed in globalPeriodMillis, Discord allows 50 per second.
+     * @param globalPeriodMillis The length of the global rate limit window.
+     */
+    public FakeGateway(int threads, long latencyMillis, long jitterMillis, int channelLimit, long channelPeriodMillis,
+                       int globalLimit, long globalPeriodMillis) {
+        scheduler = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "fake-gateway");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.channelLimit = channelLimit;
+        this.channelPeriodMillis = channelPeriodMillis;
+        this.globalLimit = new RateLimit(globalLimit, globalPeriodMillis);
+    }
+
+    /**
+     * Creates a gateway without rate limits.
+     * @param threads The amount of threads used to complete requests.
+     * @param latencyMillis The time every request takes.
+     */
+    public FakeGateway(int threads, long latencyMillis) {
+        this(threads, latencyMillis, 0, Integer.MAX_VALUE, 1, Integer.MAX_VALUE, 1);
+    }
+
+    @Override
+    public CompletableFuture<Long> sendGameMessage(long userId, EmbedBuilder embed) {
+        return request(userId, () -> {
+            long messageId = nextMessageId.getAndIncrement();
+            messages.put(messageId, new FakeMessage(userId, embed));
+            return messageId;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> editMessage(long userId, long messageId, EmbedBuilder embed) {
+        long requested = System.currentTimeMillis();
+        return request(userId, () -> {
+            FakeMessage message = messages.get(messageId);
+            if (message == null || message.userId != userId) {
+                throw new IllegalStateException("Unknown message " + messageId);
+            }
+            // Edits of the same message can finish out of order when there's jitter
+            synchronized (message) {
+                if (requested >= message.lastEdited) {
+                    message.embed = embed;
+                    message.lastEdited = requested;
+                }
+            }
+            message.edits.increment();
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteMessage(long userId, long messageId) {
+        return request(userId, () -> {
+            if (messages.remove(messageId) == null) {
+                throw new IllegalStateException("Unknown message " + messageId);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> getUserName(long userId) {
+        return request(userId, () -> "Player" + userId + "#0001");
+    }
+
+    @Override
+    public void forget(long userId) {
+        // Nothing is cached, messages stand in for Discord's own
+    }
+
+    /**
+     * Completes a request in a user's channel after the latency and any rate limit delay.
+     * Interaction responses use the same channels, but aren't counted against the rate limits.
+     */
+    <T> CompletableFuture<T> request(long userId, Supplier<T> action) {
+        requests.increment();
+        long now = System.currentTimeMillis();
+        long wait = Math.max(
+                channelLimits.computeIfAbsent(userId, id -> new RateLimit(channelLimit, channelPeriodMillis)).reserve(now),
+                globalLimit.reserve(now));
+        if (wait > 0) {
+            rateLimited.increment();
+        }
+        return complete(wait, action);
+    }
+
+    <T> CompletableFuture<T> complete(long wait, Supplier<T> action) {
+        long delay = wait + latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        pending.increment();
+        scheduler.schedule(() -> {
+            pending.decrement();
+            try {
+                result.complete(action.get());
+            } catch (RuntimeException e) {
+                failed.increment();
+                result.completeExceptionally(e);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    /**
+     * Creates a slash command interaction for a user, whose responses take the same latency as other requests.
+     * @param userId The Discord id of the user calling the command.
+     * @return The interaction, options can be added before it's handed to {@link Commands}.
+     */
+    public FakeInteraction interaction(long userId) {
+        return new FakeInteraction(this, userId);
+    }
+
+    /**
+     * Adds a message that was sent before the bot was restarted, since Discord keeps messages across restarts.
+     * @param userId The Discord id of the user the message was sent to.
+     * @param messageId The id of the message.
+     */
+    public void restoreMessage(long userId, long messageId) {
+        messages.put(messageId, new FakeMessage(userId, null));
+        nextMessageId.accumulateAndGet(messageId + 1, Math::max);
+    }
+
+    public FakeMessage getMessage(long messageId) {
+        return messages.get(messageId);
+    }
+
+    public int getMessageCount() {
+        return messages.size();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Returns the amount of requests that haven't completed yet, including ones held back by a rate limit.
+     */
+    public long getPending() {
+        return pending.sum();
+    }
+
+    public long getRateLimited() {
+        return rateLimited.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+}
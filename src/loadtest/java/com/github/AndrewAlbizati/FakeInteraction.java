@@ -0,0 +1,110 @@
+package com.github.AndrewAlbizati;
+
+import org.javacord.api.entity.message.embed.EmbedBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * A slash command interaction created by {@link FakeGateway}. The response is kept so it can be checked.
+ */
+public class FakeInteraction implements CommandInteraction {
+    private final FakeGateway gateway;
+    private final long userId;
+    private final Map<String, Object> options = new HashMap<>();
+    private final CompletableFuture<Object> response = new CompletableFuture<>();
+    private volatile boolean deferred;
+
+    FakeInteraction(FakeGateway gateway, long userId) {
+        this.gateway = gateway;
+        this.userId = userId;
+    }
+
+    public FakeInteraction withOption(String name, String value) {
+        options.put(name, value);
+        return this;
+    }
+
+    public FakeInteraction withOption(String name, long value) {
+        options.put(name, value);
+        return this;
+    }
+
+    @Override
+    public long getUserId() {
+        return userId;
+    }
+
+    @Override
+    public Map<String, Object> getOptions() {
+        return options;
+    }
+
+    @Override
+    public Optional<String> getStringOption(String name) {
+        return options.get(name) instanceof String value ? Optional.of(value) : Optional.empty();
+    }
+
+    @Override
+    public Optional<Long> getLongOption(String name) {
+        return options.get(name) instanceof Long value ? Optional.of(value) : Optional.empty();
+    }
+
+    @Override
+    public CompletableFuture<Void> respondLater(boolean ephemeral) {
+        return gateway.complete(0, () -> {
+            if (response.isDone() || deferred) {
+                throw new IllegalStateException("Interaction already responded to");
+            }
+            deferred = true;
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> respond(String content) {
+        return respondWith(content);
+    }
+
+    @Override
+    public CompletableFuture<Void> respond(EmbedBuilder embed) {
+        return respondWith(embed);
+    }
+
+    private CompletableFuture<Void> respondWith(Object content) {
+        return gateway.complete(0, () -> {
+            // Discord only accepts one response per interaction
+            if (!response.complete(content)) {
+                throw new IllegalStateException("Interaction already responded to");
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Calls a command handler with this interaction.
+     * @param handler The handler, e.g. {@link Commands#help(CommandInteraction)}.
+     * @return A future that completes with the response, a String or an EmbedBuilder, once the handler is done.
+     * It completes with null if the handler didn't respond.
+     */
+    public CompletableFuture<Object> call(Function<CommandInteraction, CompletableFuture<Void>> handler) {
+        return handler.apply(this).thenApply(v -> response.getNow(null));
+    }
+
+    /**
+     * Returns true if the response was deferred before it was sent.
+     */
+    public boolean isDeferred() {
+        return deferred;
+    }
+
+    /**
+     * Returns a future that completes with the response, a String or an EmbedBuilder, once it's sent.
+     */
+    public CompletableFuture<Object> getResponse() {
+        return response;
+    }
+}
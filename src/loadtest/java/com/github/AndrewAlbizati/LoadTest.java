@@ -0,0 +1,617 @@
+package com.github.AndrewAlbizati;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.json.simple.JSONObject;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives the bot's real command handlers and click path with simulated players, over a {@link FakeGateway}.
+ * <p>
+ * Every player starts a game, then clicks, buys, and checks the leaderboard at random (Poisson) times until their
+ * session ends, quits, and starts a new game. A player's actions run one after another like a real user's, on a
+ * pool of handler threads like Javacord's listener threads. Latency is measured from when an action was due until
+ * its response is sent, so time spent waiting for a handler thread is included. Thread occupancy is the time the
+ * handler itself kept the thread busy.
+ * <p>
+ * Lost updates are counted by checking the bot against what each player saw:
+ * <ul>
+ *     <li>purchases: items owned that don't match the purchases that were confirmed</li>
+ *     <li>clicks: cookies earned (current cookies plus cookies spent) below the confirmed clicks. Production can hide
+ *     lost clicks, so this is a lower bound</li>
+ *     <li>edits: game messages whose last edit was sent before the player's last click, once edits have settled</li>
+ *     <li>saves: games that don't match the saves after the bot is stopped and the save files are loaded again</li>
+ * </ul>
+ * Options are passed as key=value arguments, see {@link #DEFAULTS}. Results are printed and written as JSON.
+ */
+public class LoadTest {
+    private static final String[] DEFAULTS = {
+            "players=1000",              // Simulated players
+            "duration=60",               // Seconds that players act for
+            "ramp-up=10",                // Seconds over which players start their first game
+            "session=30",                // Mean seconds a player plays before quitting
+            "click-rate=2",              // Actions per second per player
+            "buy-probability=0.05",      // Chance that an action is /buy instead of a click
+            "help-probability=0.005",    // Chance that an action is /help instead of a click
+            "max-buy=10",                // Most items bought at once
+            "threads=8",                 // Handler threads
+            "latency=50",                // Milliseconds every Discord request takes
+            "jitter=20",                 // Most milliseconds added to a request at random
+            "channel-limit=5",           // Requests per channel per channel-period
+            "channel-period=5000",
+            "global-limit=50",           // Requests per global-period
+            "global-period=1000",
+            "edit-interval=1000",        // Minimum milliseconds between edits of a game message
+            "storage=journal",           // journal or mapped, see GameStore
+            "resident-games=0",          // Most games kept in memory, the rest are parked (0 for every game)
+            "idle-seconds=0",            // Seconds until an idle game is parked (0 for never)
+            "click-limit=0",             // Clicks per second per user handled in full, see ClickLimiter (0 for no limit)
+            "click-burst=20",            // Clicks a user can make at once before click-limit applies
+            "global-click-limit=0",      // Clicks per second of every user together handled in full (0 for no limit)
+            "click-policy=fold",         // fold or drop, what happens to clicks over the limit
+            "flooders=0",                // Extra players that only click, as fast as an autoclicker
+            "flood-rate=2000",           // Clicks per second per flooder
+            "seed=1",
+            "label=",                    // Stored in the results to tell runs apart
+            "output=loadtest-results.json"
+    };
+
+    private enum Action {
+        NEW_GAME, CLICK, BUY, HELP, QUIT
+    }
+
+    private final Properties options;
+    private final FakeGateway gateway;
+    private final Bot bot;
+    private final Path saveDirectory;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService handlers;
+
+    private final Map<Action, LatencyHistogram> latencies = new EnumMap<>(Action.class);
+    private final Map<Action, LatencyHistogram> occupancy = new EnumMap<>(Action.class);
+    private final LatencyHistogram floodLatency = new LatencyHistogram();
+    private final LatencyHistogram gcPauses = new LatencyHistogram();
+    private final LongAdder gcPauseMicros = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder lostPurchases = new LongAdder();
+    private final LongAdder lostClicks = new LongAdder();
+    private final LongAdder lostEdits = new LongAdder();
+    private final LongAdder lostSaves = new LongAdder();
+    private final JSONObject replays = new JSONObject();
+    private final AtomicInteger running = new AtomicInteger();
+
+    private volatile long endTime;
+
+    private LoadTest(Properties options) throws IOException {
+        this.options = options;
+
+        gateway = new FakeGateway(Math.max(2, integer("threads") / 2), longValue("latency"), longValue("jitter"),
+                integer("channel-limit"), longValue("channel-period"),
+                integer("global-limit"), longValue("global-period"));
+
+        saveDirectory = Files.createTempDirectory("cookie-clicker-loadtest");
+        SaveStore saveStore = new SaveStore(saveDirectory.resolve("saves.dat").toString(),
+                saveDirectory.resolve("saves.wal").toString());
+        GameStore store = isMapped()
+                ? new MappedGameStore(saveDirectory.resolve("saves.table").toString(), saveStore)
+                : saveStore;
+        bot = new Bot(gateway, store, longValue("edit-interval"));
+        bot.setEviction(integer("resident-games") == 0 ? Integer.MAX_VALUE : integer("resident-games"),
+                longValue("idle-seconds") == 0 ? Long.MAX_VALUE : longValue("idle-seconds") * 1000);
+        if (integer("click-limit") != 0) {
+            bot.setClickLimiter(new ClickLimiter(integer("click-limit"), integer("click-burst"),
+                    integer("global-click-limit"),
+                    options.getProperty("click-policy").equals("drop") ? ClickLimiter.Policy.DROP : ClickLimiter.Policy.FOLD,
+                    Math.max(16, integer("players") + integer("flooders"))));
+        }
+
+        timer = Executors.newSingleThreadScheduledExecutor();
+        handlers = Executors.newFixedThreadPool(integer("threads"));
+
+        for (Action action : Action.values()) {
+            latencies.put(action, new LatencyHistogram());
+            occupancy.put(action, new LatencyHistogram());
+        }
+    }
+
+    public static void main(String[] args) {
+        Properties options = new Properties();
+        for (String option : DEFAULTS) {
+            put(options, option);
+        }
+        for (String arg : args) {
+            if (!arg.contains("=") || !options.containsKey(arg.substring(0, arg.indexOf('=')))) {
+                System.out.println("Unknown option " + arg);
+                return;
+            }
+            put(options, arg);
+        }
+
+        try {
+            new LoadTest(options).run();
+        } catch (IOException | InterruptedException | NumberFormatException e) {
+            e.printStackTrace();
+        }
+        System.exit(0);
+    }
+
+    private static void put(Properties options, String option) {
+        int comment = option.indexOf("//");
+        option = (comment == -1 ? option : option.substring(0, comment)).trim();
+        options.setProperty(option.substring(0, option.indexOf('=')), option.substring(option.indexOf('=') + 1));
+    }
+
+    private int integer(String key) {
+        return Integer.parseInt(options.getProperty(key));
+    }
+
+    private boolean isMapped() {
+        return options.getProperty("storage").equals("mapped");
+    }
+
+    private long longValue(String key) {
+        return Long.parseLong(options.getProperty(key));
+    }
+
+    private double decimal(String key) {
+        return Double.parseDouble(options.getProperty(key));
+    }
+
+    private void run() throws IOException, InterruptedException {
+        listenToGarbageCollection();
+        bot.startWithoutApi();
+
+        int players = integer("players");
+        long rampUpMillis = longValue("ramp-up") * 1000;
+        Random random = new Random(longValue("seed"));
+
+        System.out.println("Running " + players + " players for " + longValue("duration") + "s");
+        long start = System.currentTimeMillis();
+        endTime = start + longValue("duration") * 1000;
+        Player[] all = new Player[players];
+        for (int i = 0; i < players; i++) {
+            all[i] = new Player(i + 1, random.nextLong());
+            running.incrementAndGet();
+            all[i].schedule(Action.NEW_GAME, start + (long) (random.nextDouble() * rampUpMillis));
+        }
+        for (int i = 0; i < integer("flooders"); i++) {
+            running.incrementAndGet();
+            flood(players + i + 1);
+        }
+
+        // Wait for every player's last action, then for the last edits to be sent
+        while (running.get() > 0) {
+            Thread.sleep(100);
+        }
+        long actionsEnded = System.currentTimeMillis();
+        // An edit can be waiting for the edit interval without being sent yet, so also wait until no more are sent
+        long editsSent;
+        do {
+            editsSent = bot.getEditCoalescer().getEditsSent();
+            Thread.sleep(longValue("edit-interval") + 2 * (longValue("latency") + longValue("jitter")));
+        } while (gateway.getPending() > 0 || bot.getEditCoalescer().getEditsSent() != editsSent);
+
+        for (Player player : all) {
+            player.checkMessage();
+        }
+        checkReplays();
+
+        // Stopping saves every game, which should match the games after they're loaded again
+        bot.stop();
+        checkSaves();
+
+        writeResults(actionsEnded - start);
+        timer.shutdown();
+        handlers.shutdown();
+        gateway.shutdown();
+    }
+
+    /**
+     * Starts a game for a flooder, then presses its cookie button at flood-rate until the run ends. Clicks are
+     * submitted in batches every 10 ms, to the same handler threads as every player's actions.
+     */
+    private void flood(long userId) {
+        gateway.interaction(userId).call(i -> bot.command("newgame", i)).join();
+
+        long batchMillis = 10;
+        double perBatch = decimal("flood-rate") * batchMillis / 1000;
+        double[] owed = new double[1];
+        ScheduledFuture<?>[] task = new ScheduledFuture<?>[1];
+        task[0] = timer.scheduleAtFixedRate(() -> {
+            if (System.currentTimeMillis() >= endTime) {
+                task[0].cancel(false);
+                running.decrementAndGet();
+                return;
+            }
+            owed[0] += perBatch;
+            long due = System.currentTimeMillis();
+            for (; owed[0] >= 1; owed[0]--) {
+                handlers.execute(() -> {
+                    try {
+                        bot.handleClick(userId).join();
+                    } catch (RuntimeException e) {
+                        errors.increment();
+                    }
+                    floodLatency.record(Math.max(0, System.currentTimeMillis() - due) * 1000);
+                });
+            }
+        }, batchMillis, batchMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void listenToGarbageCollection() {
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(bean instanceof NotificationEmitter emitter)) {
+                continue;
+            }
+
+            emitter.addNotificationListener((notification, handback) -> {
+                if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                // Concurrent cycles don't stop the bot's threads
+                if (info.getGcAction().contains("concurrent") || info.getGcName().contains("Concurrent")) {
+                    return;
+                }
+                long micros = info.getGcInfo().getDuration() * 1000;
+                gcPauses.record(micros);
+                gcPauseMicros.add(micros);
+            }, null, null);
+        }
+    }
+
+    private void checkSaves() {
+        try {
+            Map<Long, GameSave> saves = isMapped() ? loadTable()
+                    : new SaveStore(saveDirectory.resolve("saves.dat").toString(),
+                            saveDirectory.resolve("saves.wal").toString()).loadAll();
+
+            for (long userId : bot.getGames().userIds()) {
+                Game game = bot.getGames().get(userId);
+                GameSave save = saves.remove(userId);
+                if (game == null || save == null) {
+                    lostSaves.increment();
+                    continue;
+                }
+
+                GameSave expected = game.toSave(save.saveTime());
+                if (save.messageId() != expected.messageId() || save.startTime() != expected.startTime()
+                        || !Arrays.equals(save.owned(), expected.owned())
+                        || Math.abs(BigNumber.toDouble(save.cookiesBits()) - BigNumber.toDouble(expected.cookiesBits()))
+                                > 1e-6 * Math.max(1, BigNumber.toDouble(expected.cookiesBits()))) {
+                    lostSaves.increment();
+                }
+            }
+
+            // Games that were quit but are still saved
+            lostSaves.add(saves.size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            lostSaves.increment();
+        }
+    }
+
+    /**
+     * Reads every game in the mapped table, through a second mapping of the file.
+     */
+    private Map<Long, GameSave> loadTable() throws IOException {
+        Map<Long, GameSave> saves = new HashMap<>();
+        try (GameTable table = GameTable.open(saveDirectory.resolve("saves.table"))) {
+            for (int slot : table.usedSlots()) {
+                GameSave save = GameTable.read(table.record(slot));
+                // Games whose message was never sent aren't saved
+                if (save.messageId() != 0) {
+                    saves.put(save.userId(), save);
+                }
+            }
+        }
+        return saves;
+    }
+
+    /**
+     * Replays every game's events, checks them against the live game, and measures how fast they replay.
+     */
+    private void checkReplays() {
+        List<GameEventLog.Snapshot> logs = new ArrayList<>();
+        long mismatches = 0;
+        for (long userId : bot.getGames().userIds()) {
+            Game game = bot.getGames().get(userId);
+            if (game == null) {
+                continue;
+            }
+            if (!GameReplay.verify(game).matches()) {
+                mismatches++;
+            }
+            logs.add(game.getEvents());
+        }
+
+        long events = 0;
+        long bytes = 0;
+        for (GameEventLog.Snapshot log : logs) {
+            events += log.events();
+            bytes += log.sizeInBytes();
+        }
+
+        // Replays every log a few times so the replay loop is compiled before it's timed
+        long start = 0;
+        for (int pass = 0; pass < 10; pass++) {
+            if (pass == 5) {
+                start = System.nanoTime();
+            }
+            for (GameEventLog.Snapshot log : logs) {
+                GameReplay.replay(log);
+            }
+        }
+        long nanos = Math.max(1, System.nanoTime() - start);
+
+        replays.put("events", events);
+        replays.put("bytes", bytes);
+        replays.put("mismatches", mismatches);
+        replays.put("events-per-second", (long) (events * 5 * 1e9 / nanos));
+    }
+
+    private void writeResults(long elapsedMillis) throws IOException {
+        JSONObject results = new JSONObject();
+        results.put("label", options.getProperty("label"));
+        results.put("timestamp", System.currentTimeMillis());
+
+        JSONObject config = new JSONObject();
+        for (String key : options.stringPropertyNames()) {
+            config.put(key, options.getProperty(key));
+        }
+        results.put("options", config);
+
+        long operations = 0;
+        JSONObject handlerLatency = new JSONObject();
+        JSONObject handlerOccupancy = new JSONObject();
+        for (Action action : Action.values()) {
+            String name = action.name().toLowerCase().replace('_', '-');
+            operations += latencies.get(action).getCount();
+            handlerLatency.put(name, latencies.get(action).toJSONObject());
+            handlerOccupancy.put(name, occupancy.get(action).toJSONObject());
+        }
+        results.put("elapsed-ms", elapsedMillis);
+        results.put("operations", operations);
+        results.put("throughput-per-second", operations * 1000.0 / elapsedMillis);
+        results.put("latency", handlerLatency);
+        results.put("thread-occupancy", handlerOccupancy);
+        results.put("errors", errors.sum());
+
+        JSONObject gc = gcPauses.toJSONObject();
+        gc.put("total-us", gcPauseMicros.sum());
+        results.put("gc-pauses", gc);
+
+        JSONObject lost = new JSONObject();
+        lost.put("purchases", lostPurchases.sum());
+        lost.put("clicks", lostClicks.sum());
+        lost.put("edits", lostEdits.sum());
+        lost.put("saves", lostSaves.sum());
+        results.put("lost-updates", lost);
+        results.put("replay", replays);
+
+        JSONObject discord = new JSONObject();
+        discord.put("requests", gateway.getRequests());
+        discord.put("rate-limited", gateway.getRateLimited());
+        discord.put("failed", gateway.getFailed());
+        discord.put("edits-requested", bot.getEditCoalescer().getEditsRequested());
+        discord.put("edits-sent", bot.getEditCoalescer().getEditsSent());
+        results.put("discord", discord);
+
+        JSONObject tiering = new JSONObject();
+        tiering.put("evictions", bot.getGames().getEvictions());
+        tiering.put("reloads", bot.getGames().getReloads());
+        tiering.put("parked", bot.getGames().parkedCount());
+        results.put("tiering", tiering);
+
+        JSONObject clickLimit = new JSONObject();
+        ClickLimiter limiter = bot.getClickLimiter();
+        if (limiter != null) {
+            clickLimit.put("admitted", limiter.getAdmitted());
+            clickLimit.put("shed-user", limiter.getShedByUser());
+            clickLimit.put("shed-global", limiter.getShedByGlobal());
+            clickLimit.put("untracked", limiter.getUntracked());
+        }
+        // Compare with latency.click, the clicks of every other player
+        clickLimit.put("flood-latency", floodLatency.toJSONObject());
+        results.put("click-limit", clickLimit);
+
+        // The bot's own view of the same run, as served by its metrics endpoint
+        Metrics metrics = bot.getMetrics();
+        JSONObject botMetrics = new JSONObject();
+        botMetrics.put("click", metrics.getClickLatency().toJSONObject());
+        botMetrics.put("newgame", metrics.getCommandLatency("newgame").toJSONObject());
+        botMetrics.put("buy", metrics.getCommandLatency("buy").toJSONObject());
+        botMetrics.put("help", metrics.getCommandLatency("help").toJSONObject());
+        botMetrics.put("quit", metrics.getCommandLatency("quit").toJSONObject());
+        botMetrics.put("save", metrics.getSaveLatency().toJSONObject());
+        botMetrics.put("scheduler-lag", metrics.getSchedulerLag().toJSONObject());
+        results.put("bot-metrics", botMetrics);
+
+        System.out.println(results.toJSONString());
+        try (FileWriter writer = new FileWriter(options.getProperty("output"))) {
+            writer.write(results.toJSONString());
+        }
+        System.out.println("Results written to " + options.getProperty("output"));
+    }
+
+    /**
+     * A simulated player. Only one of a player's actions runs at a time, and the player keeps track of what the bot
+     * confirmed so lost updates can be found.
+     */
+    private class Player {
+        private final long userId;
+        private final Random random;
+
+        // What the bot confirmed during the current game
+        private boolean playing;
+        private long clicks;
+        private double spent;
+        private final long[] owned = new long[Store.SIZE];
+        private long lastClick;
+        private long sessionEnd;
+
+        private Player(long userId, long seed) {
+            this.userId = userId;
+            this.random = new Random(seed);
+        }
+
+        private void schedule(Action action, long due) {
+            timer.schedule(() -> handlers.execute(() -> perform(action, due)),
+                    Math.max(0, due - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+
+        private void perform(Action action, long due) {
+            long started = System.nanoTime();
+            CompletableFuture<?> done;
+            try {
+                done = switch (action) {
+                    case NEW_GAME -> newGame();
+                    case CLICK -> click();
+                    case BUY -> buy();
+                    case HELP -> gateway.interaction(userId).call(i -> bot.command("help", i));
+                    case QUIT -> quit();
+                };
+            } catch (RuntimeException e) {
+                done = CompletableFuture.failedFuture(e);
+            }
+            // Time the handler kept this thread busy, the rest of the latency is spent waiting on Discord or disk
+            occupancy.get(action).recordNanos(System.nanoTime() - started);
+
+            done.whenComplete((v, e) -> {
+                if (e != null) {
+                    errors.increment();
+                    e.printStackTrace();
+                }
+                latencies.get(action).record(Math.max(0, System.currentTimeMillis() - due) * 1000);
+                scheduleNext(due);
+            });
+        }
+
+        private void scheduleNext(long due) {
+            // Poisson arrivals, measured from when this action was due rather than when it finished
+            long next = due + (long) (-Math.log(1 - random.nextDouble()) * 1000 / decimal("click-rate"));
+            if (next >= endTime) {
+                running.decrementAndGet();
+            } else if (!playing) {
+                schedule(Action.NEW_GAME, next);
+            } else if (next >= sessionEnd) {
+                schedule(Action.QUIT, next);
+            } else {
+                double roll = random.nextDouble();
+                if (roll < decimal("buy-probability")) {
+                    schedule(Action.BUY, next);
+                } else if (roll < decimal("buy-probability") + decimal("help-probability")) {
+                    schedule(Action.HELP, next);
+                } else {
+                    schedule(Action.CLICK, next);
+                }
+            }
+        }
+
+        private CompletableFuture<?> newGame() {
+            return gateway.interaction(userId).call(i -> bot.command("newgame", i)).thenAccept(response -> {
+                playing = bot.getGames().contains(userId);
+                clicks = 0;
+                spent = 0;
+                lastClick = 0;
+                Arrays.fill(owned, 0);
+                sessionEnd = System.currentTimeMillis() + (long) (-Math.log(1 - random.nextDouble()) * longValue("session") * 1000);
+            });
+        }
+
+        private CompletableFuture<?> click() {
+            // Taken before the click, since its edit can be sent before handleClick returns
+            long time = System.currentTimeMillis();
+            if (bot.handleClick(userId).join()) {
+                clicks++;
+                lastClick = time;
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        private CompletableFuture<?> buy() {
+            Items item = Items.values()[random.nextInt(Store.SIZE)];
+            long amount = 1 + random.nextInt(integer("max-buy"));
+            return gateway.interaction(userId)
+                    .withOption("ITEM", item.toString())
+                    .withOption("AMOUNT", amount)
+                    .call(i -> bot.command("buy", i))
+                    .thenAccept(response -> {
+                        // "Successfully purchased N item(s)"
+                        if (response instanceof String content && content.startsWith("Successfully purchased ")) {
+                            long bought = Long.parseLong(content.split(" ")[2]);
+                            spent += BigNumber.toDouble(PurchaseSolver.cost(Store.getBasePrice(item.ordinal()), owned[item.ordinal()], bought));
+                            owned[item.ordinal()] += bought;
+                        }
+                    });
+        }
+
+        private CompletableFuture<?> quit() {
+            checkGame();
+            return gateway.interaction(userId).call(i -> bot.command("quit", i)).thenAccept(response -> playing = false);
+        }
+
+        /**
+         * Compares the game with the clicks and purchases the bot confirmed.
+         */
+        private void checkGame() {
+            // Loads the game if it was parked, so parking and loading it must not lose anything either
+            Game game = bot.getGames().load(userId);
+            if (game == null) {
+                lostSaves.increment();
+                return;
+            }
+
+            for (Items item : Items.values()) {
+                if (game.getAmountOwned(item) != owned[item.ordinal()]) {
+                    lostPurchases.increment();
+                }
+            }
+
+            // Clicks over the click limit are added within a second, or on quitting
+            double earned = game.getProjectedCookies(System.currentTimeMillis()) + game.getDeferredClicks() + spent;
+            if (earned < clicks - 1e-6 * clicks) {
+                lostClicks.add((long) Math.ceil(clicks - earned));
+            }
+        }
+
+        /**
+         * Once edits have settled, checks that the game message shows the player's last click.
+         */
+        private void checkMessage() {
+            if (!playing) {
+                return;
+            }
+            checkGame();
+
+            Game game = bot.getGames().load(userId);
+            FakeGateway.FakeMessage message = game == null ? null : gateway.getMessage(game.getMessageId());
+            if (message == null || (lastClick != 0 && message.getLastEdited() < lastClick)) {
+                lostEdits.increment();
+            }
+        }
+    }
+}
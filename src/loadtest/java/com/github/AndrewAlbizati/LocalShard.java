@@ -0,0 +1,42 @@
+package com.github.AndrewAlbizati;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs one shard of the bot against a {@link FakeGateway}, saving to the working directory, so several shards can
+ * be started as local processes. Games are saved when the process is stopped.
+ * <p>
+ * Usage: LocalShard shardId shardCount basePort secret [latency], where shard i listens on basePort + i.
+ */
+public class LocalShard {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int shardId = Integer.parseInt(args[0]);
+        int shardCount = Integer.parseInt(args[1]);
+        int basePort = Integer.parseInt(args[2]);
+        String secret = args[3];
+        long latency = args.length > 4 ? Long.parseLong(args[4]) : 50;
+
+        ShardMap shards = new ShardMap(shardId, shardCount);
+        shards.checkSavedShardCount();
+
+        Bot bot = new Bot(new FakeGateway(4, latency), 1000, shards, addresses(shardCount, basePort), secret);
+        bot.startWithoutApi();
+        Runtime.getRuntime().addShutdownHook(new Thread(bot::stop));
+        System.out.println("Shard " + shardId + " of " + shardCount + " started on port " + (basePort + shardId));
+
+        Thread.currentThread().join();
+    }
+
+    /**
+     * Returns the addresses of local shards, in order of shard id.
+     */
+    static List<String> addresses(int shardCount, int basePort) {
+        List<String> addresses = new ArrayList<>(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            addresses.add("localhost:" + (basePort + shard));
+        }
+        return addresses;
+    }
+}
@@ -0,0 +1,280 @@
+package com.github.AndrewAlbizati;
+
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Starts several {@link LocalShard} processes and plays games through them, sending every command and click to a
+ * random shard the way Discord would. Then checks that every game was saved by the shard that owns it, and that
+ * rebalancing to one more shard keeps every game.
+ */
+public class ShardTest {
+    private static final String[] DEFAULTS = {
+            "shards=3         // Amount of shard processes",
+            "players=200      // Amount of games",
+            "clicks=20        // Clicks per game",
+            "concurrency=100  // Players playing at once",
+            "base-port=8090   // Shard i listens on base-port + i",
+            "latency=20       // Time every fake Discord request takes, in milliseconds",
+            "seed=1           // Seed of the random user ids and shards",
+    };
+
+    private final Properties options;
+    private final int shardCount;
+    private final Path saveDirectory;
+    // Shared by the shards started for this run
+    private final String secret = Long.toHexString(new SecureRandom().nextLong());
+    private final ShardClient client;
+    private final Random random;
+    private final List<Process> processes = new ArrayList<>();
+    private final LongAdder failures = new LongAdder();
+
+    private ShardTest(Properties options) throws IOException {
+        this.options = options;
+        shardCount = integer("shards");
+        saveDirectory = Files.createTempDirectory("cookie-clicker-shards");
+        client = new ShardClient(LocalShard.addresses(shardCount, integer("base-port")), secret);
+        random = new Random(Long.parseLong(options.getProperty("seed")));
+    }
+
+    public static void main(String[] args) {
+        Properties options = new Properties();
+        for (String option : DEFAULTS) {
+            put(options, option);
+        }
+        for (String arg : args) {
+            if (!arg.contains("=") || !options.containsKey(arg.substring(0, arg.indexOf('=')))) {
+                System.out.println("Unknown option " + arg);
+                return;
+            }
+            put(options, arg);
+        }
+
+        boolean passed = false;
+        try {
+            passed = new ShardTest(options).run();
+        } catch (IOException | InterruptedException | ParseException | NumberFormatException e) {
+            e.printStackTrace();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static void put(Properties options, String option) {
+        int comment = option.indexOf("//");
+        option = (comment == -1 ? option : option.substring(0, comment)).trim();
+        options.setProperty(option.substring(0, option.indexOf('=')), option.substring(option.indexOf('=') + 1));
+    }
+
+    private int integer(String key) {
+        return Integer.parseInt(options.getProperty(key));
+    }
+
+    private boolean run() throws IOException, InterruptedException, ParseException {
+        System.out.println("Saving to " + saveDirectory);
+        try {
+            for (int shard = 0; shard < shardCount; shard++) {
+                processes.add(start(LocalShard.class, String.valueOf(shard), String.valueOf(shardCount),
+                        options.getProperty("base-port"), secret, options.getProperty("latency")));
+            }
+            waitForShards();
+            checkSecret();
+
+            Map<Long, Long> clicks = play();
+            checkLeaderboard(clicks);
+        } finally {
+            // Shards save their games when they're stopped
+            for (Process process : processes) {
+                process.destroy();
+            }
+            for (Process process : processes) {
+                process.waitFor();
+            }
+        }
+
+        List<Long> userIds = new ArrayList<>();
+        for (int i = 0; i < integer("players"); i++) {
+            userIds.add(userId(i));
+        }
+        checkSaves(shardCount, userIds, true);
+
+        // Rebalance the saves to one more shard, the same way an operator would
+        Process rebalance = start(Main.class, "rebalance", String.valueOf(shardCount + 1));
+        if (rebalance.waitFor() != 0) {
+            fail("Rebalancing exited with " + rebalance.exitValue());
+        }
+        checkSaves(shardCount + 1, userIds, false);
+
+        System.out.println(failures.sum() == 0 ? "Passed" : "Failed with " + failures.sum() + " errors");
+        return failures.sum() == 0;
+    }
+
+    /**
+     * Starts a class's main method in a new JVM with the same classpath, in the save directory.
+     */
+    private Process start(Class<?> mainClass, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass.getName());
+        command.addAll(List.of(args));
+        return new ProcessBuilder(command).directory(saveDirectory.toFile()).inheritIO().start();
+    }
+
+    private void waitForShards() throws InterruptedException {
+        for (int shard = 0; shard < shardCount; shard++) {
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (true) {
+                try {
+                    client.countAbove(shard, 0, System.currentTimeMillis()).join();
+                    break;
+                } catch (RuntimeException e) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new IllegalStateException("Shard " + shard + " didn't start", e);
+                    }
+                    Thread.sleep(100);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that shards reject requests with a wrong secret.
+     */
+    private void checkSecret() {
+        ShardClient intruder = new ShardClient(LocalShard.addresses(shardCount, integer("base-port")), secret + "0");
+        for (int shard = 0; shard < shardCount; shard++) {
+            try {
+                intruder.click(shard, userId(0)).join();
+                fail("Shard " + shard + " accepted a click with the wrong secret");
+            } catch (RuntimeException e) {
+                check(String.valueOf(e.getMessage()).contains("401"), "Shard " + shard + " failed with " + e);
+            }
+        }
+    }
+
+    /**
+     * Users are numbered so their ids can be rebuilt after the shards are stopped.
+     */
+    private long userId(int player) {
+        return 100_000_000_000_000_000L + player * 7919L;
+    }
+
+    /**
+     * Starts a game for every player and clicks it, each request going to a random shard.
+     * @return The clicks sent to each game, keyed by user id.
+     */
+    private Map<Long, Long> play() {
+        int clicks = integer("clicks");
+        Map<Long, Long> sent = new HashMap<>();
+
+        // Each lane plays its players one after another
+        List<CompletableFuture<Void>> lanes = new ArrayList<>();
+        for (int i = 0; i < integer("concurrency"); i++) {
+            lanes.add(CompletableFuture.completedFuture(null));
+        }
+
+        for (int i = 0; i < integer("players"); i++) {
+            long userId = userId(i);
+            int newGameShard = random.nextInt(shardCount);
+            int[] clickShards = random.ints(clicks, 0, shardCount).toArray();
+
+            int lane = i % lanes.size();
+            lanes.set(lane, lanes.get(lane).thenCompose(v -> playGame(userId, newGameShard, clickShards)));
+            sent.put(userId, (long) clicks);
+        }
+
+        CompletableFuture.allOf(lanes.toArray(new CompletableFuture[0])).join();
+        return sent;
+    }
+
+    private CompletableFuture<Void> playGame(long userId, int newGameShard, int[] clickShards) {
+        CompletableFuture<Void> player = client.command(newGameShard, "newgame", userId, Map.of())
+                .thenAccept(response -> check(response.equals(":thumbsup:"), "/newgame of " + userId + " responded " + response));
+        for (int shard : clickShards) {
+            player = player.thenCompose(v -> client.click(shard, userId)).thenAccept(playing ->
+                    check(playing, "Click of " + userId + " found no game"));
+        }
+        return player.exceptionally(e -> {
+            fail("Player " + userId + " failed: " + e);
+            return null;
+        });
+    }
+
+    /**
+     * Checks that every game is on exactly the shard that owns it, and that /help works from every shard.
+     */
+    private void checkLeaderboard(Map<Long, Long> clicks) {
+        long time = System.currentTimeMillis();
+        int size = 0;
+        for (int shard = 0; shard < shardCount; shard++) {
+            size += client.top(shard, 10, time, 0).join().size();
+            String help = client.command(shard, "help", userId(0), Map.of()).join();
+            check(help.equals(RemoteInteraction.EMBED_RESPONSE), "/help on shard " + shard + " responded " + help);
+        }
+        check(size == clicks.size(), "Shards have " + size + " games, expected " + clicks.size());
+
+        for (long userId : clicks.keySet()) {
+            for (int shard = 0; shard < shardCount; shard++) {
+                long cookies = client.top(shard, 0, time, userId).join().cookiesBits();
+                if (shard == ShardMap.shardOf(userId, shardCount)) {
+                    check(cookies != Leaderboard.NOT_RANKED && BigNumber.toDouble(cookies) >= clicks.get(userId),
+                            "Game of " + userId + " has " + BigNumber.toDouble(cookies) + " cookies, expected " + clicks.get(userId));
+                } else {
+                    check(cookies == Leaderboard.NOT_RANKED, "Game of " + userId + " is on shard " + shard + ", which doesn't own it");
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that every game was saved once, by the shard that owns it.
+     */
+    private void checkSaves(int shards, List<Long> userIds, boolean checkClicks) throws IOException, ParseException {
+        Map<Long, GameSave> saves = new HashMap<>();
+        for (int shard = 0; shard < shards; shard++) {
+            SaveStore store = new SaveStore(saveDirectory.resolve(ShardMap.snapshotFile(shard, shards)).toString(),
+                    saveDirectory.resolve(ShardMap.journalPrefix(shard, shards)).toString(), false);
+            for (GameSave save : store.load().values()) {
+                check(ShardMap.shardOf(save.userId(), shards) == shard, "Game of " + save.userId() + " was saved by shard " + shard);
+                check(saves.put(save.userId(), save) == null, "Game of " + save.userId() + " was saved twice");
+            }
+        }
+
+        for (long userId : userIds) {
+            GameSave save = saves.get(userId);
+            if (save == null) {
+                fail("Game of " + userId + " wasn't saved");
+            } else if (checkClicks && BigNumber.toDouble(save.cookiesBits()) < integer("clicks")) {
+                fail("Game of " + userId + " was saved with " + BigNumber.toDouble(save.cookiesBits()) + " cookies");
+            }
+        }
+
+        File[] files = saveDirectory.toFile().listFiles((dir, name) -> name.startsWith("saves.shard"));
+        System.out.println(shards + " shards: " + saves.size() + " games saved in " + (files == null ? 0 : files.length) + " files");
+    }
+
+    private void check(boolean condition, String message) {
+        if (!condition) {
+            fail(message);
+        }
+    }
+
+    private void fail(String message) {
+        failures.increment();
+        System.out.println(message);
+    }
+}
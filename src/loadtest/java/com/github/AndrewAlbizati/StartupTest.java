@@ -0,0 +1,162 @@
+package com.github.AndrewAlbizati;
+
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Writes saves for an increasing amount of games, then starts the bot on each over a {@link FakeGateway} that takes
+ * a while to answer, and reports how long loading took. Restoring a game mustn't wait on Discord, so that startup
+ * time doesn't grow with the latency: no request may be sent before the bot has started. After starting, one game is
+ * clicked to check that its message is still edited once it's first used. Exits with 1 if a check failed.
+ */
+public class StartupTest {
+    private static final String[] DEFAULTS = {
+            "games=1000,10000,100000  // Saved games to start with, one run each",
+            "latency=200              // Time every fake Discord request takes, in milliseconds",
+            "storage=journal          // journal or mapped, see GameStore",
+            "resident-games=0         // Most games loaded into memory, the rest stay parked (0 for every game)",
+            "seed=1",
+    };
+
+    private static final long EDIT_INTERVAL_MILLIS = 100;
+
+    private final Properties options;
+    private final LongAdder failures = new LongAdder();
+
+    private StartupTest(Properties options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) {
+        Properties options = new Properties();
+        for (String option : DEFAULTS) {
+            put(options, option);
+        }
+        for (String arg : args) {
+            if (!arg.contains("=") || !options.containsKey(arg.substring(0, arg.indexOf('=')))) {
+                System.out.println("Unknown option " + arg);
+                return;
+            }
+            put(options, arg);
+        }
+
+        boolean passed = false;
+        try {
+            passed = new StartupTest(options).run();
+        } catch (IOException | InterruptedException | ParseException | NumberFormatException e) {
+            e.printStackTrace();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static void put(Properties options, String option) {
+        int comment = option.indexOf("//");
+        option = (comment == -1 ? option : option.substring(0, comment)).trim();
+        options.setProperty(option.substring(0, option.indexOf('=')), option.substring(option.indexOf('=') + 1));
+    }
+
+    private int integer(String key) {
+        return Integer.parseInt(options.getProperty(key));
+    }
+
+    private boolean run() throws IOException, InterruptedException, ParseException {
+        for (String games : options.getProperty("games").split(",")) {
+            start(Integer.parseInt(games.trim()));
+        }
+        System.out.println(failures.sum() == 0 ? "Passed" : "Failed with " + failures.sum() + " errors");
+        return failures.sum() == 0;
+    }
+
+    /**
+     * Saves a certain amount of games, then starts a bot that loads them.
+     */
+    private void start(int count) throws IOException, InterruptedException, ParseException {
+        Path saveDirectory = Files.createTempDirectory("cookie-clicker-startup");
+        FakeGateway gateway = new FakeGateway(4, integer("latency"));
+        List<GameSave> saves = seed(count, gateway);
+        SaveStore seeded = store(saveDirectory);
+        seeded.replaceAll(saves);
+
+        SaveStore saveStore = store(saveDirectory);
+        GameStore store = options.getProperty("storage").equals("mapped")
+                ? new MappedGameStore(saveDirectory.resolve("saves.table").toString(), saveStore)
+                : saveStore;
+        Bot bot = new Bot(gateway, store, EDIT_INTERVAL_MILLIS);
+        if (integer("resident-games") != 0) {
+            bot.setEviction(integer("resident-games"), Long.MAX_VALUE);
+        }
+
+        long start = System.nanoTime();
+        bot.startWithoutApi();
+        long elapsed = System.nanoTime() - start;
+        long requests = gateway.getRequests();
+
+        System.out.printf("%,d games: started in %,d ms (%.2f us per game), %,d loaded, %d Discord requests%n",
+                count, elapsed / 1_000_000, elapsed / 1000.0 / count, bot.getGames().size(), requests);
+        check(requests == 0, requests + " Discord requests were sent while starting with " + count + " games");
+        int ranked = bot.getGames().getLeaderboard().size();
+        check(ranked == count, ranked + " of " + count + " games are on the leaderboard");
+
+        // The first click of a restored game edits the message it had before the restart
+        GameSave first = saves.get(0);
+        check(bot.click(first.userId()), "Click of a restored game found no game");
+        Thread.sleep(EDIT_INTERVAL_MILLIS + 3L * integer("latency"));
+        FakeGateway.FakeMessage message = gateway.getMessage(first.messageId());
+        check(message != null && message.getEdits() > 0, "The restored game's message wasn't edited after a click");
+
+        bot.stop();
+        gateway.shutdown();
+        // Including the table and the backup of saves.dat that importing into it leaves
+        try (Stream<Path> files = Files.list(saveDirectory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(saveDirectory);
+    }
+
+    /**
+     * Creates saves of games whose messages were sent before the restart.
+     */
+    private List<GameSave> seed(int count, FakeGateway gateway) {
+        Random random = new Random(Long.parseLong(options.getProperty("seed")));
+        long now = System.currentTimeMillis();
+        List<GameSave> saves = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            long userId = 400_000_000_000_000_000L + i;
+            long messageId = i;
+            // Most players own a few items, a few own a lot
+            long[] owned = new long[Store.SIZE];
+            for (int j = 0; j < Store.SIZE; j++) {
+                owned[j] = (long) (Math.pow(random.nextDouble(), 4) * 200 / (j + 1));
+            }
+            saves.add(new GameSave(userId, messageId, now, now, BigNumber.fromDouble(random.nextDouble() * 1e7), owned));
+            gateway.restoreMessage(userId, messageId);
+        }
+        return saves;
+    }
+
+    private SaveStore store(Path saveDirectory) {
+        return new SaveStore(saveDirectory.resolve("saves.dat").toString(), saveDirectory.resolve("saves.wal").toString());
+    }
+
+    private void check(boolean condition, String message) {
+        if (!condition) {
+            fail(message);
+        }
+    }
+
+    private void fail(String message) {
+        failures.increment();
+        System.out.println(message);
+    }
+}
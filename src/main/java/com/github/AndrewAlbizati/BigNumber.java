@@ -0,0 +1,297 @@
+package com.github.AndrewAlbizati;
+
+/**
+ * Arithmetic on numbers too large for a long or a double, e.g. the cookies and prices of a late game, packed into a
+ * single long so that they can be stored, passed, and compared without allocating.
+ * <p>
+ * A BigNumber within a double's range is the double's bits, so it has a double's 53 significant bits, whole numbers
+ * up to 2^53 (about 9 * 10^15) are exact, and arithmetic on it is the double arithmetic the game always used.
+ * Numbers past Double.MAX_VALUE use the bits of the NaNs, whose exponent is all ones, for a wider exponent and a
+ * narrower fraction:
+ * <pre>
+ * sign (1 bit), all ones (11 bits), exponent (14 bits, 1 for 2^1024), fraction (38 bits, with an implicit leading 1)
+ * </pre>
+ * so they go up to about 10^5240, with 39 significant bits. There are no infinities, NaNs or negative zeros: results
+ * that are too large saturate at {@link #MAX_VALUE}, and NaNs are 0.
+ * <p>
+ * Non-negative BigNumbers compare the same as their bits as longs, since the bits of larger doubles are larger,
+ * and the bits of the large numbers are larger still.
+ */
+public final class BigNumber {
+    public static final long ZERO = 0;
+    public static final long ONE = Double.doubleToRawLongBits(1);
+    // Also the result of anything that overflows, e.g. the price of an item that can't be bought anymore
+    public static final long MAX_VALUE = Long.MAX_VALUE;
+
+    private static final long SIGN = Long.MIN_VALUE;
+    // The exponent bits of infinities and NaNs, which mark a number past a double's range
+    private static final long LARGE = 0x7FF0_0000_0000_0000L;
+    private static final int LARGE_FRACTION_BITS = 38;
+    private static final long LARGE_FRACTION_MASK = (1L << LARGE_FRACTION_BITS) - 1;
+    private static final int LARGE_EXPONENT_MASK = (1 << 14) - 1;
+    // Large exponents are stored relative to this, so the smallest, 2^1024, is stored as 1 and no bits are all zero
+    private static final int LARGE_EXPONENT_BIAS = Double.MAX_EXPONENT;
+    private static final int MAX_LARGE_EXPONENT = LARGE_EXPONENT_BIAS + LARGE_EXPONENT_MASK;
+
+    // Bits of a double's fraction that don't fit in a large number's
+    private static final int DROPPED_BITS = 52 - LARGE_FRACTION_BITS;
+    // Exponents further apart than this don't change the larger number when added
+    private static final int MAX_ALIGN = 52 + 3;
+
+    private static final double LOG_2 = Math.log(2);
+    private static final double LOG10_2 = Math.log10(2);
+    // Math.exp of anything larger overflows
+    private static final double MAX_EXP_POWER = Math.log(Double.MAX_VALUE);
+
+    private BigNumber() {
+    }
+
+    /**
+     * Converts a double, without rounding.
+     * @param value The value. Infinities saturate, and NaN is 0.
+     * @return The BigNumber.
+     */
+    public static long fromDouble(double value) {
+        if (Double.isNaN(value)) {
+            return ZERO;
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? MAX_VALUE : MAX_VALUE | SIGN;
+        }
+        return fromFinite(value);
+    }
+
+    /**
+     * Returns the closest double to a BigNumber, or +/-Double.MAX_VALUE if it's out of a double's range, e.g. for
+     * leaderboards and for JSON, which can't hold an infinity.
+     */
+    public static double toDouble(long a) {
+        if (isLarge(a)) {
+            return a < 0 ? -Double.MAX_VALUE : Double.MAX_VALUE;
+        }
+        return Double.longBitsToDouble(a);
+    }
+
+    public static long add(long a, long b) {
+        if (a == ZERO) {
+            return b;
+        }
+        if (b == ZERO) {
+            return a;
+        }
+        if (!isLarge(a) && !isLarge(b)) {
+            double sum = Double.longBitsToDouble(a) + Double.longBitsToDouble(b);
+            if (!Double.isInfinite(sum)) {
+                return fromFinite(sum);
+            }
+        }
+
+        int ea = exponent(a);
+        int eb = exponent(b);
+        if (ea < eb) {
+            long t = a;
+            a = b;
+            b = t;
+            int e = ea;
+            ea = eb;
+            eb = e;
+        }
+        if (ea - eb > MAX_ALIGN) {
+            return a;
+        }
+
+        // Scaling by a power of 2 is exact, so the only rounding is of the sum
+        double sum = significand(a) + Math.scalb(significand(b), eb - ea);
+        return sum == 0 ? ZERO : pack(sum, ea);
+    }
+
+    public static long subtract(long a, long b) {
+        return add(a, negate(b));
+    }
+
+    public static long negate(long a) {
+        return a == ZERO ? ZERO : a ^ SIGN;
+    }
+
+    public static long abs(long a) {
+        return a & ~SIGN;
+    }
+
+    public static long multiply(long a, long b) {
+        if (a == ZERO || b == ZERO) {
+            return ZERO;
+        }
+        if (!isLarge(a) && !isLarge(b)) {
+            double product = Double.longBitsToDouble(a) * Double.longBitsToDouble(b);
+            if (!Double.isInfinite(product)) {
+                return fromFinite(product);
+            }
+        }
+        return pack(significand(a) * significand(b), exponent(a) + exponent(b));
+    }
+
+    public static long multiply(long a, double b) {
+        return multiply(a, fromDouble(b));
+    }
+
+    public static long divide(long a, long b) {
+        if (b == ZERO) {
+            throw new ArithmeticException("BigNumber divide by zero");
+        }
+        if (a == ZERO) {
+            return ZERO;
+        }
+        if (!isLarge(a) && !isLarge(b)) {
+            double quotient = Double.longBitsToDouble(a) / Double.longBitsToDouble(b);
+            if (!Double.isInfinite(quotient)) {
+                return fromFinite(quotient);
+            }
+        }
+        return pack(significand(a) / significand(b), exponent(a) - exponent(b));
+    }
+
+    public static long divide(long a, double b) {
+        return divide(a, fromDouble(b));
+    }
+
+    /**
+     * Compares two BigNumbers by value, like {@link Double#compare(double, double)}.
+     */
+    public static int compare(long a, long b) {
+        // Flips the magnitude of negative numbers so that the bits sort like the values, as with IEEE doubles
+        return Long.compare(a ^ ((a >> 63) & Long.MAX_VALUE), b ^ ((b >> 63) & Long.MAX_VALUE));
+    }
+
+    public static long max(long a, long b) {
+        return compare(a, b) >= 0 ? a : b;
+    }
+
+    public static boolean isNegative(long a) {
+        return a < 0;
+    }
+
+    /**
+     * Rounds towards negative infinity, e.g. to count whole cookies.
+     */
+    public static long floor(long a) {
+        // Large numbers have no fraction left
+        return isLarge(a) ? a : fromFinite(Math.floor(Double.longBitsToDouble(a)));
+    }
+
+    /**
+     * Returns the natural logarithm of a positive BigNumber, which fits a double even when the number doesn't.
+     */
+    public static double log(long a) {
+        if (a <= ZERO) {
+            return a == ZERO ? Double.NEGATIVE_INFINITY : Double.NaN;
+        }
+        if (!isLarge(a)) {
+            return Math.log(Double.longBitsToDouble(a));
+        }
+        return Math.log(significand(a)) + exponent(a) * LOG_2;
+    }
+
+    /**
+     * Returns the base 10 logarithm of a positive BigNumber, see {@link #log(long)}.
+     */
+    public static double log10(long a) {
+        if (a <= ZERO) {
+            return a == ZERO ? Double.NEGATIVE_INFINITY : Double.NaN;
+        }
+        if (!isLarge(a)) {
+            return Math.log10(Double.longBitsToDouble(a));
+        }
+        return Math.log10(significand(a)) + exponent(a) * LOG10_2;
+    }
+
+    /**
+     * Returns e raised to a power, for powers too large for {@link Math#exp(double)}.
+     * @param power The power. Past a double's range, its fractional part limits the precision of the result, e.g.
+     *              to about 12 significant digits for powers in the thousands.
+     */
+    public static long exp(double power) {
+        if (Double.isNaN(power)) {
+            return ZERO;
+        }
+        if (power <= MAX_EXP_POWER) {
+            return fromFinite(Math.exp(power));
+        }
+        double log2 = power / LOG_2;
+        if (log2 >= MAX_LARGE_EXPONENT + 1) {
+            return MAX_VALUE;
+        }
+        double whole = Math.floor(log2);
+        return pack(Math.pow(2, log2 - whole), (int) whole);
+    }
+
+    /**
+     * Returns true if a BigNumber is past a double's range.
+     */
+    private static boolean isLarge(long a) {
+        return (a & LARGE) == LARGE;
+    }
+
+    /**
+     * Returns the bits of a finite double, with -0 as 0.
+     */
+    private static long fromFinite(double value) {
+        return value == 0 ? ZERO : Double.doubleToRawLongBits(value);
+    }
+
+    /**
+     * Returns the significand of a BigNumber that isn't 0, in [1, 2) or (-2, -1].
+     */
+    private static double significand(long a) {
+        if (isLarge(a)) {
+            double m = Double.longBitsToDouble((1023L << 52) | ((a & LARGE_FRACTION_MASK) << DROPPED_BITS));
+            return a < 0 ? -m : m;
+        }
+        return Math.scalb(Double.longBitsToDouble(a), -exponent(a));
+    }
+
+    /**
+     * Returns the power of 2 of a BigNumber that isn't 0.
+     */
+    private static int exponent(long a) {
+        if (isLarge(a)) {
+            return (int) ((a >>> LARGE_FRACTION_BITS) & LARGE_EXPONENT_MASK) + LARGE_EXPONENT_BIAS;
+        }
+        double value = Double.longBitsToDouble(a);
+        int exponent = Math.getExponent(value);
+        if (exponent < Double.MIN_EXPONENT) {
+            // Subnormal, scaled up to find its leading bit
+            return Math.getExponent(value * 0x1p54) - 54;
+        }
+        return exponent;
+    }
+
+    /**
+     * Packs value * 2^exponent, as a double if it's in a double's range, or else rounding the value's significand
+     * to 39 bits, half to even.
+     * @param value A finite double that isn't 0.
+     * @param exponent The power of 2 to scale the value by.
+     */
+    private static long pack(double value, int exponent) {
+        long power = (long) Math.getExponent(value) + exponent;
+        if (power <= Double.MAX_EXPONENT) {
+            // Exact unless it's too small for a normal double
+            return fromFinite(Math.scalb(value, exponent));
+        }
+
+        long bits = Double.doubleToRawLongBits(value);
+        long fraction = bits & ((1L << 52) - 1);
+        long half = (1L << (DROPPED_BITS - 1)) - 1;
+        fraction = (fraction + half + ((fraction >>> DROPPED_BITS) & 1)) >>> DROPPED_BITS;
+        if (fraction > LARGE_FRACTION_MASK) {
+            // Rounded up to the next power of 2
+            fraction = 0;
+            power++;
+        }
+
+        long sign = bits & SIGN;
+        if (power > MAX_LARGE_EXPONENT) {
+            return MAX_VALUE | sign;
+        }
+        return sign | LARGE | ((power - LARGE_EXPONENT_BIAS) << LARGE_FRACTION_BITS) | fraction;
+    }
+}
@@ -8,37 +8,215 @@ import org.javacord.api.interaction.MessageComponentInteraction;
 import org.javacord.api.interaction.SlashCommand;
 import org.javacord.api.interaction.SlashCommandOption;
 import org.javacord.api.interaction.SlashCommandOptionType;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
+import jdk.jfr.FlightRecorder;
 import org.json.simple.parser.ParseException;
 
-import java.io.*;
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 public class Bot {
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-    private final HashMap<Long, Game> games = new HashMap<>();
+    // Users and messages of saved games that can be looked up at once
+    private static final int MAX_CONCURRENT_LOOKUPS = 16;
+    // Users and game messages cached at once, if fewer games than this are kept in memory it's one per game
+    private static final int MAX_CACHED_USERS = 10000;
+    // How often idle games are parked
+    private static final long EVICTION_INTERVAL_SECONDS = 10;
+    // How often clicks that weren't admitted are folded into their games, and clicked games are ranked again
+    private static final long FOLD_INTERVAL_MILLIS = 1000;
+    // How often the leaderboard is moved forward in time, see Leaderboard.reanchor
+    private static final long REANCHOR_INTERVAL_MINUTES = 10;
+
+    // Parks idle games, folds deferred clicks, and moves clicked games on the leaderboard
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(named("bot-scheduler"));
+    // Sends message edits, so that they're never late because of a save or an audit
+    private final ScheduledExecutorService editScheduler = Executors.newSingleThreadScheduledExecutor(named("bot-edits"));
+    // Saves, compacts, and audits every game, which can take seconds with many games
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(named("bot-maintenance"));
+    private final GameRegistry games;
+    private final Commands commands = new Commands(this);
+    private final Metrics metrics = new Metrics();
+    // Commits the periodic JFR event with the amount of games and edits
+    private final Runnable gameStatistics = () -> Metrics.commitGameStatistics(getGames().size(), getEditCoalescer());
     private final String token;
+    private final long editIntervalMillis;
+    private final GameStore saveStore;
+    // Set once the games were loaded and the save store was opened, nothing is saved before that
+    private volatile boolean saving;
+    private final ShardMap shards;
+    private final List<String> shardAddresses;
+    private final String shardSecret;
+    private final ShardClient peers;
+    private final ShardedLeaderboard leaderboard;
+    private ShardServer shardServer;
+    private MetricsServer metricsServer;
     private DiscordApi api;
+    private DiscordGateway gateway;
+    private EditCoalescer editCoalescer;
+    // Every game is kept in memory unless setEviction is called
+    private int residentGames = Integer.MAX_VALUE;
+    private long idleMillis = Long.MAX_VALUE;
+    // Every click is handled in full unless setClickLimiter is called
+    private ClickLimiter clickLimiter;
+    // Games with clicks that weren't admitted, see foldClicks
+    private final ConcurrentLinkedQueue<Game> deferredClicks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param token The Discord bot token.
+     * @param editIntervalMillis The minimum time between two edits of the same game message.
+     */
+    public Bot(String token, long editIntervalMillis) {
+        this(token, editIntervalMillis, ShardMap.SINGLE, List.of(), null);
+    }
+
+    /**
+     * Creates one shard of a bot that is split between processes by user id.
+     * @param token The Discord bot token.
+     * @param editIntervalMillis The minimum time between two edits of the same game message.
+     * @param shards This process's shard.
+     * @param shardAddresses The host:port of every shard's {@link ShardServer}, in order of shard id.
+     * @param shardSecret The secret that shards send each other, or null if the bot isn't sharded.
+     */
+    public Bot(String token, long editIntervalMillis, ShardMap shards, List<String> shardAddresses, String shardSecret) {
+        this(token, editIntervalMillis, shards, shardAddresses, shardSecret, shards.createSaveStore());
+    }
 
-    public Bot(String token) {
+    /**
+     * Creates one shard of a bot that is split between processes by user id, with games kept in the given store.
+     * @param token The Discord bot token.
+     * @param editIntervalMillis The minimum time between two edits of the same game message.
+     * @param shards This process's shard.
+     * @param shardAddresses The host:port of every shard's {@link ShardServer}, in order of shard id.
+     * @param shardSecret The secret that shards send each other, or null if the bot isn't sharded.
+     * @param saveStore The store used to save games, e.g. from {@link ShardMap#createGameStore(boolean)}.
+     */
+    public Bot(String token, long editIntervalMillis, ShardMap shards, List<String> shardAddresses, String shardSecret,
+               GameStore saveStore) {
         this.token = token;
+        this.editIntervalMillis = editIntervalMillis;
+        this.shards = shards;
+        this.shardAddresses = shardAddresses;
+        this.shardSecret = shardSecret;
+        this.saveStore = saveStore;
+        games = new GameRegistry(saveStore);
+        peers = shards.isSharded() ? new ShardClient(shardAddresses, shardSecret) : null;
+        leaderboard = new ShardedLeaderboard(shards, games, peers);
+    }
+
+    /**
+     * Creates a bot that talks to Discord through the given gateway instead of logging in, e.g. to run it in process
+     * against a fake gateway. Call {@link #startWithoutApi()} to load games and start saving.
+     * @param gateway The gateway used to send and edit messages.
+     * @param saveStore The store used to save games.
+     * @param editIntervalMillis The minimum time between two edits of the same game message.
+     */
+    public Bot(DiscordGateway gateway, GameStore saveStore, long editIntervalMillis) {
+        this.token = null;
+        this.editIntervalMillis = editIntervalMillis;
+        this.saveStore = saveStore;
+        games = new GameRegistry(saveStore);
+        shards = ShardMap.SINGLE;
+        shardAddresses = List.of();
+        shardSecret = null;
+        peers = null;
+        leaderboard = new ShardedLeaderboard(shards, games, null);
+        setGateway(gateway);
+    }
+
+    /**
+     * Creates one shard of a bot that talks to Discord through the given gateway instead of logging in.
+     * @param gateway The gateway used to send and edit messages.
+     * @param editIntervalMillis The minimum time between two edits of the same game message.
+     * @param shards This process's shard.
+     * @param shardAddresses The host:port of every shard's {@link ShardServer}, in order of shard id.
+     * @param shardSecret The secret that shards send each other.
+     */
+    public Bot(DiscordGateway gateway, long editIntervalMillis, ShardMap shards, List<String> shardAddresses,
+               String shardSecret) {
+        this((String) null, editIntervalMillis, shards, shardAddresses, shardSecret);
+        setGateway(gateway);
+    }
+
+    private void setGateway(DiscordGateway gateway) {
+        this.gateway = gateway;
+        editCoalescer = new EditCoalescer(editScheduler, gateway, editIntervalMillis);
+    }
+
+    /**
+     * Limits the games kept in memory, the rest are parked in the save store until they're used again.
+     * Must be called before the bot is started.
+     * @param residentGames The most games to keep in memory.
+     * @param idleMillis Games that haven't been used for this long are parked even if there's room for them.
+     */
+    public void setEviction(int residentGames, long idleMillis) {
+        this.residentGames = residentGames;
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * Limits how fast clicks are handled in full, per user and for every user together.
+     * Must be called before the bot is started.
+     * @param clickLimiter The limiter, or null to handle every click in full.
+     */
+    public void setClickLimiter(ClickLimiter clickLimiter) {
+        this.clickLimiter = clickLimiter;
     }
 
-    public HashMap<Long, Game> getGames() {
+    public ClickLimiter getClickLimiter() {
+        return clickLimiter;
+    }
+
+    public GameRegistry getGames() {
         return games;
     }
 
+    public GameStore getSaveStore() {
+        return saveStore;
+    }
+
+    public DiscordGateway getGateway() {
+        return gateway;
+    }
+
+    public Commands getCommands() {
+        return commands;
+    }
+
+    public EditCoalescer getEditCoalescer() {
+        return editCoalescer;
+    }
+
+    public ShardMap getShards() {
+        return shards;
+    }
+
+    public ShardedLeaderboard getLeaderboard() {
+        return leaderboard;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Starts the bot, loads games, adds commands, and initializes event listeners.
+     * @throws IOException If the games couldn't be loaded, in which case the bot logs out again.
      */
-    public void start() {
+    public void start() throws IOException {
         // Create the bot
-        api = new DiscordApiBuilder().setToken(token).login().join();
+        // Discord's shards split servers rather than users, and DMs (including every cookie button) go to shard 0,
+        // which forwards them to the shard that owns the user's game
+        api = new DiscordApiBuilder().setToken(token)
+                .setTotalShards(shards.getShardCount())
+                .setCurrentShard(shards.getShardId())
+                .login().join();
+        setGateway(new JavacordGateway(api, MAX_CONCURRENT_LOOKUPS, Math.min(residentGames, MAX_CACHED_USERS)));
 
         // Let the user know the bot is working correctly
         System.out.println("Logged in as " + api.getYourself().getDiscriminatedName());
@@ -47,21 +225,198 @@ public class Bot {
         api.updateStatus(UserStatus.ONLINE);
         api.updateActivity(ActivityType.PLAYING, "Type /newgame to start a game");
 
-        loadGames();
-        addCommands();
+        try {
+            startWithoutApi();
+        } catch (IOException e) {
+            api.disconnect();
+            throw e;
+        }
+
+        // Commands are global, so one shard creating them is enough
+        if (shards.getShardId() == 0) {
+            addCommands();
+        }
         addListeners();
+    }
+
+    /**
+     * Loads games, starts saving them, and starts answering other shards, without logging in to Discord.
+     * @throws IOException If the games couldn't be loaded. Nothing is started then, and nothing is ever saved over
+     *                     the saves that couldn't be loaded.
+     */
+    public void startWithoutApi() throws IOException {
+        loadGames();
 
         // Save all active games every 5 minutes
-        scheduler.scheduleAtFixedRate(() -> {
-            for (Game game : games.values()) {
-                try {
-                    game.updateCookies();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+        // Cookies are projected when they're read, so games don't need to be updated first
+        maintenance.scheduleAtFixedRate(this::saveGames, 1, 5, TimeUnit.MINUTES);
+
+        // Park games that are idle, or that don't fit in memory
+        scheduler.scheduleAtFixedRate(this::evictGames, EVICTION_INTERVAL_SECONDS, EVICTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        // Add clicks that weren't admitted, and move clicked games on the leaderboard, in batches
+        scheduler.scheduleWithFixedDelay(this::foldClicks, FOLD_INTERVAL_MILLIS, FOLD_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        // Keep the leaderboard's bounds tight without making /help do it
+        maintenance.scheduleAtFixedRate(() -> games.getLeaderboard().reanchor(System.currentTimeMillis()),
+                REANCHOR_INTERVAL_MINUTES, REANCHOR_INTERVAL_MINUTES, TimeUnit.MINUTES);
+
+        // Check every game against a replay of its events once an hour
+        maintenance.scheduleAtFixedRate(this::auditGames, 60, 60, TimeUnit.MINUTES);
+
+        // Edits are what users wait on after a click
+        metrics.watchScheduler(editScheduler);
+        FlightRecorder.addPeriodicEvent(Metrics.GameStatisticsEvent.class, gameStatistics);
+
+        if (shards.isSharded()) {
+            // Listens on the address other shards use, not on every interface
+            String address = shardAddresses.get(shards.getShardId());
+            int colon = address.lastIndexOf(':');
+            try {
+                shardServer = new ShardServer(this, address.substring(0, colon),
+                        Integer.parseInt(address.substring(colon + 1)), shardSecret);
+                shardServer.start();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-            saveGames();
-        }, 1, 5, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Serves the bot's metrics to a Prometheus server on the same machine, see {@link MetricsServer}.
+     * @param port The port to listen on.
+     * @throws IOException If the port couldn't be opened.
+     */
+    public void startMetricsServer(int port) throws IOException {
+        metricsServer = new MetricsServer(this, port);
+        metricsServer.start();
+    }
+
+    /**
+     * Stops saving games on a schedule and saves every game that changed.
+     */
+    public void stop() {
+        if (shardServer != null) {
+            shardServer.stop();
+        }
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        FlightRecorder.removePeriodicEvent(gameStatistics);
+        scheduler.shutdown();
+        editScheduler.shutdown();
+        maintenance.shutdown();
+        saveGames();
+    }
+
+    private static ThreadFactory named(String name) {
+        return runnable -> new Thread(runnable, name);
+    }
+
+    /**
+     * Runs a slash command, on the shard that owns the user's game. /help ranks games on every shard itself.
+     * @param name The name of the command, e.g. buy.
+     * @param interaction The command interaction.
+     * @return A future that completes once the response is sent.
+     */
+    public CompletableFuture<Void> command(String name, CommandInteraction interaction) {
+        long start = System.nanoTime();
+        CompletableFuture<Void> response = route(name, interaction);
+        response.whenComplete((v, e) -> metrics.command(name, interaction.getUserId(), start));
+        return response;
+    }
+
+    private CompletableFuture<Void> route(String name, CommandInteraction interaction) {
+        if (name.equals("help")) {
+            return commands.help(interaction);
+        }
+
+        int owner = shards.owner(interaction.getUserId());
+        if (owner != shards.getShardId()) {
+            // Waits for another process, so respond later
+            CompletableFuture<Void> deferred = interaction.respondLater(true);
+            return peers.command(owner, name, interaction.getUserId(), interaction.getOptions())
+                    .exceptionally(e -> {
+                        e.printStackTrace();
+                        return ":thumbsdown: (shard " + owner + " didn't respond)";
+                    })
+                    .thenCombine(deferred, (content, v) -> content)
+                    .thenCompose(interaction::respond)
+                    .exceptionally(e -> {
+                        e.printStackTrace();
+                        return null;
+                    });
+        }
+
+        return switch (name) {
+            case "newgame" -> commands.newGame(interaction);
+            case "buy" -> commands.buy(interaction);
+            case "advise" -> commands.advise(interaction);
+            case "resendmessage" -> commands.resendMessage(interaction);
+            case "quit" -> commands.quit(interaction);
+            default -> CompletableFuture.completedFuture(null);
+        };
+    }
+
+    /**
+     * Adds a cookie to a user's game on the shard that owns it.
+     * @param userId The Discord id of the user who pressed the button.
+     * @return A future that completes with false if the user isn't playing a game.
+     */
+    public CompletableFuture<Boolean> handleClick(long userId) {
+        long start = System.nanoTime();
+        int owner = shards.owner(userId);
+        if (owner != shards.getShardId()) {
+            return peers.click(owner, userId).whenComplete((playing, e) -> metrics.click(userId, start));
+        }
+
+        boolean playing = click(userId);
+        metrics.click(userId, start);
+        return CompletableFuture.completedFuture(playing);
+    }
+
+    /**
+     * Adds a cookie to a user's game after they press the cookie button, and schedules an edit of the game message.
+     * Clicks that the {@link ClickLimiter} doesn't admit are only counted, and are folded into the game by the next
+     * {@link #foldClicks()}, or dropped. The game must be on this shard, see {@link #handleClick(long)}.
+     * @param userId The Discord id of the user who pressed the button.
+     * @return False if the user isn't playing a game.
+     */
+    public boolean click(long userId) {
+        ClickLimiter limiter = clickLimiter;
+        boolean admitted = limiter == null || limiter.admit(userId) == ClickLimiter.Admission.ADMITTED;
+
+        Game game = games.load(userId);
+        if (game == null) {
+            return false;
+        }
+
+        if (!admitted) {
+            if (limiter.getPolicy() == ClickLimiter.Policy.FOLD && game.deferClick()) {
+                deferredClicks.add(game);
+            }
+            return true;
+        }
+
+        game.addCookie();
+        games.clicked(game);
+        editCoalescer.requestEdit(userId, game);
+        return true;
+    }
+
+    /**
+     * Adds the clicks that weren't admitted to their games, with one message edit per game, then moves every game
+     * that was clicked since the last fold on the leaderboard, with one update per game.
+     */
+    public void foldClicks() {
+        Game game;
+        while ((game = deferredClicks.poll()) != null) {
+            if (game.addDeferredClicks() > 0) {
+                games.clicked(game);
+                editCoalescer.requestEdit(game.getUserId(), game);
+            }
+        }
+        games.rankClicked();
     }
 
     /**
@@ -69,17 +424,12 @@ public class Bot {
      * This includes slash command create and message component create.
      */
     private void addListeners() {
-        Commands commands = new Commands(this);
+        JavacordGateway javacordGateway = (JavacordGateway) gateway;
 
         // Listen to slash commands
         api.addSlashCommandCreateListener(event -> {
-            switch (event.getSlashCommandInteraction().getCommandName().toLowerCase()) {
-                case "newgame" -> commands.newGame(event.getSlashCommandInteraction());
-                case "buy" -> commands.buy(event.getSlashCommandInteraction());
-                case "help" -> commands.help(event.getSlashCommandInteraction());
-                case "resendmessage" -> commands.resendMessage(event.getSlashCommandInteraction());
-                case "quit" -> commands.quit(event.getSlashCommandInteraction());
-            }
+            CommandInteraction interaction = javacordGateway.wrap(event.getSlashCommandInteraction());
+            command(event.getSlashCommandInteraction().getCommandName().toLowerCase(), interaction);
         });
 
         // Listen to button presses
@@ -89,23 +439,21 @@ public class Bot {
                 return;
             }
 
-            long userId = interaction.getUser().getId();
-            if (!games.containsKey(userId)) {
-                return;
-            }
-            Game game = games.get(userId);
-
-            game.updateCookies();
-            game.addCookie();
-
-            interaction.acknowledge();
-            game.getMessage().edit(game.toEmbedBuilder());
+            // Saves the user lookup for games that were loaded from a save
+            javacordGateway.remember(interaction.getUser());
+            handleClick(interaction.getUser().getId()).whenComplete((playing, e) -> {
+                if (e != null) {
+                    e.printStackTrace();
+                } else if (playing) {
+                    interaction.acknowledge();
+                }
+            });
         });
     }
 
     /**
      * Adds all commands to allow the bot to run.
-     * This includes /newgame, /buy, /help, /resendmessage, and /quit.
+     * This includes /newgame, /buy, /advise, /help, /resendmessage, and /quit.
      */
     private void addCommands() {
         // Create slash commands (may take a few minutes to update on Discord)
@@ -117,58 +465,92 @@ public class Bot {
                         SlashCommandOption.create(SlashCommandOptionType.LONG, "AMOUNT", "Amount of buildings to be purchased", false)
                 )).createGlobal(api).join();
 
+        SlashCommand.with("advise", "Suggests what to buy next",
+                Arrays.asList(
+                        SlashCommandOption.create(SlashCommandOptionType.LONG, "STEPS", "Amount of purchases to plan (up to " + PaybackIndex.LOOKAHEAD + ")", false)
+                )).createGlobal(api).join();
+
         SlashCommand.with("help", "Information about Cookie Clicker and bot leaderboard").createGlobal(api).join();
         SlashCommand.with("resendmessage", "Resends the game message").createGlobal(api).join();
         SlashCommand.with("quit", "Quits the current game").createGlobal(api).join();
     }
 
     /**
-     * Saves all active games to the saves.json file.
+     * Saves every game that changed since the last save. Purchases, new games, and quits are already saved when
+     * they happen, so this only needs to catch up on clicks.
      */
     public void saveGames() {
-        try {
-            JSONObject saves = new JSONObject();
-            JSONObject gamesObj = new JSONObject();
-            for (long id : games.keySet()) {
-                gamesObj.put(String.valueOf(id), games.get(id).toJSONObject());
-            }
-
-            saves.put("games", gamesObj);
-            saves.put("last-saved", System.currentTimeMillis());
+        if (!saving) {
+            return;
+        }
 
-            FileWriter writer = new FileWriter("saves.json");
-            writer.write(saves.toJSONString());
-            writer.close();
+        try {
+            long start = System.nanoTime();
+            // Also counts purchases that were logged during the save
+            long bytes = saveStore.getBytesWritten();
+            saveStore.flush(games);
+            metrics.save(games.size(), saveStore.getBytesWritten() - bytes, start);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Loads all games from the saves.json file.
+     * Parks games that haven't been used for a while, and the least recently used games past the amount kept in memory.
      */
-    private void loadGames() {
-        try {
-            String fileName = "saves.json";
-            FileReader reader = new FileReader(fileName);
-            JSONParser parser = new JSONParser();
-            JSONObject saves = (JSONObject) parser.parse(reader);
-            reader.close();
+    public void evictGames() {
+        games.evict(residentGames, idleMillis, System.currentTimeMillis(), userId -> {
+            editCoalescer.forgetIdle(userId);
+            gateway.forget(userId);
+        });
+    }
 
-            if (!saves.containsKey("last-saved")) {
-                return;
+    /**
+     * Replays every game's events and prints the games whose live state doesn't match, e.g. because of an exploit
+     * that changes a game without going through {@link Game#addCookie()} or {@link Game#buy(Items, long)}.
+     * @return The amount of games that don't match.
+     */
+    public int auditGames() {
+        int mismatches = 0;
+        for (long userId : games.userIds()) {
+            Game game = games.get(userId);
+            if (game == null) {
+                continue;
             }
 
-            long lastSaved = (long) saves.get("last-saved");
+            GameReplay.Verification verification = GameReplay.verify(game);
+            if (!verification.matches()) {
+                System.out.println("Replay doesn't match " + verification);
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
 
-            JSONObject gamesObj = (JSONObject) saves.get("games");
-            for (Object obj : gamesObj.keySet()) {
-                String key = (String) obj;
-                JSONObject game = (JSONObject) gamesObj.get(key);
-                games.put(Long.parseLong(key), new Game(game, api, Long.parseLong(key), lastSaved));
+    /**
+     * Loads all of this shard's games from the save store, then starts saving new changes.
+     * @throws IOException If the saves couldn't be read. The store isn't opened then, since saving into it would
+     *                     replace the saves that couldn't be read with only the games played from here on.
+     */
+    private void loadGames() throws IOException {
+        long start = System.nanoTime();
+        try {
+            for (Game game : saveStore.loadGames(residentGames)) {
+                long userId = game.getUserId();
+                if (!shards.owns(userId)) {
+                    // Only possible if the shards were changed without rebalancing the saves
+                    System.out.println("Skipping game of user " + userId + ", it belongs to shard " + shards.owner(userId));
+                    continue;
+                }
+                games.put(userId, game);
             }
-        } catch (IOException | ParseException e) {
-            e.printStackTrace();
+            saveStore.rankParked(games.getLeaderboard());
+        } catch (ParseException e) {
+            throw new IOException("Couldn't import the old saves", e);
         }
+        metrics.load(games.size(), saveStore.getBytesLoaded(), start);
+
+        saveStore.open();
+        saving = true;
     }
 }
@@ -0,0 +1,216 @@
+package com.github.AndrewAlbizati;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which presses of the cookie button get handled in full, with a token bucket per user and one for every
+ * user together, so one user's autoclicker can't slow the bot down for everyone else. Clicks that aren't admitted
+ * are shed: folded into the game later in a batch, or dropped, see {@link Policy}.
+ * <p>
+ * Buckets are kept in a fixed-size open-addressing table of longs, holding a user id and its bucket, which are only
+ * changed by compare-and-set. A bucket packs its time in milliseconds (upper 40 bits) and its tokens in thousandths
+ * (lower 24 bits) into one long, so refilling and taking a token is a single compare-and-set. A full bucket is the
+ * same as no bucket, so the slot of a user whose bucket refilled is reused for another user. If a user finds no slot
+ * within a few probes, the user's clicks are only limited by the global bucket.
+ */
+public class ClickLimiter {
+    /**
+     * What happens to clicks that aren't admitted.
+     */
+    public enum Policy {
+        // The cookie is added by the next batch, without a leaderboard update or message edit of its own
+        FOLD,
+        // The click is ignored
+        DROP
+    }
+
+    /**
+     * The outcome of a click.
+     */
+    public enum Admission {
+        ADMITTED,
+        // Over the user's own limit
+        SHED_USER,
+        // Over the limit of every user together
+        SHED_GLOBAL
+    }
+
+    private static final int TIME_SHIFT = 24;
+    private static final long TOKEN_MASK = (1L << TIME_SHIFT) - 1;
+    // Thousandths of a token per token, so refilling at N tokens per second adds N per millisecond
+    private static final long TOKEN = 1000;
+    private static final int MAX_PROBES = 16;
+    private static final long EMPTY = 0;
+
+    private final long userRate;
+    private final long userBurst;
+    private final long globalRate;
+    private final long globalBurst;
+    private final Policy policy;
+    private final long epoch = System.currentTimeMillis();
+
+    // Interleaved user id and bucket of each slot
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final AtomicLong global;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder shedUser = new LongAdder();
+    private final LongAdder shedGlobal = new LongAdder();
+    private final LongAdder untracked = new LongAdder();
+
+    /**
+     * @param userRate Clicks per second each user can sustain.
+     * @param userBurst Clicks a user can make at once after being idle.
+     * @param globalRate Clicks per second every user together can sustain, or 0 for no global limit.
+     * @param policy What happens to clicks that aren't admitted.
+     * @param capacity The amount of users tracked at once, rounded up to a power of 2.
+     */
+    public ClickLimiter(int userRate, int userBurst, int globalRate, Policy policy, int capacity) {
+        if (userRate < 1 || userBurst < 1 || globalRate < 0
+                || Math.max(userBurst, globalRate) * TOKEN > TOKEN_MASK) {
+            throw new IllegalArgumentException("Click limits must be positive, and bursts at most "
+                    + TOKEN_MASK / TOKEN + " clicks");
+        }
+        this.userRate = userRate;
+        this.userBurst = userBurst * TOKEN;
+        this.globalRate = globalRate;
+        // A second's worth of clicks
+        this.globalBurst = globalRate * TOKEN;
+        this.policy = policy;
+
+        int size = Integer.highestOneBit(Math.max(16, capacity) * 2 - 1);
+        slots = new AtomicLongArray(2 * size);
+        mask = size - 1;
+        global = new AtomicLong(pack(0, globalBurst));
+    }
+
+    /**
+     * Takes a token from the user's bucket, and then from the global bucket.
+     * @param userId The Discord id of the user who pressed the button.
+     * @return Whether the click is admitted, or which limit it's over.
+     */
+    public Admission admit(long userId) {
+        long now = System.currentTimeMillis() - epoch;
+
+        int slot = find(userId, now);
+        if (slot == -1) {
+            untracked.increment();
+        } else if (!take(slots, 2 * slot + 1, now, userRate, userBurst)) {
+            shedUser.increment();
+            return Admission.SHED_USER;
+        }
+
+        if (globalRate != 0 && !takeGlobal(now)) {
+            shedGlobal.increment();
+            return Admission.SHED_GLOBAL;
+        }
+        admitted.increment();
+        return Admission.ADMITTED;
+    }
+
+    /**
+     * Returns the slot of a user's bucket, claiming an empty slot or one whose bucket is full.
+     * @return The slot, or -1 if every probed slot is in use.
+     */
+    private int find(long userId, long now) {
+        int start = index(userId);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int slot = (start + probe) & mask;
+            long key = slots.get(2 * slot);
+            if (key == userId) {
+                return slot;
+            }
+
+            // Claimed slots get a full bucket. Another user's click that's still taking a token from a reused slot
+            // can leave it one token short, which only costs a click's worth of burst
+            if (key == EMPTY || isFull(slots.get(2 * slot + 1), now, userRate, userBurst)) {
+                if (slots.compareAndSet(2 * slot, key, userId)) {
+                    slots.set(2 * slot + 1, pack(now, userBurst));
+                    return slot;
+                }
+                if (slots.get(2 * slot) == userId) {
+                    return slot;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean takeGlobal(long now) {
+        while (true) {
+            long bucket = global.get();
+            long tokens = refill(bucket, now, globalRate, globalBurst);
+            if (tokens < TOKEN) {
+                return false;
+            }
+            if (global.compareAndSet(bucket, pack(Math.max(now, bucket >>> TIME_SHIFT), tokens - TOKEN))) {
+                return true;
+            }
+        }
+    }
+
+    private static boolean take(AtomicLongArray buckets, int index, long now, long rate, long burst) {
+        while (true) {
+            long bucket = buckets.get(index);
+            long tokens = refill(bucket, now, rate, burst);
+            if (tokens < TOKEN) {
+                return false;
+            }
+            // Clocks on different threads can be a millisecond apart, the bucket's time never goes back
+            if (buckets.compareAndSet(index, bucket, pack(Math.max(now, bucket >>> TIME_SHIFT), tokens - TOKEN))) {
+                return true;
+            }
+        }
+    }
+
+    private static boolean isFull(long bucket, long now, long rate, long burst) {
+        return refill(bucket, now, rate, burst) == burst;
+    }
+
+    /**
+     * Returns the tokens in a bucket at a certain time, in thousandths.
+     */
+    private static long refill(long bucket, long now, long rate, long burst) {
+        long elapsed = Math.max(0, now - (bucket >>> TIME_SHIFT));
+        // Anything longer than it takes to refill from empty is the same
+        return Math.min(burst, (bucket & TOKEN_MASK) + Math.min(elapsed, burst) * rate);
+    }
+
+    private static long pack(long time, long tokens) {
+        return time << TIME_SHIFT | tokens;
+    }
+
+    /**
+     * Discord ids are mostly a timestamp, so they're mixed first.
+     */
+    private int index(long userId) {
+        long h = userId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public long getShedByUser() {
+        return shedUser.sum();
+    }
+
+    public long getShedByGlobal() {
+        return shedGlobal.sum();
+    }
+
+    /**
+     * Returns the amount of clicks from users that didn't fit in the table, which were only limited globally.
+     */
+    public long getUntracked() {
+        return untracked.sum();
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.AndrewAlbizati;
+
+import org.javacord.api.entity.message.embed.EmbedBuilder;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A slash command that was called, and the means to respond to it.
+ */
+public interface CommandInteraction {
+    /**
+     * Returns the Discord id of the user who called the command.
+     */
+    long getUserId();
+
+    /**
+     * Returns every option the command was called with, by name. Values are Strings or Longs.
+     */
+    Map<String, Object> getOptions();
+
+    Optional<String> getStringOption(String name);
+
+    Optional<Long> getLongOption(String name);
+
+    /**
+     * Tells Discord that the response will come later, which has to happen within 3 seconds of the command being
+     * called. The next call to respond replaces the "thinking" message that the user sees until then.
+     * @param ephemeral True if only the user who called the command should see the response.
+     * @return A future that completes once Discord has been told.
+     */
+    CompletableFuture<Void> respondLater(boolean ephemeral);
+
+    /**
+     * Responds with a message that only the user who called the command can see.
+     * @param content The message.
+     * @return A future that completes once the response is sent.
+     */
+    CompletableFuture<Void> respond(String content);
+
+    /**
+     * Responds with an embed that everyone in the channel can see.
+     * @param embed The embed.
+     * @return A future that completes once the response is sent.
+     */
+    CompletableFuture<Void> respond(EmbedBuilder embed);
+}
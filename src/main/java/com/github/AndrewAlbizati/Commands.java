@@ -1,17 +1,18 @@
 package com.github.AndrewAlbizati;
 
-import org.javacord.api.entity.message.Message;
-import org.javacord.api.entity.message.component.ActionRow;
-import org.javacord.api.entity.message.component.Button;
 import org.javacord.api.entity.message.embed.EmbedBuilder;
-import org.javacord.api.entity.user.User;
-import org.javacord.api.interaction.SlashCommandInteraction;
-import org.javacord.api.interaction.callback.InteractionCallbackDataFlag;
 
 import java.awt.*;
-import java.util.*;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+/**
+ * Handles slash commands without blocking the thread that calls them. Each handler does its work on the game and
+ * returns a future that completes once the response has been sent. Handlers that wait for Discord, e.g. to send the
+ * game message, defer the response first so Discord's 3 second deadline is met however long that takes.
+ */
 public class Commands {
     private final Bot bot;
 
@@ -22,192 +23,326 @@ public class Commands {
     /**
      * Responds to the /newgame command by initializing a new game.
      * @param interaction The slash command interaction that was created for a /newgame command being called.
+     * @return A future that completes once the response is sent.
      */
-    public void newGame(SlashCommandInteraction interaction) {
-        // User is already playing a game
-        if (bot.getGames().containsKey(interaction.getUser().getId())) {
-            interaction.createImmediateResponder()
-                    .setContent("You already have a game started.")
-                    .setFlags(InteractionCallbackDataFlag.EPHEMERAL)
-                    .respond().join();
-            return;
+    public CompletableFuture<Void> newGame(CommandInteraction interaction) {
+        long userId = interaction.getUserId();
+
+        // Create game, add it to the registry unless the user is already playing a game
+        Game game = bot.getGames().create(userId, () -> bot.getSaveStore().createGame(userId));
+        if (game == null) {
+            return respond(interaction, "You already have a game started.");
         }
 
-        // Create game, add it to games HashMap
-        Game game = new Game(interaction.getUser());
-        bot.getGames().put(interaction.getUser().getId(), game);
+        CompletableFuture<Void> deferred = interaction.respondLater(true);
+        CompletableFuture<String> result = bot.getGateway().sendGameMessage(userId, game.toEmbedBuilder())
+                .thenCompose(messageId -> {
+                    game.setMessageId(messageId);
+
+                    // Wait until the game is saved before confirming
+                    return bot.getSaveStore().logGame(bot.getGames(), userId, game);
+                })
+                .handle((v, e) -> {
+                    if (e == null) {
+                        return ":thumbsup:";
+                    }
 
-        Message message = interaction.getUser().sendMessage(game.toEmbedBuilder(), ActionRow.of(Button.primary("click", "\uD83C\uDF6A"))).join();
-        game.setMessage(message);
+                    // Let the user try again if the message couldn't be sent
+                    e.printStackTrace();
+                    if (!game.hasMessage() && bot.getGames().get(userId) == game) {
+                        // The same steps as /quit, which logQuit relies on
+                        bot.getGames().remove(userId);
+                        game.quit();
+                        bot.getEditCoalescer().forget(userId);
+                        bot.getGateway().forget(userId);
+                        bot.getSaveStore().logQuit(userId, game);
+                    }
+                    return errorMessage(e);
+                });
 
-        interaction.createImmediateResponder()
-                .setContent(":thumbsup:")
-                .setFlags(InteractionCallbackDataFlag.EPHEMERAL)
-                .respond().join();
+        return respondLater(interaction, deferred, result);
     }
 
     /**
      * Responds to the /buy command by buying items in a game.
      * @param interaction The slash command interaction that was created for a /buy command being called.
+     * @return A future that completes once the response is sent.
      */
-    public void buy(SlashCommandInteraction interaction) {
+    public CompletableFuture<Void> buy(CommandInteraction interaction) {
+        long userId = interaction.getUserId();
+
         // User isn't playing a game
-        if (!bot.getGames().containsKey(interaction.getUser().getId())) {
-            interaction.createImmediateResponder()
-                    .setContent("You must start a game before buying items.")
-                    .setFlags(InteractionCallbackDataFlag.EPHEMERAL)
-                    .respond().join();
-            return;
+        Game game = bot.getGames().load(userId);
+        if (game == null) {
+            return respond(interaction, "You must start a game before buying items.");
         }
 
-        Game game = bot.getGames().get(interaction.getUser().getId());
-
         // Get item requested
-        String itemRequested = interaction.getOptionStringValueByName("ITEM").orElse("");
+        String itemRequested = interaction.getStringOption("ITEM").orElse("");
         Items item = Items.stringToItem(itemRequested);
         if (item == null) {
-            interaction.createImmediateResponder()
-                    .setContent("Item not found.")
-                    .setFlags(InteractionCallbackDataFlag.EPHEMERAL)
-                    .respond().join();
-            return;
+            return respond(interaction, "Item not found.");
         }
 
-        long amount = Math.abs(interaction.getOptionLongValueByName("AMOUNT").orElse(1L));
+        long requested = Math.abs(interaction.getLongOption("AMOUNT").orElse(1L));
 
         // Decrease amount purchased if it's too large
-        while (game.getCookies() < game.getCost(item, amount)) {
-            amount--;
+        long amount = game.buyAffordable(item, requested);
+        if (amount == 0) {
+            // Purchase failed
+            return respond(interaction, "Couldn't purchase item(s).");
+        }
+
+        bot.getGames().updated(userId, game);
+
+        // Wait until the purchase is saved before confirming
+        // Saving doesn't wait for Discord, so the response doesn't need to be deferred
+        return bot.getSaveStore().logGame(bot.getGames(), userId, game)
+                .handle((v, e) -> {
+                    if (e != null) {
+                        e.printStackTrace();
+                        return errorMessage(e);
+                    }
+
+                    // Purchase successful
+                    return "Successfully purchased " + amount + " item" + (amount == 1 ? "" : "s");
+                })
+                .thenCompose(interaction::respond)
+                .exceptionally(Commands::printError);
+    }
+
+    /**
+     * Responds to the /advise command by ranking the items by how soon they pay for themselves, and suggesting
+     * the next few purchases.
+     * @param interaction The slash command interaction that was created for an /advise command being called.
+     * @return A future that completes once the response is sent.
+     */
+    public CompletableFuture<Void> advise(CommandInteraction interaction) {
+        long userId = interaction.getUserId();
+
+        // User isn't playing a game
+        Game game = bot.getGames().load(userId);
+        if (game == null) {
+            return respond(interaction, "You must start a game before asking for advice.");
         }
 
-        if (amount != 0 && game.buy(item, amount)) {
-            // Purchase successful
-            interaction.createImmediateResponder()
-                    .setContent("Successfully purchased " + amount + " item" + (amount == 1 ? "" : "s"))
-                    .setFlags(InteractionCallbackDataFlag.EPHEMERAL)
-                    .respond().join();
+        long steps = interaction.getLongOption("STEPS").orElse((long) PaybackIndex.LOOKAHEAD);
+        steps = Math.max(1, Math.min(steps, PaybackIndex.LOOKAHEAD));
+        PaybackIndex.Advice advice = game.advise(System.currentTimeMillis(), (int) steps);
+
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("**Best payback**\n");
+        int place = 1;
+        for (PaybackIndex.Choice choice : advice.ranking()) {
+            sb.append(place++).append(". ").append(choice.item()).append(" (:cookie: ");
+            NumberFormatter.appendCompact(sb, choice.costBits());
+            sb.append(") pays for itself ");
+            appendTime(sb, choice.payback());
+            sb.append('\n');
+        }
+
+        sb.append("\n**Plan**\n");
+        if (advice.plan().isEmpty()) {
+            sb.append("Click the cookie to afford your first item.\n");
+        }
+        place = 1;
+        for (PaybackIndex.Step step : advice.plan()) {
+            sb.append(place++).append(". ").append(step.item()).append(" (:cookie: ");
+            NumberFormatter.appendCompact(sb, step.costBits());
+            sb.append(") ");
+            appendTime(sb, step.at());
+            sb.append('\n');
+        }
+
+        return respond(interaction, sb.toString());
+    }
+
+    /**
+     * Appends a time from now in its two largest units, e.g. "in 3h 20m", or "now".
+     */
+    private static void appendTime(StringBuilder sb, double seconds) {
+        if (seconds == Double.POSITIVE_INFINITY) {
+            sb.append("once you've clicked for it");
+            return;
+        }
+        long s = (long) Math.ceil(seconds);
+        if (s <= 0) {
+            sb.append("now");
+            return;
+        }
+
+        sb.append("in ");
+        if (s >= 86_400) {
+            sb.append(s / 86_400).append("d ").append(s % 86_400 / 3600).append('h');
+        } else if (s >= 3600) {
+            sb.append(s / 3600).append("h ").append(s % 3600 / 60).append('m');
+        } else if (s >= 60) {
+            sb.append(s / 60).append("m ").append(s % 60).append('s');
         } else {
-            // Purchase failed
-            interaction.createImmediateResponder()
-                    .setContent("Couldn't purchase item(s).")
-                    .setFlags(InteractionCallbackDataFlag.EPHEMERAL)
-                    .respond().join();
+            sb.append(s).append('s');
         }
     }
 
     /**
      * Responds to the /help command by showing information about the bot, including a leaderboard.
      * @param interaction The slash command interaction that was created for a /help command being called.
+     * @return A future that completes once the response is sent.
      */
-    public void help(SlashCommandInteraction interaction) {
-        EmbedBuilder eb = new EmbedBuilder();
-        eb.setTitle("Cookie Clicker");
-        eb.setColor(new Color(204, 204, 204));
-        eb.setDescription("To start a game of Cookie Clicker, type /newgame. A message will be directly sent to you with more instructions on how to play.");
+    public CompletableFuture<Void> help(CommandInteraction interaction) {
+        // Ranks the user against every shard's games, immediately if there's only this shard
+        CompletableFuture<EmbedBuilder> embed = bot.getLeaderboard()
+                .ranking(interaction.getUserId(), 10, System.currentTimeMillis())
+                .thenCompose(ranking -> {
+                    // Look up the users at the top of the leaderboard at the same time
+                    // Users that can't be found are left off
+                    List<CompletableFuture<String>> names = new ArrayList<>(ranking.top().size());
+                    for (Leaderboard.Entry entry : ranking.top()) {
+                        names.add(bot.getGateway().getUserName(entry.userId()).exceptionally(e -> null));
+                    }
+                    return CompletableFuture.allOf(names.toArray(new CompletableFuture[0]))
+                            .thenApply(v -> createHelpEmbed(ranking, names));
+                });
 
-        // Transfer bot games to a LinkedHashMap
-        LinkedHashMap<User, Long> sortedMap = new LinkedHashMap<>();
-        for (Long key : bot.getGames().keySet()) {
-            sortedMap.put(bot.getGames().get(key).getUser(), bot.getGames().get(key).getCookies());
+        if (embed.isDone() && !embed.isCompletedExceptionally()) {
+            // Every user was already known, e.g. from an earlier /help
+            return interaction.respond(embed.join())
+                    .exceptionally(Commands::printError);
         }
 
-        // Sort the LinkedHashMap
-        // Store sorted items in a list of entries
-        List<Map.Entry<User, Long>> entries = new ArrayList<>(sortedMap.entrySet());
-        entries.sort(Comparator.comparingLong(Map.Entry::getValue));
-
-        // Add list of entries back into the LinkedHashMap
-        sortedMap.clear();
-        for(Map.Entry<User, Long> entry : entries) {
-            sortedMap.put(entry.getKey(), entry.getValue());
-        }
+        CompletableFuture<Void> deferred = interaction.respondLater(false);
+        return deferred.thenCombine(embed, (v, eb) -> eb)
+                .thenCompose(interaction::respond)
+                .exceptionally(Commands::printError);
+    }
 
-        // Reverse the order of the LinkedHashMap
-        List<User> reverseOrderedKeys = new ArrayList<>(sortedMap.keySet());
-        Collections.reverse(reverseOrderedKeys);
+    /**
+     * Creates the /help embed once the names of the users on the leaderboard have been looked up.
+     */
+    private static EmbedBuilder createHelpEmbed(ShardedLeaderboard.Ranking ranking, List<CompletableFuture<String>> names) {
+        EmbedBuilder eb = new EmbedBuilder();
+        eb.setTitle("Cookie Clicker");
+        eb.setColor(new Color(204, 204, 204));
+        eb.setDescription("To start a game of Cookie Clicker, type /newgame. A message will be directly sent to you with more instructions on how to play.");
 
         // Create leaderboard
         StringBuilder builder = new StringBuilder();
         int i = 1;
-        for (User user : reverseOrderedKeys) {
-            builder.append(i); // Place
+        for (int j = 0; j < ranking.top().size(); j++) {
+            Leaderboard.Entry entry = ranking.top().get(j);
+            // Already complete
+            String name = names.get(j).getNow(null);
+            if (name == null) {
+                continue;
+            }
+
+            builder.append(i++); // Place
             builder.append(". ");
-            builder.append(user.getDiscriminatedName()); // Username
+            builder.append(name); // Username
             builder.append(" **(");
-            builder.append(String.format("%,d", sortedMap.get(user))); // Cookies
-            builder.append(" :cookie:)**");
-            // Stop at the 10th user
-            if (++i > 10) {
-                break;
-            }
+            NumberFormatter.appendCompact(builder, entry.cookiesBits()); // Cookies
+            builder.append(" :cookie:)**\n");
         }
 
-        eb.addField("Rankings", builder.toString());
+        // Show the user's place if they're playing
+        if (ranking.rank() != 0) {
+            builder.append("\nYou are #").append(ranking.rank()).append(" of ").append(ranking.size()).append('.');
+        }
 
-        interaction.createImmediateResponder()
-                .addEmbed(eb)
-                .respond().join();
+        eb.addField("Rankings", builder.toString());
+        return eb;
     }
 
     /**
      * Responds to the /resendmessage command by resending the game message in case the user can't find the original.
      * @param interaction The slash command interaction that was created for a /resendmessgae command being called.
+     * @return A future that completes once the response is sent.
      */
-    public void resendMessage(SlashCommandInteraction interaction) {
+    public CompletableFuture<Void> resendMessage(CommandInteraction interaction) {
+        long userId = interaction.getUserId();
+
         // User isn't playing a game
-        if (!bot.getGames().containsKey(interaction.getUser().getId())) {
-            interaction.createImmediateResponder()
-                    .setContent("You aren't currently playing Cookie Clicker. Type /newgame to start a game.")
-                    .setFlags(InteractionCallbackDataFlag.EPHEMERAL)
-                    .respond().join();
-            return;
+        // Pinned until the new message id is saved, so it's set on the game in the registry rather than a parked copy
+        Game game = bot.getGames().loadPinned(userId);
+        if (game == null) {
+            return respond(interaction, "You aren't currently playing Cookie Clicker. Type /newgame to start a game.");
         }
 
-        Game game = bot.getGames().get(interaction.getUser().getId());
-
-        try {
-            // Send a new message, delete the old message
-            Message message = game.getUser().sendMessage(game.toEmbedBuilder(), ActionRow.of(Button.primary("click", "\uD83C\uDF6A"))).join();
-            game.getMessage().delete();
-            game.setMessage(message);
-
-            interaction.createImmediateResponder()
-                    .setContent(":thumbsup:")
-                    .setFlags(InteractionCallbackDataFlag.EPHEMERAL)
-                    .respond().join();
-        } catch (Exception e) {
-            // Message failed to be replaced
-            e.printStackTrace();
-            interaction.createImmediateResponder()
-                    .setContent(":thumbsdown: (" + e.getMessage() + ")")
-                    .setFlags(InteractionCallbackDataFlag.EPHEMERAL)
-                    .respond().join();
-        }
+        // Send a new message, delete the old message
+        long oldMessageId = game.getMessageId();
+        CompletableFuture<Void> deferred = interaction.respondLater(true);
+        CompletableFuture<String> result = CompletableFuture.completedFuture(game)
+                .thenCompose(g -> bot.getGateway().sendGameMessage(userId, g.toEmbedBuilder()))
+                .thenCompose(messageId -> {
+                    bot.getGateway().deleteMessage(userId, oldMessageId).exceptionally(Commands::printError);
+                    game.setMessageId(messageId);
+                    return bot.getSaveStore().logGame(bot.getGames(), userId, game);
+                })
+                .whenComplete((v, e) -> game.unpin())
+                .handle((v, e) -> {
+                    if (e != null) {
+                        // Message failed to be replaced
+                        e.printStackTrace();
+                        return errorMessage(e);
+                    }
+                    return ":thumbsup:";
+                });
 
-        bot.saveGames();
+        return respondLater(interaction, deferred, result);
     }
 
     /**
-     * Responds to the /quit command by erasing the game that the user is playing from the saves.json file.
+     * Responds to the /quit command by erasing the game that the user is playing from the save.
      * @param interaction The slash command interaction that was created for a /quit command being called.
+     * @return A future that completes once the response is sent.
      */
-    public void quit(SlashCommandInteraction interaction) {
+    public CompletableFuture<Void> quit(CommandInteraction interaction) {
+        long userId = interaction.getUserId();
+
         // User isn't playing a game
-        if (!bot.getGames().containsKey(interaction.getUser().getId())) {
-            interaction.createImmediateResponder()
-                    .setContent("You aren't currently playing Cookie Clicker. Type /newgame to start a game.")
-                    .setFlags(InteractionCallbackDataFlag.EPHEMERAL)
-                    .respond().join();
-            return;
+        Game game = bot.getGames().remove(userId);
+        if (game == null) {
+            return respond(interaction, "You aren't currently playing Cookie Clicker. Type /newgame to start a game.");
         }
+        game.quit();
+        bot.getEditCoalescer().forget(userId);
+        bot.getGateway().forget(userId);
 
-        bot.getGames().remove(interaction.getUser().getId());
+        return bot.getSaveStore().logQuit(userId, game)
+                .handle((v, e) -> {
+                    if (e != null) {
+                        e.printStackTrace();
+                        return errorMessage(e);
+                    }
+                    return ":thumbsup:";
+                })
+                .thenCompose(interaction::respond)
+                .exceptionally(Commands::printError);
+    }
 
-        interaction.createImmediateResponder()
-                .setContent(":thumbsup:")
-                .setFlags(InteractionCallbackDataFlag.EPHEMERAL)
-                .respond().join();
+    private static CompletableFuture<Void> respond(CommandInteraction interaction, String content) {
+        return interaction.respond(content).exceptionally(Commands::printError);
+    }
 
-        bot.saveGames();
+    /**
+     * Responds once both the deferral and the result are done.
+     */
+    private static CompletableFuture<Void> respondLater(CommandInteraction interaction, CompletableFuture<Void> deferred,
+                                                        CompletableFuture<String> result) {
+        return deferred.thenCombine(result, (v, content) -> content)
+                .thenCompose(interaction::respond)
+                .exceptionally(Commands::printError);
+    }
+
+    private static String errorMessage(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return ":thumbsdown: (" + cause.getMessage() + ")";
+    }
+
+    /**
+     * Prints an error that happened while responding. There's no way to tell the user, so this is all that's done.
+     */
+    private static Void printError(Throwable e) {
+        e.printStackTrace();
+        return null;
     }
 }
@@ -0,0 +1,49 @@
+package com.github.AndrewAlbizati;
+
+import org.javacord.api.entity.message.embed.EmbedBuilder;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Everything the bot needs from Discord, so that games and commands can run against Javacord or an in-process fake.
+ * Users and messages are referred to by id, the gateway looks up and caches the objects behind them.
+ */
+public interface DiscordGateway {
+    /**
+     * Sends a game message with the cookie button to a user.
+     * @param userId The Discord id of the user.
+     * @param embed The game's embed.
+     * @return A future that completes with the id of the message.
+     */
+    CompletableFuture<Long> sendGameMessage(long userId, EmbedBuilder embed);
+
+    /**
+     * Replaces the embed of a game message.
+     * @param userId The Discord id of the user the message was sent to.
+     * @param messageId The id of the message.
+     * @param embed The game's new embed.
+     * @return A future that completes once the message is edited.
+     */
+    CompletableFuture<Void> editMessage(long userId, long messageId, EmbedBuilder embed);
+
+    /**
+     * Deletes a game message.
+     * @param userId The Discord id of the user the message was sent to.
+     * @param messageId The id of the message.
+     * @return A future that completes once the message is deleted.
+     */
+    CompletableFuture<Void> deleteMessage(long userId, long messageId);
+
+    /**
+     * Looks up a user's name.
+     * @param userId The Discord id of the user.
+     * @return A future that completes with the user's name and discriminator, e.g. name#1234.
+     */
+    CompletableFuture<String> getUserName(long userId);
+
+    /**
+     * Drops anything cached for a user, e.g. after their game is quit or parked.
+     * @param userId The Discord id of the user.
+     */
+    void forget(long userId);
+}
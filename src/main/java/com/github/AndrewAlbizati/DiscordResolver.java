@@ -0,0 +1,248 @@
+package com.github.AndrewAlbizati;
+
+import org.javacord.api.DiscordApi;
+import org.javacord.api.entity.message.Message;
+import org.javacord.api.entity.user.User;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Looks up Discord users and messages by id the first time they're needed, and caches them.
+ * Games are restored without any Discord requests, so startup time doesn't depend on the amount of saved games.
+ * Lookups for the same user or message are shared, and at most a fixed amount of lookups run at once.
+ * <p>
+ * Users and their game messages are kept in caches of a fixed size that drop the least recently used entries, and are
+ * forgotten once their game is quit or parked, so the cache doesn't grow with every user the bot has seen. Every
+ * click remembers its user, so the caches are split into stripes that each have their own lock.
+ */
+public class DiscordResolver {
+    private final DiscordApi api;
+    private final int maxConcurrent;
+
+    private final LruCache<User> cachedUsers;
+    // Keyed by user id, since a user only has one game message at a time
+    private final LruCache<Message> cachedMessages;
+
+    // Lookups that are running, keyed by user or message id
+    private final ConcurrentHashMap<Long, CompletableFuture<User>> users = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, CompletableFuture<Message>> messages = new ConcurrentHashMap<>();
+
+    private final ConcurrentLinkedQueue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * @param api A reference to the DiscordApi used to retrieve users and messages.
+     * @param maxConcurrent The maximum amount of lookups that can run at once.
+     * @param capacity The most users, and the most messages, that are cached at once.
+     */
+    public DiscordResolver(DiscordApi api, int maxConcurrent, int capacity) {
+        this.api = api;
+        this.maxConcurrent = maxConcurrent;
+        cachedUsers = new LruCache<>(capacity);
+        cachedMessages = new LruCache<>(capacity);
+    }
+
+    /**
+     * Caches a user that Javacord already has, e.g. from an interaction.
+     * @param user The user.
+     */
+    public void remember(User user) {
+        cachedUsers.put(user.getId(), user);
+    }
+
+    /**
+     * Caches a user's game message that was just sent or looked up, replacing their previous one.
+     * @param userId The Discord id of the user the message was sent to.
+     * @param message The message.
+     */
+    public void remember(long userId, Message message) {
+        cachedMessages.put(userId, message);
+    }
+
+    /**
+     * Removes a message from the cache, e.g. after it is deleted.
+     * @param userId The Discord id of the user the message was sent to.
+     * @param messageId The id of the message.
+     */
+    public void forgetMessage(long userId, long messageId) {
+        cachedMessages.removeIf(userId, message -> message.getId() == messageId);
+    }
+
+    /**
+     * Removes a user and their game message from the cache, e.g. after their game is quit or parked.
+     * @param userId The Discord id of the user.
+     */
+    public void forget(long userId) {
+        cachedUsers.removeIf(userId, user -> true);
+        cachedMessages.removeIf(userId, message -> true);
+    }
+
+    /**
+     * Returns a user, looking them up if they aren't cached.
+     * @param userId The Discord id of the user.
+     * @return A future that completes with the user.
+     */
+    public CompletableFuture<User> user(long userId) {
+        User user = cachedUsers.get(userId);
+        if (user != null) {
+            return CompletableFuture.completedFuture(user);
+        }
+
+        return shared(users, userId, () -> limit(() -> api.getUserById(userId)), this::remember);
+    }
+
+    /**
+     * Returns a message in a user's private channel, looking it up if it isn't cached.
+     * @param userId The Discord id of the user the message was sent to.
+     * @param messageId The id of the message.
+     * @return A future that completes with the message.
+     */
+    public CompletableFuture<Message> message(long userId, long messageId) {
+        Message message = cachedMessages.get(userId);
+        if (message != null && message.getId() == messageId) {
+            return CompletableFuture.completedFuture(message);
+        }
+
+        return shared(messages, messageId, () -> user(userId)
+                .thenCompose(user -> limit(() -> user.openPrivateChannel()
+                        .thenCompose(channel -> channel.getMessageById(messageId)))),
+                found -> remember(userId, found));
+    }
+
+    /**
+     * Starts a lookup unless one is already running for the same id, in which case its future is returned.
+     * The result is cached, so later calls don't need a lookup.
+     */
+    private static <T> CompletableFuture<T> shared(ConcurrentHashMap<Long, CompletableFuture<T>> running, long id,
+                                                   Supplier<CompletableFuture<T>> lookup, Consumer<T> resolved) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<T> existing = running.putIfAbsent(id, result);
+        if (existing != null) {
+            return existing;
+        }
+
+        lookup.get().whenComplete((value, e) -> {
+            running.remove(id, result);
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                resolved.accept(value);
+                result.complete(value);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Starts a lookup now if fewer than maxConcurrent are running, otherwise once one finishes.
+     */
+    private <T> CompletableFuture<T> limit(Supplier<CompletableFuture<T>> lookup) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        waiting.add(() -> {
+            try {
+                // Async, so that lookups that are already complete don't start the next one on this stack
+                lookup.get().whenCompleteAsync((value, e) -> {
+                    inFlight.decrementAndGet();
+                    startWaiting();
+                    if (e != null) {
+                        result.completeExceptionally(e);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            } catch (RuntimeException e) {
+                inFlight.decrementAndGet();
+                startWaiting();
+                result.completeExceptionally(e);
+            }
+        });
+        startWaiting();
+        return result;
+    }
+
+    private void startWaiting() {
+        while (!waiting.isEmpty()) {
+            int current = inFlight.get();
+            if (current >= maxConcurrent) {
+                return;
+            }
+            if (!inFlight.compareAndSet(current, current + 1)) {
+                continue;
+            }
+
+            Runnable next = waiting.poll();
+            if (next == null) {
+                inFlight.decrementAndGet();
+                // Another thread took the last lookup, but one may have been added after the isEmpty check
+                continue;
+            }
+            next.run();
+        }
+    }
+
+    /**
+     * A map of ids that keeps the most recently used entries up to about a capacity, dropping the least recently used.
+     * Ids are spread over stripes that each keep an equal share of the capacity under their own lock, so threads only
+     * wait for each other when their ids share a stripe.
+     */
+    private static class LruCache<V> {
+        // A power of two, so a stripe is picked with the top bits of the hash
+        private static final int STRIPES = 16;
+
+        private final LinkedHashMap<Long, V>[] stripes;
+
+        @SuppressWarnings("unchecked")
+        private LruCache(int capacity) {
+            int stripeCapacity = Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+            stripes = new LinkedHashMap[STRIPES];
+            for (int i = 0; i < STRIPES; i++) {
+                // Access order, so get moves an entry to the end and the eldest entry is the least recently used
+                stripes[i] = new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Long, V> eldest) {
+                        return size() > stripeCapacity;
+                    }
+                };
+            }
+        }
+
+        /**
+         * Discord ids are timestamps in their top bits and counters in their lowest, so they're mixed first.
+         */
+        private LinkedHashMap<Long, V> stripe(long id) {
+            return stripes[(int) ((id * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(STRIPES)))];
+        }
+
+        private V get(long id) {
+            LinkedHashMap<Long, V> stripe = stripe(id);
+            synchronized (stripe) {
+                return stripe.get(id);
+            }
+        }
+
+        private void put(long id, V value) {
+            LinkedHashMap<Long, V> stripe = stripe(id);
+            synchronized (stripe) {
+                stripe.put(id, value);
+            }
+        }
+
+        private void removeIf(long id, Predicate<V> matches) {
+            LinkedHashMap<Long, V> stripe = stripe(id);
+            synchronized (stripe) {
+                V value = stripe.get(id);
+                if (value != null && matches.test(value)) {
+                    stripe.remove(id);
+                }
+            }
+        }
+    }
+}
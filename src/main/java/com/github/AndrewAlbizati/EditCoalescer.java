@@ -0,0 +1,121 @@
+package com.github.AndrewAlbizati;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces game message edits so that each game has at most one edit in flight.
+ * Clicks that arrive while an edit is in flight are folded into the next edit, which always shows the latest state.
+ */
+public class EditCoalescer {
+    private final ScheduledExecutorService scheduler;
+    private final DiscordGateway gateway;
+    private final long minIntervalMillis;
+    private final ConcurrentHashMap<Long, EditState> states = new ConcurrentHashMap<>();
+
+    private final LongAdder editsRequested = new LongAdder();
+    private final LongAdder editsSent = new LongAdder();
+    private final LongAdder editsFailed = new LongAdder();
+
+    private static class EditState {
+        // Game has changed since the last edit was rendered
+        private final AtomicBoolean dirty = new AtomicBoolean();
+        // An edit is scheduled or in flight
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile long lastEdit;
+        // The game to render, replaced if the game is parked and loaded again while an edit is pending
+        private volatile Game game;
+    }
+
+    /**
+     * @param scheduler The scheduler used to delay edits.
+     * @param gateway The gateway used to edit messages.
+     * @param minIntervalMillis The minimum time between two edits of the same message.
+     */
+    public EditCoalescer(ScheduledExecutorService scheduler, DiscordGateway gateway, long minIntervalMillis) {
+        this.scheduler = scheduler;
+        this.gateway = gateway;
+        this.minIntervalMillis = minIntervalMillis;
+    }
+
+    /**
+     * Marks a game's message as out of date, and schedules an edit if one isn't already pending.
+     * @param userId The Discord id of the user playing the game.
+     * @param game The game whose message should be updated.
+     */
+    public void requestEdit(long userId, Game game) {
+        editsRequested.increment();
+
+        EditState state = states.computeIfAbsent(userId, id -> new EditState());
+        state.game = game;
+        state.dirty.set(true);
+        schedule(userId, state);
+    }
+
+    /**
+     * Stops tracking a game, e.g. after the user quits.
+     * @param userId The Discord id of the user playing the game.
+     */
+    public void forget(long userId) {
+        states.remove(userId);
+    }
+
+    /**
+     * Stops tracking a game unless an edit of it is pending, e.g. after it was parked.
+     * @param userId The Discord id of the user playing the game.
+     */
+    public void forgetIdle(long userId) {
+        states.computeIfPresent(userId, (id, state) -> state.scheduled.get() ? state : null);
+    }
+
+    private void schedule(long userId, EditState state) {
+        if (!state.dirty.get() || !state.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        long delay = Math.max(0, state.lastEdit + minIntervalMillis - System.currentTimeMillis());
+        scheduler.schedule(() -> send(userId, state), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void send(long userId, EditState state) {
+        Game game = state.game;
+        // Clear before rendering so that clicks during the render trigger another edit
+        state.dirty.set(false);
+        state.lastEdit = System.currentTimeMillis();
+        editsSent.increment();
+        CompletableFuture<Void> edit;
+        try {
+            edit = gateway.editMessage(userId, game.getMessageId(), game.toEmbedBuilder());
+        } catch (RuntimeException e) {
+            // Failed before a request was made, e.g. while rendering, which must not leave the edit scheduled forever
+            edit = CompletableFuture.failedFuture(e);
+        }
+        edit.whenComplete((v, e) -> {
+            if (e != null) {
+                editsFailed.increment();
+                e.printStackTrace();
+                // Don't retry until the next click, e.g. if the message was deleted
+                state.dirty.set(false);
+                state.lastEdit = System.currentTimeMillis();
+            }
+            state.scheduled.set(false);
+            schedule(userId, state);
+        });
+    }
+
+    public long getEditsRequested() {
+        return editsRequested.sum();
+    }
+
+    public long getEditsSent() {
+        return editsSent.sum();
+    }
+
+    public long getEditsFailed() {
+        return editsFailed.sum();
+    }
+}
@@ -1,155 +1,426 @@
 package com.github.AndrewAlbizati;
 
-import org.javacord.api.DiscordApi;
-import org.javacord.api.entity.message.Message;
 import org.javacord.api.entity.message.embed.EmbedBuilder;
-import org.javacord.api.entity.user.User;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 
 import java.awt.*;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A single player's game. All methods that read or change the game's state are synchronized on the game,
+ * so clicks, purchases, and saves from different threads never interleave.
+ * <p>
+ * The state that is saved is kept in a {@link GameTable} record, which is either a slot of a memory-mapped table
+ * that the game reads and writes in place, or a buffer on the heap. Everything else is derived from it.
+ */
 public class Game {
-    private static JSONObject itemData;
+    private static final Color EMBED_COLOR = new Color(204, 204, 204);
+
+    // Purchases between exact recomputes of cookiesPerSecond, bounds floating point drift
+    static final int CPS_RECOMPUTE_INTERVAL = 256;
+
+    private final long userId;
 
-    private final User user;
-    private final long startTime;
-    private long lastUpdated;
-    private Message message;
+    // Message id, start time, cookies as of the last updated time, and items owned, see GameTable.
+    // Production since the last updated time is added whenever cookies are read
+    private ByteBuffer record;
+    // The record's slot in its GameTable, or -1 if it's on the heap
+    private int slot;
+
+    // Changed since it was last saved
+    private boolean dirty = true;
 
-    private double cookies;
     private double cookiesPerSecond;
+    private int purchasesSinceRecompute;
+
+    // Prices of the next few purchases, created by the first /advise and then kept up to date
+    private PaybackIndex payback;
+
+    // Every click and purchase since the game was created or loaded, created by the first one
+    private GameEventLog events;
+
+    // When the game was last looked up by GameRegistry.load, for evicting idle games
+    private volatile long lastAccessed = System.currentTimeMillis();
+    // Set once the game was parked in cold storage, after which a reloaded copy replaces this one
+    private volatile boolean parked;
+    // Requests in flight that will still change the game, e.g. resending its message, which keep it from being parked
+    private volatile int pins;
+    private static final AtomicIntegerFieldUpdater<Game> PINS = AtomicIntegerFieldUpdater.newUpdater(Game.class, "pins");
+
+    // Clicks that weren't admitted by the ClickLimiter, added later in a batch
+    private volatile int deferredClicks;
+    private static final AtomicIntegerFieldUpdater<Game> DEFERRED_CLICKS =
+            AtomicIntegerFieldUpdater.newUpdater(Game.class, "deferredClicks");
+
+    // Set by clicks until the game is moved on the leaderboard in a batch, see GameRegistry.clicked
+    private volatile int unranked;
+    private static final AtomicIntegerFieldUpdater<Game> UNRANKED = AtomicIntegerFieldUpdater.newUpdater(Game.class, "unranked");
+
+    /**
+     * Creates a brand-new game on the heap.
+     * @param userId The Discord id of the user who the game will be registered for.
+     */
+    public Game(long userId) {
+        this(userId, GameTable.newRecord(), -1);
+    }
+
+    /**
+     * Creates a brand-new game in a record, e.g. a newly allocated slot of a {@link GameTable}.
+     * @param userId The Discord id of the user who the game will be registered for.
+     * @param record The record, with every field set to 0.
+     * @param slot The record's slot in its table, or -1 if it's on the heap.
+     */
+    public Game(long userId, ByteBuffer record, int slot) {
+        this.userId = userId;
+        this.record = record;
+        this.slot = slot;
+
+        long startTime = System.currentTimeMillis();
+        record.putLong(GameTable.USER_ID, userId);
+        record.putLong(GameTable.START_TIME, startTime);
+        record.putLong(GameTable.LAST_UPDATED, startTime);
+
+        events = new GameEventLog(GameReplay.State.newGame(userId, startTime));
+        events.newGame(startTime);
+    }
+
+    /**
+     * Creates a game based off of a save. The user and message are looked up later by the {@link DiscordGateway}.
+     * @param save The game's save.
+     */
+    public Game(GameSave save) {
+        this(toRecord(save), -1);
+    }
+
+    /**
+     * Creates a game from a record that holds one, e.g. a slot of a {@link GameTable} that was loaded.
+     * Cookies produced since the record was last updated are added the next time they're read.
+     * @param record The record.
+     * @param slot The record's slot in its table, or -1 if it's on the heap.
+     */
+    public Game(ByteBuffer record, int slot) {
+        userId = record.getLong(GameTable.USER_ID);
+        this.record = record;
+        this.slot = slot;
+        updateCPS();
+        dirty = false;
+    }
+
+    private static ByteBuffer toRecord(GameSave save) {
+        ByteBuffer record = GameTable.newRecord();
+        GameTable.write(record, save);
+        return record;
+    }
+
+    public synchronized void setMessageId(long messageId) {
+        record.putLong(GameTable.MESSAGE_ID, messageId);
+        dirty = true;
+    }
+
+    public synchronized long getMessageId() {
+        return record.getLong(GameTable.MESSAGE_ID);
+    }
+
+    /**
+     * Returns true once the game's message has been sent. Games are only saved after that.
+     */
+    public synchronized boolean hasMessage() {
+        return getMessageId() != 0;
+    }
+
+    /**
+     * Returns the slot of the game's record in its {@link GameTable}, or -1 if the record is on the heap.
+     */
+    synchronized int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Moves the game's record to the heap, so its slot can be reused once the game is quit. Anything that still
+     * changes the game afterwards, e.g. a click that was already being handled, changes the copy.
+     * @return The slot the record was in, or -1 if it was already on the heap.
+     */
+    synchronized int detach() {
+        int oldSlot = slot;
+        ByteBuffer copy = GameTable.newRecord();
+        copy.put(0, record, 0, GameTable.RECORD_SIZE);
+        record = copy;
+        slot = -1;
+        return oldSlot;
+    }
+
+    /**
+     * Records that the game is being used. See {@link #markParked(long)}.
+     * @param time The current time, in milliseconds.
+     */
+    void touch(long time) {
+        lastAccessed = time;
+    }
+
+    long getLastAccessed() {
+        return lastAccessed;
+    }
+
+    boolean isParked() {
+        return parked;
+    }
+
+    /**
+     * Keeps the game from being parked until {@link #unpin()}. See {@link GameRegistry#loadPinned(long)}.
+     */
+    void pin() {
+        PINS.incrementAndGet(this);
+    }
+
+    void unpin() {
+        PINS.decrementAndGet(this);
+    }
 
-    private long cursors;
-    private long grandmas;
-    private long factories;
-    private long mines;
-    private long shipments;
-    private long alchemyLabs;
-    private long portals;
-    private long timeMachines;
-
-    static {
-        // Get all information about the store (saved locally in resources)
-        try {
-            InputStream jsonStream = Game.class.getResourceAsStream("/store.json");
-            if (jsonStream == null) {
-                throw new NullPointerException("store.json is null");
-            }
-
-            JSONParser parser = new JSONParser();
-            itemData = (JSONObject) parser.parse(new InputStreamReader(jsonStream, StandardCharsets.UTF_8));
-        } catch (IOException | ParseException | NullPointerException e) {
-            e.printStackTrace();
+    /**
+     * Marks the game as parked, unless it was used since a certain time or is pinned. A thread that touches or pins
+     * the game and then sees that it isn't parked can use it, since parking checks for both after setting the flag.
+     * @param idleSince The game must not have been touched since this time.
+     * @return True if the game was marked.
+     */
+    boolean markParked(long idleSince) {
+        parked = true;
+        if (lastAccessed >= idleSince || pins != 0) {
+            parked = false;
         }
+        return parked;
     }
 
     /**
-     * Creates a brand-new game.
-     * @param user The user who the game will be registered for.
+     * Undoes {@link #markParked(long)}, e.g. if the game couldn't be written to cold storage.
      */
-    public Game(User user) {
-        this.user = user;
-        startTime = System.currentTimeMillis();
+    void unmarkParked() {
+        parked = false;
+    }
+
+    private long getLastUpdated() {
+        return record.getLong(GameTable.LAST_UPDATED);
     }
 
     /**
-     * Creates a game based off of a save from the saves.json file.
-     * @param object The JSONObject registered in the saves.json file.
-     * @param api A reference to the DiscordApi used to retrieve the Discord user.
-     * @param userId The Discord id of the user who is playing the game.
-     * @param saveTime The time at which the JSONObject was saved. This is used to add any lost cookies.
+     * Returns the cookies as of the last updated time, as a {@link BigNumber}.
      */
-    public Game(JSONObject object, DiscordApi api, long userId, long saveTime) {
-        long messageId = (long) object.get("message-id");
-        this.user = api.getUserById(userId).join();
+    private long getStoredCookies() {
+        return record.getLong(GameTable.COOKIES);
+    }
 
-        message = user.openPrivateChannel().join().getMessageById(messageId).join();
+    private void setStoredCookies(long cookies) {
+        record.putLong(GameTable.COOKIES, cookies);
+    }
 
-        startTime = (long) object.get("time-started");
-        cookies = (double) object.get("cookies");
+    private long owned(int item) {
+        return record.getLong(GameTable.OWNED + 8 * item);
+    }
 
-        cursors = (long) object.get("cursor");
-        grandmas = (long) object.get("grandma");
-        factories = (long) object.get("factory");
-        mines = (long) object.get("mine");
-        shipments = (long) object.get("shipment");
-        alchemyLabs = (long) object.get("alchemy lab");
-        portals = (long) object.get("portal");
-        timeMachines = (long) object.get("time machine");
+    private long[] getOwned() {
+        long[] owned = new long[Store.SIZE];
+        for (int i = 0; i < Store.SIZE; i++) {
+            owned[i] = owned(i);
+        }
+        return owned;
+    }
 
-        updateCPS();
-        lastUpdated = saveTime;
-        updateCookies();
+    /**
+     * Returns the game's event log, starting it from the game's current state if nothing has happened since the
+     * game was loaded. Must be called before anything changes, so the log starts from the state before the change.
+     */
+    private GameEventLog events() {
+        if (events == null) {
+            events = new GameEventLog(GameReplay.State.fromSave(toSave(getLastUpdated())));
+        }
+        return events;
     }
 
-    public void setMessage(Message message) {
-        this.message = message;
+    /**
+     * Marks the game as saved. Production over time doesn't make a game dirty, since it is recomputed from the
+     * save time when the game is loaded.
+     * @return True if the game had changed since it was last saved.
+     */
+    public synchronized boolean clearDirty() {
+        boolean wasDirty = dirty;
+        dirty = false;
+        return wasDirty;
     }
 
-    public Message getMessage() {
-        return message;
+    public long getUserId() {
+        return userId;
     }
 
-    public User getUser() {
-        return user;
+    public synchronized void addCookie() {
+        addCookie(System.currentTimeMillis());
     }
 
-    public void addCookie() {
-        cookies += 1;
+    /**
+     * Adds a cookie at a certain time, e.g. on a simulated clock. Times must not go backwards.
+     * @param time The time of the click, in milliseconds.
+     */
+    public synchronized void addCookie(long time) {
+        GameEventLog events = events();
+        updateCookies(time);
+        setStoredCookies(BigNumber.add(getStoredCookies(), BigNumber.ONE));
+        dirty = true;
+        events.click(time);
     }
 
-    public void updateCookies() {
-        long difference = (System.currentTimeMillis() - lastUpdated) / 1000;
+    /**
+     * Records that the user quit, so the game's events end where it stopped being played.
+     */
+    public synchronized void quit() {
+        GameEventLog events = events();
+        long now = System.currentTimeMillis();
+        addDeferredClicks(now, events);
+        updateCookies(now);
+        events.quit(now);
+    }
 
-        cookies += cookiesPerSecond * difference;
-        lastUpdated = System.currentTimeMillis();
+    /**
+     * Counts a click to be added later by {@link #addDeferredClicks()}, without taking the game's lock.
+     * @return True if it's the first click since they were last added, so the game should be queued for that.
+     */
+    public boolean deferClick() {
+        return DEFERRED_CLICKS.getAndIncrement(this) == 0;
     }
 
     /**
-     * Updates the cookiesPerSecond variable by multiplying the amount of items owned by the item's base cps.
+     * Adds every deferred click as one batch, as of now.
+     * @return The amount of clicks added.
      */
-    public void updateCPS() {
-        double cps = 0.0;
+    public synchronized int addDeferredClicks() {
+        if (deferredClicks == 0) {
+            return 0;
+        }
+        return addDeferredClicks(System.currentTimeMillis(), events());
+    }
+
+    /**
+     * Marks the game's place on the leaderboard as out of date after a click, without taking any lock.
+     * @return True if it wasn't already, so the game should be queued to be moved on the leaderboard.
+     */
+    public boolean markUnranked() {
+        return UNRANKED.getAndSet(this, 1) == 0;
+    }
+
+    /**
+     * Clears the mark set by {@link #markUnranked()}, before the game is moved on the leaderboard.
+     * @return True if the game was marked.
+     */
+    public boolean clearUnranked() {
+        return UNRANKED.getAndSet(this, 0) == 1;
+    }
 
-        // Cursors
-        JSONObject cursor = (JSONObject) itemData.get("cursor");
-        cps += (double) cursor.get("cps") * cursors;
+    /**
+     * Returns the amount of clicks that were deferred and haven't been added yet.
+     */
+    public int getDeferredClicks() {
+        return deferredClicks;
+    }
 
-        // Grandmas
-        JSONObject grandma = (JSONObject) itemData.get("grandma");
-        cps += (double) grandma.get("cps") * grandmas;
+    private int addDeferredClicks(long time, GameEventLog events) {
+        int clicks = DEFERRED_CLICKS.getAndSet(this, 0);
+        if (clicks == 0) {
+            return 0;
+        }
+        updateCookies(time);
+        setStoredCookies(BigNumber.add(getStoredCookies(), BigNumber.fromDouble(clicks)));
+        dirty = true;
+        events.clicks(time, clicks);
+        return clicks;
+    }
 
-        // Factories
-        JSONObject factory = (JSONObject) itemData.get("factory");
-        cps += (double) factory.get("cps") * factories;
+    /**
+     * Returns every event since the game was created or loaded, for {@link GameReplay}.
+     */
+    public synchronized GameEventLog.Snapshot getEvents() {
+        return events().snapshot();
+    }
 
-        // Mines
-        JSONObject mine = (JSONObject) itemData.get("mine");
-        cps += (double) mine.get("cps") * mines;
+    /**
+     * Adds the cookies produced since the last update to the stored cookies.
+     * Reads don't need this, it's done before anything changes the cookies or CPS.
+     */
+    public synchronized void updateCookies() {
+        updateCookies(System.currentTimeMillis());
+    }
 
-        // Shipments
-        JSONObject shipment = (JSONObject) itemData.get("shipment");
-        cps += (double) shipment.get("cps") * shipments;
+    private void updateCookies(long time) {
+        setStoredCookies(projectCookies(time));
+        record.putLong(GameTable.LAST_UPDATED, time);
+    }
+
+    /**
+     * Returns the amount of cookies the game will have at a certain time if nothing else happens.
+     * @param time The time to project to, in milliseconds.
+     * @return The stored cookies plus the cookies produced between the last update and that time, as a
+     *         {@link BigNumber}.
+     */
+    private long projectCookies(long time) {
+        return BigNumber.add(getStoredCookies(),
+                BigNumber.fromDouble(cookiesPerSecond * (time - getLastUpdated()) / 1000.0));
+    }
+
+    /**
+     * Returns the amount of cookies the game will have at a certain time if nothing else happens, as a double,
+     * e.g. for simulations. See {@link #getProjectedCookiesBits(long)} for the exact amount.
+     * @param time The time to project to, in milliseconds.
+     * @return The stored cookies plus the cookies produced between the last update and that time, or
+     *         Double.MAX_VALUE if that's more than a double holds.
+     */
+    public synchronized double getProjectedCookies(long time) {
+        return BigNumber.toDouble(projectCookies(time));
+    }
+
+    /**
+     * Returns the amount of cookies the game will have at a certain time if nothing else happens, e.g. for rankings.
+     * @param time The time to project to, in milliseconds.
+     * @return The projected cookies, encoded as the bits of a {@link BigNumber} rather than a count. Compare them
+     *         with {@link BigNumber#compare(long, long)}.
+     */
+    public synchronized long getProjectedCookiesBits(long time) {
+        return projectCookies(time);
+    }
 
-        // Alchemy labs
-        JSONObject alchemyLab = (JSONObject) itemData.get("alchemy lab");
-        cps += (double) alchemyLab.get("cps") * alchemyLabs;
+    /**
+     * Updates the cookiesPerSecond variable by multiplying the amount of items owned by the item's base cps.
+     * Purchases keep cookiesPerSecond up to date incrementally, so this is only needed to remove drift.
+     */
+    public synchronized void updateCPS() {
+        cookiesPerSecond = computeCPS();
+        purchasesSinceRecompute = 0;
+    }
 
-        // Portals
-        JSONObject portal = (JSONObject) itemData.get("portal");
-        cps += (double) portal.get("cps") * portals;
+    private double computeCPS() {
+        // The same sum as computeCPS(long[]), without copying the record
+        double cps = 0.0;
+        for (int i = 0; i < Store.SIZE; i++) {
+            cps += Store.getCPS(i) * owned(i);
+        }
+        return cps;
+    }
 
-        // Time machines
-        JSONObject timeMachine = (JSONObject) itemData.get("time machine");
-        cps += (double) timeMachine.get("cps") * timeMachines;
+    /**
+     * Returns the production of an inventory, summed in the same order every time so replays round the same.
+     * @param owned The amount of each item owned, indexed by Items.ordinal().
+     */
+    static double computeCPS(long[] owned) {
+        double cps = 0.0;
+        for (int i = 0; i < Store.SIZE; i++) {
+            cps += Store.getCPS(i) * owned[i];
+        }
+        return cps;
+    }
 
-        cookiesPerSecond = cps;
+    /**
+     * Checks the incrementally maintained cookiesPerSecond against a full recompute.
+     * Only called when assertions are enabled (-ea).
+     */
+    private boolean cpsMatchesRecompute() {
+        double expected = computeCPS();
+        return Math.abs(cookiesPerSecond - expected) <= 1e-9 * Math.max(1.0, expected);
     }
 
     /**
@@ -157,31 +428,67 @@ public class Game {
      * @param item An Items enum value.
      * @return The amount of that item that is owned by the player.
      */
-    public long getAmountOwned(Items item) {
-        return switch (item) {
-            case CURSOR -> cursors;
-            case GRANDMA -> grandmas;
-            case FACTORY -> factories;
-            case MINE -> mines;
-            case SHIPMENT -> shipments;
-            case ALCHEMY_LAB -> alchemyLabs;
-            case PORTAL -> portals;
-            case TIME_MACHINE -> timeMachines;
-        };
+    public synchronized long getAmountOwned(Items item) {
+        return owned(item.ordinal());
     }
 
     /**
      * Returns the cost of buying a certain amount of items.
      * @param item An Items enum value of the item that is being purchased.
      * @param amount The amount of that item that will be purchased.
-     * @return The amount of cookies that it will cost to by that amount of items.
+     * @return The amount of cookies that it will cost to by that amount of items, encoded as the bits of a
+     *         {@link BigNumber} rather than a count, and {@link BigNumber#MAX_VALUE} if the price overflowed.
+     */
+    public synchronized long getCostBits(Items item, long amount) {
+        int i = item.ordinal();
+        return PurchaseSolver.cost(Store.getBasePrice(i), owned(i), amount);
+    }
+
+    /**
+     * Returns the largest amount of an item that the player can afford, up to the amount requested.
+     * @param item An Items enum value of the item that is being purchased.
+     * @param amount The amount of that item that the player would like to purchase.
+     * @return The largest amount of that item that can be bought with the player's cookies.
+     */
+    public synchronized long getAffordableAmount(Items item, long amount) {
+        return getAffordableAmount(item, amount, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the largest amount of an item that the player can afford at a certain time, up to the amount requested.
+     * @param item An Items enum value of the item that is being purchased.
+     * @param amount The amount of that item that the player would like to purchase.
+     * @param time The time of the purchase, in milliseconds.
+     * @return The largest amount of that item that can be bought with the player's cookies at that time.
      */
-    public long getCost(Items item, long amount) {
-        long numOwned = getAmountOwned(item);
+    public synchronized long getAffordableAmount(Items item, long amount, long time) {
+        int i = item.ordinal();
+        return PurchaseSolver.maxAffordable(Store.getBasePrice(i), owned(i), getCookiesBits(time), amount);
+    }
 
-        long basePrice = (long) ((JSONObject) itemData.get(item.toString().toLowerCase())).get("base-price");
+    /**
+     * Buys as many of an item as the player can afford, up to the amount requested.
+     * @param item An Items enum value of that item that will be purchased.
+     * @param amount The largest amount of the item that will be purchased.
+     * @return The amount of the item that was purchased, 0 if none could be afforded.
+     */
+    public synchronized long buyAffordable(Items item, long amount) {
+        return buyAffordable(item, amount, System.currentTimeMillis());
+    }
 
-        return (long) (Math.ceil(basePrice * Math.pow(1.1, amount + numOwned) / 0.1) - Math.ceil(basePrice * Math.pow(1.1, numOwned) / 0.1));
+    /**
+     * Buys as many of an item as the player can afford at a certain time, up to the amount requested.
+     * @param item An Items enum value of that item that will be purchased.
+     * @param amount The largest amount of the item that will be purchased.
+     * @param time The time of the purchase, in milliseconds. Times must not go backwards.
+     * @return The amount of the item that was purchased, 0 if none could be afforded.
+     */
+    public synchronized long buyAffordable(Items item, long amount, long time) {
+        amount = getAffordableAmount(item, amount, time);
+        if (amount == 0 || !buy(item, amount, time)) {
+            return 0;
+        }
+        return amount;
     }
 
     /**
@@ -190,56 +497,116 @@ public class Game {
      * @param amount The amount of the item that will be purchased.
      * @return True if the sale went through, false if the user doesn't have enough cookies.
      */
-    public boolean buy(Items item, long amount) {
-        long cost = getCost(item, amount);
-        if (getCookies() < cost) {
+    public synchronized boolean buy(Items item, long amount) {
+        return buy(item, amount, System.currentTimeMillis());
+    }
+
+    /**
+     * Buys a certain amount of items from the store at a certain time, e.g. on a simulated clock.
+     * @param item An Items enum value of that item that will be purchased.
+     * @param amount The amount of the item that will be purchased.
+     * @param time The time of the purchase, in milliseconds. Times must not go backwards.
+     * @return True if the sale went through, false if the user doesn't have enough cookies at that time.
+     */
+    public synchronized boolean buy(Items item, long amount, long time) {
+        long cost = getCostBits(item, amount);
+        if (!PurchaseSolver.affordable(cost, getCookiesBits(time))) {
             return false;
         }
 
-        cookies -= cost;
-        switch (item) {
-            case CURSOR -> cursors += amount;
-            case GRANDMA -> grandmas += amount;
-            case FACTORY -> factories += amount;
-            case MINE -> mines += amount;
-            case SHIPMENT -> shipments += amount;
-            case ALCHEMY_LAB -> alchemyLabs += amount;
-            case PORTAL -> portals += amount;
-            case TIME_MACHINE -> timeMachines += amount;
+        GameEventLog events = events();
+
+        // Production up to now uses the old CPS
+        updateCookies(time);
+        setStoredCookies(BigNumber.subtract(getStoredCookies(), cost));
+        int i = item.ordinal();
+        long owned = owned(i) + amount;
+        record.putLong(GameTable.OWNED + 8 * i, owned);
+        if (payback != null) {
+            payback.bought(i, owned, amount);
         }
-        updateCPS();
+        dirty = true;
+        events.buy(time, i, amount);
+
+        // Only the purchased item's production changes
+        cookiesPerSecond += amount * Store.getCPS(item.ordinal());
+        if (++purchasesSinceRecompute >= CPS_RECOMPUTE_INTERVAL) {
+            updateCPS();
+        }
+        assert cpsMatchesRecompute() : "incremental cps " + cookiesPerSecond + " != " + computeCPS();
         return true;
     }
 
-    public long getCookies() {
-        return (long) Math.floor(cookies);
+    /**
+     * Returns the whole cookies the game has now, see {@link #getCookiesBits(long)}.
+     */
+    public synchronized long getCookiesBits() {
+        return getCookiesBits(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the whole cookies the game has at a certain time.
+     * @param time The time to project to, in milliseconds.
+     * @return The cookies, rounded down, encoded as the bits of a {@link BigNumber} rather than a count. Use
+     *         {@link BigNumber#toDouble(long)} or {@link NumberFormatter} to read them.
+     */
+    public synchronized long getCookiesBits(long time) {
+        return BigNumber.floor(projectCookies(time));
     }
 
-    public double getCookiesPerSecond() {
+    public synchronized double getCookiesPerSecond() {
         return cookiesPerSecond;
     }
 
+    /**
+     * Ranks the items by how soon they pay for themselves, and plans the next few purchases.
+     * @param time The time to advise at, in milliseconds.
+     * @param steps The amount of purchases to plan, up to {@link PaybackIndex#LOOKAHEAD}.
+     * @return The ranking and the plan.
+     */
+    public synchronized PaybackIndex.Advice advise(long time, int steps) {
+        if (payback == null) {
+            payback = new PaybackIndex(getOwned());
+        }
+        return payback.advise(projectCookies(time), cookiesPerSecond, steps);
+    }
+
     /**
      * Converts the game object to an EmbedBuilder that can be sent to a player.
      * @return An EmbedBuilder with all necessary information.
      */
-    public EmbedBuilder toEmbedBuilder() {
+    public synchronized EmbedBuilder toEmbedBuilder() {
         EmbedBuilder eb = new EmbedBuilder();
         eb.setTitle("Cookie Clicker");
-        eb.setColor(new Color(204, 204, 204));
+        eb.setColor(EMBED_COLOR);
 
         eb.setThumbnail("https://play-lh.googleusercontent.com/OssE3ON9WsLZedOF39UCgtIHcRYfV0OqQS9O78LfmRdxSyKdHX52G2OFa0LkG6D-k9w");
 
-        eb.setDescription("Cookies: **" + String.format("%,d", getCookies()) + "**\n" +
-                "Cookies/second: **" + String.format("%,.1f", round(cookiesPerSecond)) + "**");
+        // One builder is reused for every string in the embed
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("Cookies: **");
+        NumberFormatter.appendCompact(sb, getCookiesBits());
+        sb.append("**\nCookies/second: **");
+        if (cookiesPerSecond < 1e6) {
+            NumberFormatter.appendGroupedTenths(sb, cookiesPerSecond);
+        } else {
+            NumberFormatter.appendCompact(sb, BigNumber.fromDouble(cookiesPerSecond));
+        }
+        sb.append("**");
+        eb.setDescription(sb.toString());
 
         eb.addField("Buying Items", "Type /buy <item name> to buy an item");
 
-        for (Items item : Items.values()) {
-            eb.addField(item + " (:cookie: " + String.format("%,d", getCost(item, 1)) + ")",
-                    "*" + ((JSONObject) itemData.get(item.toString().toLowerCase())).get("description").toString()
-                            + " (" + ((JSONObject) itemData.get(item.toString().toLowerCase())).get("cps").toString() + " CPS)" +
-                            "*\n**" + getAmountOwned(item) + " owned.**");
+        for (int i = 0; i < Store.SIZE; i++) {
+            sb.setLength(0);
+            sb.append(Store.getFieldNamePrefix(i));
+            NumberFormatter.appendCompact(sb, PurchaseSolver.cost(Store.getBasePrice(i), owned(i), 1));
+            sb.append(')');
+            String name = sb.toString();
+
+            sb.setLength(0);
+            sb.append(Store.getFieldValuePrefix(i)).append(owned(i)).append(" owned.**");
+            eb.addField(name, sb.toString());
         }
 
         eb.setFooter("Updates every time the cookie is clicked");
@@ -248,41 +615,57 @@ public class Game {
     }
 
     /**
-     * Converts the game to a JSONObject that is ready to be stored in the saves.json file.
+     * Returns the game's state for saving.
+     * @param saveTime The time that the save is recorded as being made at, cookies are projected to this time.
+     * @return The game's save.
+     */
+    public synchronized GameSave toSave(long saveTime) {
+        return new GameSave(userId, getMessageId(), record.getLong(GameTable.START_TIME), saveTime,
+                projectCookies(saveTime), getOwned());
+    }
+
+    /**
+     * Converts the game to a JSONObject in the old saves.json format.
      * @return A JSONObject with all necessary information.
      */
-    public JSONObject toJSONObject() {
+    public synchronized JSONObject toJSONObject() {
+        return toJSONObject(System.currentTimeMillis());
+    }
+
+    /**
+     * Converts the game to a JSONObject in the old saves.json format.
+     * @param saveTime The time that the save is recorded as being made at, cookies are projected to this time.
+     * @return A JSONObject with all necessary information.
+     */
+    public synchronized JSONObject toJSONObject(long saveTime) {
         JSONObject object = new JSONObject();
 
-        object.put("message-id", message.getId());
-        object.put("time-started", startTime);
-        object.put("cookies", round(cookies));
-        object.put("cursor", cursors);
-        object.put("grandma", grandmas);
-        object.put("factory", factories);
-        object.put("mine", mines);
-        object.put("shipment", shipments);
-        object.put("alchemy lab", alchemyLabs);
-        object.put("portal", portals);
-        object.put("time machine", timeMachines);
+        object.put("message-id", getMessageId());
+        object.put("time-started", record.getLong(GameTable.START_TIME));
+        object.put("cookies", round(getProjectedCookies(saveTime)));
+        for (int i = 0; i < Store.SIZE; i++) {
+            object.put(Store.getKey(i), owned(i));
+        }
 
         return object;
     }
 
     private static double round(double value) {
+        // Doubles this large have no tenths
+        if (Math.abs(value) >= 1e15) {
+            return value;
+        }
         return (double) Math.round(value * 10) / 10;
     }
 
-    public String toString() {
-        return "cookies: " + getCookies() + ", " +
-                "cps: " + getCookiesPerSecond() + ", " +
-                "cursors: " + cursors + ", " +
-                "grandmas: " + grandmas + ", " +
-                "factories: " + factories + ", " +
-                "mines: " + mines + ", " +
-                "shipments: " + shipments + ", " +
-                "alchemy labs: " + alchemyLabs + ", " +
-                "portals: " + portals + ", " +
-                "time machines" + timeMachines;
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("cookies: ");
+        NumberFormatter.appendCompact(sb, getCookiesBits()).append(", ");
+        sb.append("cps: ").append(getCookiesPerSecond());
+        for (int i = 0; i < Store.SIZE; i++) {
+            sb.append(", ").append(Store.getKey(i)).append(": ").append(owned(i));
+        }
+        return sb.toString();
     }
 }
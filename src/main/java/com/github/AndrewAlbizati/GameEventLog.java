@@ -0,0 +1,206 @@
+package com.github.AndrewAlbizati;
+
+import java.util.Arrays;
+
+/**
+ * An append-only record of everything that happened to a game, so its state at any time can be rebuilt by
+ * {@link GameReplay}. Only changed by its {@link Game}, under the game's lock.
+ * <p>
+ * Events are packed into int arrays. Each event starts with a header holding its type in the top 3 bits and the
+ * milliseconds since the previous event in the other 29, so a click takes 4 bytes. A purchase is followed by the
+ * item and the amount (3 more ints), and a batch of clicks by their count (1 more int). Gaps that don't fit in 29
+ * bits (about 6 days), or that go back in time, are written as a {@link #TIME} event holding the absolute time.
+ * <p>
+ * Chunks start small and double up to {@link #MAX_CHUNK}, so games with few events stay small. Events never span
+ * two chunks. Once a log holds more than {@link #setMaxBytes(int)}, its oldest half is folded into the state it
+ * starts from, so the oldest events of long games can't be replayed. Audits replay from that state, so they still
+ * check every game.
+ */
+public class GameEventLog {
+    static final int CLICK = 1;
+    static final int BUY = 2;
+    static final int NEW = 3;
+    static final int QUIT = 4;
+    static final int TIME = 5;
+    static final int CLICKS = 6;
+
+    static final int TYPE_SHIFT = 29;
+    static final int DELTA_MASK = (1 << TYPE_SHIFT) - 1;
+
+    private static final int FIRST_CHUNK = 16;
+    private static final int MAX_CHUNK = 1024;
+
+    /**
+     * The default of {@link #setMaxBytes(int)}, about 4,000 clicks.
+     */
+    public static final int DEFAULT_MAX_BYTES = 16 * 1024;
+
+    // Logs past this many ints are folded, shared by every game
+    private static volatile int maxInts = DEFAULT_MAX_BYTES / 4;
+
+    private GameReplay.State start;
+    private int[][] chunks = new int[4][];
+    private int[] lengths = new int[4];
+    private int chunkCount;
+    private int[] current;
+    private int used;
+    private long totalInts;
+    private long events;
+    private long lastTime;
+
+    /**
+     * A read-only view of a log, which stays valid while the game keeps appending.
+     * @param start The state before the first event.
+     * @param chunks The chunks of events, oldest first.
+     * @param lengths The amount of ints used in each chunk.
+     * @param chunkCount The amount of chunks.
+     * @param events The amount of events.
+     */
+    public record Snapshot(GameReplay.State start, int[][] chunks, int[] lengths, int chunkCount, long events) {
+        /**
+         * Returns the approximate memory used by the events, in bytes.
+         */
+        public long sizeInBytes() {
+            long bytes = 0;
+            for (int i = 0; i < chunkCount; i++) {
+                bytes += 16 + 4L * chunks[i].length;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Sets how large a game's log can grow before its oldest half is folded, for every game. A log can go past it by
+     * about two chunks (8 KB) before it's folded, so each game's log takes at most about 24 KB by default.
+     * @param bytes The size of the events to keep, at least 8 KB.
+     * @throws IllegalArgumentException If the size is smaller than two chunks.
+     */
+    public static void setMaxBytes(int bytes) {
+        if (bytes < 8 * MAX_CHUNK) {
+            throw new IllegalArgumentException("The event log must keep at least " + 8 * MAX_CHUNK / 1024 + " KB");
+        }
+        maxInts = bytes / 4;
+    }
+
+    /**
+     * @param start The state the game starts from, either a new game or a loaded save.
+     */
+    public GameEventLog(GameReplay.State start) {
+        this.start = start;
+        lastTime = start.getLastUpdated();
+    }
+
+    void click(long time) {
+        reserve(time, 1);
+        header(CLICK, time);
+        events++;
+    }
+
+    void clicks(long time, int count) {
+        reserve(time, 2);
+        header(CLICKS, time);
+        current[used++] = count;
+        events++;
+    }
+
+    void buy(long time, int item, long amount) {
+        reserve(time, 4);
+        header(BUY, time);
+        current[used++] = item;
+        current[used++] = (int) (amount >>> 32);
+        current[used++] = (int) amount;
+        events++;
+    }
+
+    void newGame(long time) {
+        reserve(time, 1);
+        header(NEW, time);
+        events++;
+    }
+
+    void quit(long time) {
+        reserve(time, 1);
+        header(QUIT, time);
+        events++;
+    }
+
+    /**
+     * Returns a view of every event so far. The arrays are shared, the log only ever writes past them.
+     */
+    Snapshot snapshot() {
+        // The current chunk's length is still changing, so it's copied
+        int[] snapshotLengths = Arrays.copyOf(lengths, chunkCount);
+        if (chunkCount > 0) {
+            snapshotLengths[chunkCount - 1] = used;
+        }
+        return new Snapshot(start.copy(), Arrays.copyOf(chunks, chunkCount), snapshotLengths, chunkCount, events);
+    }
+
+    /**
+     * Makes room for an event of a certain amount of ints, plus a time event if the delta doesn't fit.
+     */
+    private void reserve(long time, int size) {
+        long delta = time - lastTime;
+        if (delta < 0 || delta > DELTA_MASK) {
+            size += 3;
+        }
+
+        if (current == null || used + size > current.length) {
+            if (totalInts > maxInts) {
+                foldOldest();
+            }
+            newChunk();
+        }
+        totalInts += size;
+
+        if (delta < 0 || delta > DELTA_MASK) {
+            current[used++] = TIME << TYPE_SHIFT;
+            current[used++] = (int) (time >>> 32);
+            current[used++] = (int) time;
+            lastTime = time;
+        }
+    }
+
+    private void header(int type, long time) {
+        current[used++] = (type << TYPE_SHIFT) | (int) (time - lastTime);
+        lastTime = time;
+    }
+
+    private void newChunk() {
+        if (current != null) {
+            lengths[chunkCount - 1] = used;
+        }
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            lengths = Arrays.copyOf(lengths, chunkCount * 2);
+        }
+
+        int size = current == null ? FIRST_CHUNK : Math.min(MAX_CHUNK, current.length * 2);
+        current = new int[size];
+        used = 0;
+        chunks[chunkCount++] = current;
+    }
+
+    /**
+     * Replays the oldest half of the chunks into the starting state, and drops them.
+     */
+    private void foldOldest() {
+        lengths[chunkCount - 1] = used;
+        int fold = chunkCount / 2;
+        GameReplay.State folded = start.copy();
+        long foldedEvents = GameReplay.run(folded, chunks, lengths, 0, fold, Long.MAX_VALUE);
+
+        long foldedInts = 0;
+        for (int i = 0; i < fold; i++) {
+            foldedInts += lengths[i];
+        }
+
+        start = folded;
+        // New arrays, so snapshots that still use the old ones aren't changed
+        chunks = Arrays.copyOfRange(chunks, fold, chunks.length);
+        lengths = Arrays.copyOfRange(lengths, fold, lengths.length);
+        chunkCount -= fold;
+        totalInts -= foldedInts;
+        events -= foldedEvents;
+    }
+}
@@ -0,0 +1,384 @@
+package com.github.AndrewAlbizati;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * All active games, keyed by the Discord id of the user playing them.
+ * Safe to use from the slash command, button, and scheduler threads at the same time.
+ * <p>
+ * Only games that are being played are kept in memory. {@link #evict(int, long, long, LongConsumer)} parks idle games
+ * in the {@link GameStore}, and {@link #load(long)} loads them again the next time they're used. Parked games stay on
+ * the leaderboard. Games that a slow request will still change, e.g. a Discord request, are pinned with
+ * {@link #loadPinned(long)} so they aren't parked in the meantime.
+ * <p>
+ * Games are moved in and out of the store one user at a time, by whichever thread claims the user's placeholder in
+ * {@code moving}. Other threads wait on the placeholder rather than on the map, so a slow disk only holds up the
+ * users whose games are being moved.
+ */
+public class GameRegistry {
+    // Games used more recently than this are never parked, so a thread that just looked one up can still change it
+    private static final long MIN_IDLE_MILLIS = 5000;
+
+    private final ConcurrentHashMap<Long, Game> games = new ConcurrentHashMap<>();
+    // Users whose game is being loaded from, created in, or parked in the store, completed once it's done
+    private final ConcurrentHashMap<Long, CompletableFuture<Void>> moving = new ConcurrentHashMap<>();
+    private final Leaderboard leaderboard = new Leaderboard();
+    // Games whose clicks haven't moved them on the leaderboard yet, see clicked
+    private final ConcurrentLinkedQueue<Game> unranked = new ConcurrentLinkedQueue<>();
+    // Parks and loads idle games, null if every game is kept in memory
+    private final GameStore store;
+
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+
+    /**
+     * Creates a registry that keeps every game in memory.
+     */
+    public GameRegistry() {
+        this(null);
+    }
+
+    /**
+     * @param store The store that idle games are parked in.
+     */
+    public GameRegistry(GameStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Returns the game that a user is playing.
+     * @param userId The Discord id of the user.
+     * @return The user's game, or null if they aren't playing.
+     */
+    public Game get(long userId) {
+        return games.get(userId);
+    }
+
+    /**
+     * Returns the game that a user is playing, loading it first if it's parked. Games that are about to be changed,
+     * e.g. by a click or command, must be looked up with this.
+     * @param userId The Discord id of the user.
+     * @return The user's game, or null if they aren't playing.
+     */
+    public Game load(long userId) {
+        while (true) {
+            Game game = games.get(userId);
+            if (game == null) {
+                if (store == null) {
+                    return null;
+                }
+                CompletableFuture<Void> claim = claim(userId);
+                if (claim == null) {
+                    continue;
+                }
+                try {
+                    game = games.get(userId);
+                    if (game == null) {
+                        game = unpark(userId);
+                        if (game == null) {
+                            return null;
+                        }
+                        games.put(userId, game);
+                    }
+                } finally {
+                    release(userId, claim);
+                }
+            }
+
+            // Parked after it was looked up, its reloaded copy is in the store once the park finishes
+            game.touch(System.currentTimeMillis());
+            if (!game.isParked()) {
+                return game;
+            }
+            awaitMove(userId);
+        }
+    }
+
+    /**
+     * Returns the game that a user is playing, loaded and pinned so that it isn't parked until {@link Game#unpin()},
+     * e.g. while a Discord request whose result will change the game is in flight.
+     * @param userId The Discord id of the user.
+     * @return The user's game, or null if they aren't playing.
+     */
+    public Game loadPinned(long userId) {
+        while (true) {
+            Game game = load(userId);
+            if (game == null) {
+                return null;
+            }
+
+            // Parking checks the pins after marking the game, so if it isn't marked now it won't be
+            game.pin();
+            if (!game.isParked()) {
+                return game;
+            }
+            game.unpin();
+        }
+    }
+
+    /**
+     * Claims a user's placeholder, so that no other thread moves their game in or out of the store until
+     * {@link #release(long, CompletableFuture)}.
+     * @return The claimed placeholder, or null if another thread held it. It was released by the time this returns,
+     *         and the caller should look the game up again.
+     */
+    private CompletableFuture<Void> claim(long userId) {
+        CompletableFuture<Void> claim = new CompletableFuture<>();
+        CompletableFuture<Void> held = moving.putIfAbsent(userId, claim);
+        if (held != null) {
+            held.join();
+            return null;
+        }
+        return claim;
+    }
+
+    private void release(long userId, CompletableFuture<Void> claim) {
+        moving.remove(userId, claim);
+        claim.complete(null);
+    }
+
+    /**
+     * Waits until the game of a user is no longer being moved in or out of the store.
+     */
+    private void awaitMove(long userId) {
+        CompletableFuture<Void> held = moving.get(userId);
+        if (held != null) {
+            held.join();
+        }
+    }
+
+    private Game unpark(long userId) {
+        Game game = store.unpark(userId);
+        if (game != null) {
+            reloads.increment();
+        }
+        return game;
+    }
+
+    public boolean contains(long userId) {
+        return games.containsKey(userId);
+    }
+
+    /**
+     * Atomically starts a game for a user if they aren't already playing one, or don't have a parked game.
+     * @param userId The Discord id of the user.
+     * @param factory Creates the game, only called if the user has no game.
+     * @return The new game, or null if the user already had a game.
+     */
+    public Game create(long userId, Supplier<Game> factory) {
+        while (true) {
+            if (games.containsKey(userId)) {
+                return null;
+            }
+            CompletableFuture<Void> claim = claim(userId);
+            if (claim == null) {
+                continue;
+            }
+
+            Game created;
+            try {
+                if (games.containsKey(userId)) {
+                    return null;
+                }
+                Game parked = store == null ? null : unpark(userId);
+                if (parked != null) {
+                    games.put(userId, parked);
+                    return null;
+                }
+                created = factory.get();
+                games.put(userId, created);
+            } finally {
+                release(userId, claim);
+            }
+            updated(userId, created);
+            return created;
+        }
+    }
+
+    /**
+     * Adds a game that was loaded from a save, replacing any existing game for the user.
+     * @param userId The Discord id of the user.
+     * @param game The loaded game.
+     */
+    public void put(long userId, Game game) {
+        games.put(userId, game);
+        updated(userId, game);
+    }
+
+    /**
+     * Updates a game's place on the leaderboard. Must be called after its cookies or CPS change other than by
+     * production over time, e.g. after a purchase. Clicks use {@link #clicked(Game)} instead.
+     * @param userId The Discord id of the user.
+     * @param game The game that changed.
+     */
+    public void updated(long userId, Game game) {
+        // Checked under the leaderboard's lock so that a game that was just quit isn't added back
+        synchronized (leaderboard) {
+            if (games.get(userId) == game) {
+                leaderboard.update(userId, game);
+            }
+        }
+    }
+
+    /**
+     * Queues a game whose cookies changed by clicks to be moved on the leaderboard by the next
+     * {@link #rankClicked()}, so that clicks never wait for the leaderboard's lock. A game is queued at most once.
+     * @param game The game that was clicked.
+     */
+    public void clicked(Game game) {
+        if (game.markUnranked()) {
+            unranked.add(game);
+        }
+    }
+
+    /**
+     * Moves every game queued by {@link #clicked(Game)} on the leaderboard, holding its lock once for all of them.
+     * Called by the fold tick, and before the leaderboard is read so that it includes the latest clicks.
+     */
+    public void rankClicked() {
+        synchronized (leaderboard) {
+            Game game;
+            while ((game = unranked.poll()) != null) {
+                // Cleared first, so a click from here on queues the game again
+                game.clearUnranked();
+                if (games.get(game.getUserId()) == game) {
+                    leaderboard.update(game.getUserId(), game);
+                }
+            }
+        }
+    }
+
+    /**
+     * Atomically removes a user's game, loading it first if it's parked.
+     * @param userId The Discord id of the user.
+     * @return The removed game, or null if the user wasn't playing.
+     */
+    public Game remove(long userId) {
+        // Can't be parked again before it's removed, since it was just used
+        load(userId);
+        Game game = games.remove(userId);
+        if (game != null) {
+            leaderboard.remove(userId);
+        }
+        return game;
+    }
+
+    /**
+     * Parks games that haven't been used for a while, and then the least recently used games until at most a certain
+     * amount are left in memory. Games used in the last few seconds, pinned games, and games whose message wasn't sent
+     * yet are kept.
+     * @param capacity The most games to keep in memory.
+     * @param idleMillis Games that haven't been used for this long are parked even if there's room for them.
+     * @param now The current time, in milliseconds.
+     * @param onParked Called with the Discord id of the user of every game that was parked.
+     * @return The amount of games that were parked.
+     */
+    public int evict(int capacity, long idleMillis, long now, LongConsumer onParked) {
+        if (store == null) {
+            return 0;
+        }
+
+        long recent = now - MIN_IDLE_MILLIS;
+        long idle = now - idleMillis;
+        List<Game> candidates = new ArrayList<>();
+        for (Game game : games.values()) {
+            if (game.getLastAccessed() < recent && game.hasMessage()) {
+                candidates.add(game);
+            }
+        }
+        // Least recently used first
+        candidates.sort(Comparator.comparingLong(Game::getLastAccessed));
+
+        int parked = 0;
+        int excess = games.size() - capacity;
+        for (Game game : candidates) {
+            if (parked >= excess && game.getLastAccessed() >= idle) {
+                break;
+            }
+            if (park(game.getUserId(), game, recent)) {
+                onParked.accept(game.getUserId());
+                parked++;
+            }
+        }
+        evictions.add(parked);
+        return parked;
+    }
+
+    /**
+     * Parks a game unless it was used since a certain time, which is before any use after it was picked.
+     */
+    private boolean park(long userId, Game game, long idleSince) {
+        // Skipped rather than waited for if the game is being moved, it's picked again next time if it's still idle
+        CompletableFuture<Void> claim = new CompletableFuture<>();
+        if (moving.putIfAbsent(userId, claim) != null) {
+            return false;
+        }
+        try {
+            if (games.get(userId) != game || !game.markParked(idleSince)) {
+                return false;
+            }
+            try {
+                // Clicks deferred by the ClickLimiter are normally added within a second, this catches any left
+                game.addDeferredClicks();
+                // Parked games keep their place, which must include their last clicks
+                if (game.clearUnranked()) {
+                    synchronized (leaderboard) {
+                        leaderboard.update(userId, game);
+                    }
+                }
+                store.park(userId, game);
+            } catch (IOException e) {
+                e.printStackTrace();
+                game.unmarkParked();
+                return false;
+            }
+            // Removed before the claim is released, so a load waiting on it finds the parked copy in the store
+            games.remove(userId, game);
+            return true;
+        } finally {
+            release(userId, claim);
+        }
+    }
+
+    /**
+     * Returns the amount of games that are parked rather than in memory.
+     */
+    public int parkedCount() {
+        return Math.max(0, leaderboard.size() - games.size());
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getReloads() {
+        return reloads.sum();
+    }
+
+    public Set<Long> userIds() {
+        return games.keySet();
+    }
+
+    public Collection<Game> values() {
+        return games.values();
+    }
+
+    public Leaderboard getLeaderboard() {
+        return leaderboard;
+    }
+
+    public int size() {
+        return games.size();
+    }
+}
@@ -0,0 +1,268 @@
+package com.github.AndrewAlbizati;
+
+import java.util.Arrays;
+
+/**
+ * Rebuilds a game's state from its {@link GameEventLog}, e.g. to check a balance a player disputes. Events are
+ * applied with the same arithmetic as {@link Game}, so replaying every event gives exactly the live state.
+ */
+public final class GameReplay {
+    private GameReplay() {
+    }
+
+    /**
+     * The state of a game as of its last event.
+     */
+    public static final class State {
+        private final long userId;
+        private final long startTime;
+        private final long[] owned;
+        // A BigNumber
+        private long cookies;
+        private double cookiesPerSecond;
+        private int purchasesSinceRecompute;
+        private long lastUpdated;
+        private boolean quit;
+
+        private State(long userId, long startTime, long[] owned, long cookies, double cookiesPerSecond,
+                      int purchasesSinceRecompute, long lastUpdated, boolean quit) {
+            this.userId = userId;
+            this.startTime = startTime;
+            this.owned = owned;
+            this.cookies = cookies;
+            this.cookiesPerSecond = cookiesPerSecond;
+            this.purchasesSinceRecompute = purchasesSinceRecompute;
+            this.lastUpdated = lastUpdated;
+            this.quit = quit;
+        }
+
+        /**
+         * The state of a brand-new game.
+         */
+        public static State newGame(long userId, long startTime) {
+            return new State(userId, startTime, new long[Store.SIZE], 0, 0, 0, startTime, false);
+        }
+
+        /**
+         * The state of a game loaded from a save, the same as {@link Game#Game(GameSave)} computes it.
+         */
+        public static State fromSave(GameSave save) {
+            long[] owned = Arrays.copyOf(save.owned(), Store.SIZE);
+            return new State(save.userId(), save.startTime(), owned, save.cookiesBits(), Game.computeCPS(owned), 0,
+                    save.saveTime(), false);
+        }
+
+        State copy() {
+            return new State(userId, startTime, owned.clone(), cookies, cookiesPerSecond, purchasesSinceRecompute,
+                    lastUpdated, quit);
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * Returns the time of the last event, or of the save for a loaded game without events.
+         */
+        public long getLastUpdated() {
+            return lastUpdated;
+        }
+
+        public long getAmountOwned(Items item) {
+            return owned[item.ordinal()];
+        }
+
+        public double getCookiesPerSecond() {
+            return cookiesPerSecond;
+        }
+
+        public boolean isQuit() {
+            return quit;
+        }
+
+        /**
+         * Returns the cookies at a certain time, including production since the last event.
+         * A game that was quit stopped producing.
+         * @param time The time to project to, in milliseconds.
+         * @return The cookies, encoded as the bits of a {@link BigNumber} rather than a count.
+         */
+        public long getProjectedCookiesBits(long time) {
+            if (quit) {
+                return cookies;
+            }
+            return BigNumber.add(cookies, BigNumber.fromDouble(cookiesPerSecond * (time - lastUpdated) / 1000.0));
+        }
+
+        /**
+         * Returns the state as a save made at a certain time.
+         * @param time The time to project cookies to, in milliseconds.
+         */
+        public GameSave toSave(long time) {
+            return new GameSave(userId, 0, startTime, time, getProjectedCookiesBits(time), owned.clone());
+        }
+
+        private void updateCookies(long time) {
+            cookies = getProjectedCookiesBits(time);
+            lastUpdated = time;
+        }
+    }
+
+    /**
+     * The result of checking a game's live state against a replay of its events.
+     * @param userId The Discord id of the user playing the game.
+     * @param time The time both states were projected to.
+     * @param live The game's live state.
+     * @param liveCookiesPerSecond The game's live production.
+     * @param replayed The state rebuilt from the events.
+     * @param events The amount of events that were replayed.
+     */
+    public record Verification(long userId, long time, GameSave live, double liveCookiesPerSecond, State replayed,
+                               long events) {
+        /**
+         * Returns true if the replay owns the same items, and has the same cookies and production up to rounding.
+         * Only explicit calls to {@link Game#updateCookies()} or {@link Game#updateCPS()} round differently.
+         */
+        public boolean matches() {
+            for (Items item : Items.values()) {
+                if (live.owned()[item.ordinal()] != replayed.getAmountOwned(item)) {
+                    return false;
+                }
+            }
+            return close(live.cookiesBits(), replayed.getProjectedCookiesBits(time))
+                    && close(liveCookiesPerSecond, replayed.getCookiesPerSecond());
+        }
+
+        private static boolean close(long a, long b) {
+            long tolerance = BigNumber.multiply(BigNumber.max(BigNumber.ONE, BigNumber.abs(a)), 1e-9);
+            return BigNumber.compare(BigNumber.abs(BigNumber.subtract(a, b)), tolerance) <= 0;
+        }
+
+        private static boolean close(double a, double b) {
+            return Math.abs(a - b) <= 1e-9 * Math.max(1.0, Math.abs(a));
+        }
+
+        @Override
+        public String toString() {
+            return "user " + userId + ": live " + BigNumber.toDouble(live.cookiesBits()) + " cookies at "
+                    + liveCookiesPerSecond + " CPS, replay of " + events + " events "
+                    + BigNumber.toDouble(replayed.getProjectedCookiesBits(time)) + " cookies at "
+                    + replayed.getCookiesPerSecond() + " CPS";
+        }
+    }
+
+    /**
+     * Rebuilds a game's state at a certain time, by applying every event up to and including that time.
+     * Times before the start of the log give the state the log starts from.
+     * @param log The game's events.
+     * @param time The time to stop at, in milliseconds.
+     * @return The state after the last event at or before that time.
+     */
+    public static State replay(GameEventLog.Snapshot log, long time) {
+        State state = log.start().copy();
+        run(state, log.chunks(), log.lengths(), 0, log.chunkCount(), time);
+        return state;
+    }
+
+    /**
+     * Rebuilds a game's state after every event.
+     * @param log The game's events.
+     * @return The state after the last event.
+     */
+    public static State replay(GameEventLog.Snapshot log) {
+        return replay(log, Long.MAX_VALUE);
+    }
+
+    /**
+     * Checks that replaying a game's events gives its live cookies, production, and items.
+     * @param game The game to check.
+     * @return The live and replayed states, see {@link Verification#matches()}.
+     */
+    public static Verification verify(Game game) {
+        long time;
+        GameEventLog.Snapshot log;
+        GameSave live;
+        double liveCookiesPerSecond;
+        synchronized (game) {
+            time = System.currentTimeMillis();
+            log = game.getEvents();
+            live = game.toSave(time);
+            liveCookiesPerSecond = game.getCookiesPerSecond();
+        }
+        return new Verification(game.getUserId(), time, live, liveCookiesPerSecond, replay(log), log.events());
+    }
+
+    /**
+     * Applies the events in a range of chunks to a state, stopping before the first event after a certain time.
+     * @return The amount of events applied.
+     */
+    static long run(State state, int[][] chunks, int[] lengths, int fromChunk, int toChunk, long until) {
+        long applied = 0;
+        long time = state.lastUpdated;
+        for (int c = fromChunk; c < toChunk; c++) {
+            int[] chunk = chunks[c];
+            int length = lengths[c];
+            int i = 0;
+            while (i < length) {
+                int header = chunk[i++];
+                int type = header >>> GameEventLog.TYPE_SHIFT;
+                if (type == GameEventLog.TIME) {
+                    time = ((long) chunk[i] << 32) | (chunk[i + 1] & 0xFFFFFFFFL);
+                    i += 2;
+                    continue;
+                }
+
+                time += header & GameEventLog.DELTA_MASK;
+                if (time > until) {
+                    return applied;
+                }
+
+                switch (type) {
+                    case GameEventLog.CLICK -> {
+                        state.updateCookies(time);
+                        state.cookies = BigNumber.add(state.cookies, BigNumber.ONE);
+                    }
+                    case GameEventLog.CLICKS -> {
+                        state.updateCookies(time);
+                        state.cookies = BigNumber.add(state.cookies, BigNumber.fromDouble(chunk[i++]));
+                    }
+                    case GameEventLog.BUY -> {
+                        int item = chunk[i];
+                        long amount = ((long) chunk[i + 1] << 32) | (chunk[i + 2] & 0xFFFFFFFFL);
+                        i += 3;
+                        buy(state, time, item, amount);
+                    }
+                    case GameEventLog.QUIT -> {
+                        state.updateCookies(time);
+                        state.quit = true;
+                    }
+                    default -> {
+                        // NEW only marks the start of the game, nothing has been produced yet
+                        state.updateCookies(time);
+                    }
+                }
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Applies a purchase the same way {@link Game#buy(Items, long)} does.
+     */
+    private static void buy(State state, long time, int item, long amount) {
+        long cost = PurchaseSolver.cost(Store.getBasePrice(item), state.owned[item], amount);
+        state.updateCookies(time);
+        state.cookies = BigNumber.subtract(state.cookies, cost);
+        state.owned[item] += amount;
+
+        state.cookiesPerSecond += amount * Store.getCPS(item);
+        if (++state.purchasesSinceRecompute >= Game.CPS_RECOMPUTE_INTERVAL) {
+            state.cookiesPerSecond = Game.computeCPS(state.owned);
+            state.purchasesSinceRecompute = 0;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.AndrewAlbizati;
+
+import org.json.simple.JSONObject;
+
+/**
+ * The saved state of a game, without any references to Discord objects.
+ * @param userId The Discord id of the user playing the game.
+ * @param messageId The id of the game's message.
+ * @param startTime The time the game was started at.
+ * @param saveTime The time the game was saved at. Cookies are produced from this time when the game is loaded.
+ * @param cookiesBits The amount of cookies the game had at the save time, encoded as the bits of a {@link BigNumber}
+ *                    rather than a count.
+ * @param owned The amount of each item owned, indexed by Items.ordinal().
+ */
+public record GameSave(long userId, long messageId, long startTime, long saveTime, long cookiesBits, long[] owned) {
+    /**
+     * Converts a game from the old saves.json format.
+     * @param userId The Discord id of the user playing the game.
+     * @param object The JSONObject registered in the saves.json file.
+     * @param saveTime The time at which the JSONObject was saved.
+     * @return The game's save.
+     */
+    public static GameSave fromJSON(long userId, JSONObject object, long saveTime) {
+        long[] owned = new long[Store.SIZE];
+        for (int i = 0; i < Store.SIZE; i++) {
+            // Items added to the store after the game was saved aren't in the save
+            Object amount = object.get(Store.getKey(i));
+            owned[i] = amount == null ? 0 : (long) amount;
+        }
+
+        return new GameSave(userId, (long) object.get("message-id"), (long) object.get("time-started"), saveTime,
+                BigNumber.fromDouble(((Number) object.get("cookies")).doubleValue()), owned);
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.AndrewAlbizati;
+
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where games are kept between restarts. {@link SaveStore} logs every change and keeps games on the heap,
+ * {@link MappedGameStore} keeps games in a memory-mapped {@link GameTable} that they change in place.
+ * <p>
+ * Games that haven't been played for a while are parked, so only the games being played are kept in memory.
+ * A parked game is only kept by the store, until {@link #unpark(long)} loads it again.
+ */
+public interface GameStore {
+    /**
+     * Reads the saved games that were played most recently, and parks the rest.
+     * @param resident The most games to read.
+     * @return The saved games that weren't parked.
+     * @throws IOException If the saves couldn't be read.
+     * @throws ParseException If old saves are being imported and aren't valid JSON.
+     */
+    Collection<Game> loadGames(int resident) throws IOException, ParseException;
+
+    /**
+     * Adds every parked game to a leaderboard, without loading them. Must be called after {@link #loadGames(int)}.
+     * @param leaderboard The leaderboard.
+     */
+    void rankParked(Leaderboard leaderboard);
+
+    /**
+     * Starts saving changes. Must be called after {@link #loadGames(int)}.
+     * @throws IOException If the saves couldn't be opened for writing.
+     */
+    void open() throws IOException;
+
+    /**
+     * Creates a brand-new game, kept wherever this store keeps games.
+     * @param userId The Discord id of the user who the game will be registered for.
+     * @return The game.
+     */
+    Game createGame(long userId);
+
+    /**
+     * Makes a game's current state durable, e.g. after a purchase or when it's created.
+     * @param games All active games, used to skip games that were quit before they could be saved.
+     * @param userId The Discord id of the user playing the game.
+     * @param game The game.
+     * @return A future that completes once the state is durable on disk.
+     */
+    CompletableFuture<Void> logGame(GameRegistry games, long userId, Game game);
+
+    /**
+     * Removes a game from the saves. Must be called after it is removed from the registry, and after
+     * {@link Game#quit()}.
+     * @param userId The Discord id of the user who quit.
+     * @param game The game that was quit.
+     * @return A future that completes once the removal is durable on disk.
+     */
+    CompletableFuture<Void> logQuit(long userId, Game game);
+
+    /**
+     * Parks a game. Called by {@link GameRegistry} while the game is being removed from it, after it was marked as
+     * parked so nothing changes it anymore.
+     * @param userId The Discord id of the user playing the game.
+     * @param game The game.
+     * @throws IOException If the game couldn't be parked, in which case it's kept.
+     */
+    void park(long userId, Game game) throws IOException;
+
+    /**
+     * Loads a parked game, which is no longer parked afterwards. Called by {@link GameRegistry} while the game is
+     * being added to it.
+     * @param userId The Discord id of the user.
+     * @return The game, or null if the user has no parked game.
+     */
+    Game unpark(long userId);
+
+    /**
+     * Makes every game that changed since it was last saved durable.
+     * @param games All active games.
+     * @throws IOException If the saves couldn't be written.
+     */
+    void flush(GameRegistry games) throws IOException;
+
+    /**
+     * Returns the amount of bytes written since the store was created.
+     */
+    long getBytesWritten();
+
+    /**
+     * Returns the amount of bytes that {@link #loadGames(int)} read.
+     */
+    long getBytesLoaded();
+}
@@ -0,0 +1,345 @@
+package com.github.AndrewAlbizati;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A memory-mapped file of fixed-width game records, which games read and write in place (see {@link Game}).
+ * Records are found by user id through a {@link LongIntMap} of slots, and free slots are reused.
+ * <p>
+ * The file is mapped in chunks of {@link #CHUNK_RECORDS} records, so growing it maps another chunk and never moves
+ * a record that a game is using. Writes reach the page cache at once, so they survive the bot crashing. They survive
+ * the machine crashing once they have been forced to disk with {@link #force()}, which is an msync. A record that
+ * was being changed while the machine crashed can be torn.
+ * <p>
+ * Each record holds, in order: user id, message id, start time, last updated time, cookies as of the last updated
+ * time (a {@link BigNumber}), and the amount of each item owned. Slots with a user id of 0 are free.
+ * <p>
+ * Tables of version 1 held cookies as a double, and are converted when they're first opened.
+ */
+public class GameTable implements Closeable {
+    // Offsets within a record
+    static final int USER_ID = 0;
+    static final int MESSAGE_ID = 8;
+    static final int START_TIME = 16;
+    static final int LAST_UPDATED = 24;
+    static final int COOKIES = 32;
+    static final int OWNED = 40;
+
+    public static final int RECORD_SIZE = OWNED + 8 * Store.SIZE;
+
+    // "CCGT", then the version, item count, and record size, so a table from another store.json isn't misread
+    private static final int MAGIC = 0x43434754;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+
+    // 64k records, about 7 MB with 8 items
+    static final int CHUNK_RECORDS = 1 << 16;
+    private static final long CHUNK_SIZE = (long) CHUNK_RECORDS * RECORD_SIZE;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+    private final LongIntMap slots;
+    // Free slots, used as a stack
+    private int[] free = new int[16];
+    private int freeCount;
+
+    private GameTable(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+        slots = new LongIntMap(CHUNK_RECORDS);
+    }
+
+    /**
+     * Opens a table, creating it if it doesn't exist.
+     * @param file The table's file, e.g. saves.table.
+     * @return The table, with every record's slot indexed.
+     * @throws IOException If the file couldn't be mapped, or is a table for another store.json.
+     */
+    public static GameTable open(Path file) throws IOException {
+        if (Files.exists(file) && readVersion(file) == 1) {
+            upgrade(file);
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        GameTable table = new GameTable(file, channel);
+        try {
+            table.readHeader();
+            long records = Math.max(0, channel.size() - HEADER_SIZE) / RECORD_SIZE;
+            int chunkCount = (int) ((records + CHUNK_RECORDS - 1) / CHUNK_RECORDS);
+            for (int i = 0; i < Math.max(1, chunkCount); i++) {
+                table.mapChunk();
+            }
+            table.index();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return table;
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (channel.size() == 0) {
+            header.putInt(MAGIC).putInt(VERSION).putInt(Store.SIZE).putInt(RECORD_SIZE);
+            header.clear();
+            channel.write(header, 0);
+            channel.force(true);
+            SaveStore.syncDirectory(file);
+            return;
+        }
+
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < 16 || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException(file + " isn't a game table");
+        }
+        int items = header.getInt();
+        int recordSize = header.getInt();
+        if (items != Store.SIZE || recordSize != RECORD_SIZE) {
+            throw new IOException(file + " was written with " + items + " items, but the store has " + Store.SIZE);
+        }
+    }
+
+    /**
+     * Returns the version of an existing table, or 0 if it isn't one.
+     */
+    private static int readVersion(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            channel.read(header, 0);
+            header.flip();
+            return header.remaining() == 8 && header.getInt() == MAGIC ? header.getInt() : 0;
+        }
+    }
+
+    /**
+     * Converts a version 1 table, whose records hold cookies as a double, to the current version. The table is
+     * converted in a copy that then replaces it, so a crash leaves either table whole.
+     */
+    private static void upgrade(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".upgrade");
+        Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long records = Math.max(0, channel.size() - HEADER_SIZE) / RECORD_SIZE;
+            for (long first = 0; first < records; first += CHUNK_RECORDS) {
+                int count = (int) Math.min(CHUNK_RECORDS, records - first);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE,
+                        HEADER_SIZE + first * RECORD_SIZE, (long) count * RECORD_SIZE);
+                for (int i = 0; i < count; i++) {
+                    int offset = i * RECORD_SIZE;
+                    if (chunk.getLong(offset + USER_ID) != 0) {
+                        chunk.putLong(offset + COOKIES, BigNumber.fromDouble(chunk.getDouble(offset + COOKIES)));
+                    }
+                }
+                chunk.force();
+            }
+
+            channel.write(ByteBuffer.allocate(4).putInt(0, VERSION), 4);
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        SaveStore.syncDirectory(file);
+        System.out.println("Converted " + file + " to version " + VERSION);
+    }
+
+    private void mapChunk() throws IOException {
+        // Mapping past the end of the file grows it
+        chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + chunks.size() * CHUNK_SIZE, CHUNK_SIZE));
+    }
+
+    /**
+     * Indexes every used slot, and frees the older record of any user that has two, e.g. after a crash between a
+     * user quitting and starting a new game.
+     */
+    private void index() {
+        int capacity = chunks.size() * CHUNK_RECORDS;
+        for (int slot = capacity - 1; slot >= 0; slot--) {
+            ByteBuffer chunk = chunks.get(slot / CHUNK_RECORDS);
+            int offset = (slot % CHUNK_RECORDS) * RECORD_SIZE;
+            long userId = chunk.getLong(offset + USER_ID);
+            if (userId == 0) {
+                pushFree(slot);
+                continue;
+            }
+
+            int other = slots.get(userId, -1);
+            if (other == -1) {
+                slots.put(userId, slot);
+            } else if (chunk.getLong(offset + START_TIME) > startTime(other)) {
+                clear(other);
+                pushFree(other);
+                slots.put(userId, slot);
+            } else {
+                clear(slot);
+                pushFree(slot);
+            }
+        }
+    }
+
+    private long startTime(int slot) {
+        return chunks.get(slot / CHUNK_RECORDS).getLong((slot % CHUNK_RECORDS) * RECORD_SIZE + START_TIME);
+    }
+
+    /**
+     * Returns a view of a slot's record. Views of the same slot share memory, and stay valid as the table grows.
+     * @param slot The slot.
+     * @return A buffer of {@link #RECORD_SIZE} bytes, read and written with absolute gets and puts.
+     */
+    public synchronized ByteBuffer record(int slot) {
+        return chunks.get(slot / CHUNK_RECORDS).slice((slot % CHUNK_RECORDS) * RECORD_SIZE, RECORD_SIZE);
+    }
+
+    /**
+     * Returns the slot of a user's record.
+     * @param userId The Discord id of the user.
+     * @return The slot, or -1 if the user has no record.
+     */
+    public synchronized int slot(long userId) {
+        return slots.get(userId, -1);
+    }
+
+    /**
+     * Returns every used slot.
+     */
+    public synchronized int[] usedSlots() {
+        int[] used = new int[slots.size()];
+        int count = 0;
+        int capacity = chunks.size() * CHUNK_RECORDS;
+        for (int slot = 0; slot < capacity && count < used.length; slot++) {
+            if (chunks.get(slot / CHUNK_RECORDS).getLong((slot % CHUNK_RECORDS) * RECORD_SIZE + USER_ID) != 0) {
+                used[count++] = slot;
+            }
+        }
+        return count == used.length ? used : Arrays.copyOf(used, count);
+    }
+
+    /**
+     * Takes a free slot for a user, growing the table if there are none. If the user already has a record, e.g.
+     * one that is about to be freed after they quit, lookups find the new one from now on.
+     * @param userId The Discord id of the user.
+     * @return The slot, with every field but the user id set to 0.
+     * @throws IOException If the table couldn't grow.
+     */
+    public synchronized int allocate(long userId) throws IOException {
+        if (freeCount == 0) {
+            int first = chunks.size() * CHUNK_RECORDS;
+            mapChunk();
+            for (int slot = first + CHUNK_RECORDS - 1; slot >= first; slot--) {
+                pushFree(slot);
+            }
+        }
+
+        int slot = free[--freeCount];
+        ByteBuffer record = record(slot);
+        for (int offset = 0; offset < RECORD_SIZE; offset += 8) {
+            record.putLong(offset, 0);
+        }
+        record.putLong(USER_ID, userId);
+        slots.put(userId, slot);
+        return slot;
+    }
+
+    /**
+     * Frees a user's record. Does nothing to the user's current record if it's in another slot.
+     * @param userId The Discord id of the user.
+     * @param slot The slot of the record to free.
+     */
+    public synchronized void free(long userId, int slot) {
+        if (slots.get(userId, -1) == slot) {
+            slots.remove(userId);
+        }
+        clear(slot);
+        pushFree(slot);
+    }
+
+    private void clear(int slot) {
+        chunks.get(slot / CHUNK_RECORDS).putLong((slot % CHUNK_RECORDS) * RECORD_SIZE + USER_ID, 0);
+    }
+
+    private void pushFree(int slot) {
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCount++] = slot;
+    }
+
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     * Returns the size of the file, in bytes.
+     */
+    public synchronized long sizeInBytes() {
+        return HEADER_SIZE + chunks.size() * CHUNK_SIZE;
+    }
+
+    /**
+     * Writes every changed page of the table to disk.
+     */
+    public void force() {
+        List<MappedByteBuffer> mapped;
+        synchronized (this) {
+            mapped = new ArrayList<>(chunks);
+        }
+        for (MappedByteBuffer chunk : mapped) {
+            chunk.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    /**
+     * Writes a save into a record.
+     * @param record A record, e.g. from {@link #record(int)} or {@link #newRecord()}.
+     * @param save The save.
+     */
+    public static void write(ByteBuffer record, GameSave save) {
+        record.putLong(USER_ID, save.userId());
+        record.putLong(MESSAGE_ID, save.messageId());
+        record.putLong(START_TIME, save.startTime());
+        record.putLong(LAST_UPDATED, save.saveTime());
+        record.putLong(COOKIES, save.cookiesBits());
+        for (int i = 0; i < Store.SIZE; i++) {
+            record.putLong(OWNED + 8 * i, save.owned()[i]);
+        }
+    }
+
+    /**
+     * Reads a record into a save.
+     * @param record A record, e.g. from {@link #record(int)}.
+     * @return The save, as of the record's last updated time.
+     */
+    public static GameSave read(ByteBuffer record) {
+        long[] owned = new long[Store.SIZE];
+        for (int i = 0; i < Store.SIZE; i++) {
+            owned[i] = record.getLong(OWNED + 8 * i);
+        }
+        return new GameSave(record.getLong(USER_ID), record.getLong(MESSAGE_ID), record.getLong(START_TIME),
+                record.getLong(LAST_UPDATED), record.getLong(COOKIES), owned);
+    }
+
+    /**
+     * Returns a record that isn't in any table, for a game that is only kept on the heap.
+     */
+    public static ByteBuffer newRecord() {
+        return ByteBuffer.allocate(RECORD_SIZE);
+    }
+}
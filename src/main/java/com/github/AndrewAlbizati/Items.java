@@ -3,31 +3,38 @@ package com.github.AndrewAlbizati;
 public enum Items {
     CURSOR, GRANDMA, FACTORY, MINE, SHIPMENT, ALCHEMY_LAB, PORTAL, TIME_MACHINE;
 
+    // Display name, computed once since toString is called on every render
+    private final String displayName = capitalize(name());
+
     public String toString() {
-        return capitalize(this.name().replaceAll("_", " "));
+        return displayName;
     }
 
+    /**
+     * Converts an enum name to a display name, e.g. ALCHEMY_LAB to Alchemy Lab.
+     */
     private static String capitalize(String s) {
-        StringBuilder sb = new StringBuilder();
-        for (String s1 : s.split(" ")) {
-            sb.append(s1.substring(0, 1).toUpperCase());
-            sb.append(s1.substring(1).toLowerCase());
-            sb.append(" ");
+        StringBuilder sb = new StringBuilder(s.length());
+        boolean wordStart = true;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '_') {
+                sb.append(' ');
+                wordStart = true;
+            } else {
+                sb.append(wordStart ? Character.toUpperCase(c) : Character.toLowerCase(c));
+                wordStart = false;
+            }
         }
-        return sb.substring(0, sb.length() - 1);
+        return sb.toString();
     }
 
     public static Items stringToItem(String item) {
-        return switch (item.toLowerCase()) {
-            case "cursor" -> CURSOR;
-            case "grandma" -> GRANDMA;
-            case "factory" -> FACTORY;
-            case "mine" -> MINE;
-            case "shipment" -> SHIPMENT;
-            case "alchemy lab" -> ALCHEMY_LAB;
-            case "portal" -> PORTAL;
-            case "time machine" -> TIME_MACHINE;
-            default -> null;
-        };
+        for (Items i : values()) {
+            if (i.toString().equalsIgnoreCase(item)) {
+                return i;
+            }
+        }
+        return null;
     }
 }
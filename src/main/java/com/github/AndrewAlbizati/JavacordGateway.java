@@ -0,0 +1,147 @@
+package com.github.AndrewAlbizati;
+
+import org.javacord.api.DiscordApi;
+import org.javacord.api.entity.message.Message;
+import org.javacord.api.entity.message.component.ActionRow;
+import org.javacord.api.entity.message.component.Button;
+import org.javacord.api.entity.message.embed.EmbedBuilder;
+import org.javacord.api.entity.user.User;
+import org.javacord.api.interaction.SlashCommandInteraction;
+import org.javacord.api.interaction.SlashCommandInteractionOption;
+import org.javacord.api.interaction.callback.InteractionCallbackDataFlag;
+import org.javacord.api.interaction.callback.InteractionOriginalResponseUpdater;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The gateway used in production, backed by Javacord. Users and messages are looked up through a
+ * {@link DiscordResolver} the first time they're needed.
+ */
+public class JavacordGateway implements DiscordGateway {
+    private final DiscordResolver resolver;
+
+    /**
+     * @param api The logged in DiscordApi.
+     * @param maxConcurrentLookups The maximum amount of user and message lookups that can run at once.
+     * @param cacheCapacity The most users, and the most game messages, that are cached at once.
+     */
+    public JavacordGateway(DiscordApi api, int maxConcurrentLookups, int cacheCapacity) {
+        resolver = new DiscordResolver(api, maxConcurrentLookups, cacheCapacity);
+    }
+
+    /**
+     * Caches a user that Javacord already has, e.g. from an interaction, so they don't need to be looked up.
+     * @param user The user.
+     */
+    public void remember(User user) {
+        resolver.remember(user);
+    }
+
+    /**
+     * Wraps a Javacord slash command interaction, and remembers the user who called it.
+     * @param interaction The interaction.
+     * @return The interaction for {@link Commands}.
+     */
+    public CommandInteraction wrap(SlashCommandInteraction interaction) {
+        remember(interaction.getUser());
+        return new JavacordCommandInteraction(interaction);
+    }
+
+    @Override
+    public CompletableFuture<Long> sendGameMessage(long userId, EmbedBuilder embed) {
+        return resolver.user(userId)
+                .thenCompose(user -> user.sendMessage(embed, ActionRow.of(Button.primary("click", "\uD83C\uDF6A"))))
+                .thenApply(message -> {
+                    resolver.remember(userId, message);
+                    return message.getId();
+                });
+    }
+
+    @Override
+    public CompletableFuture<Void> editMessage(long userId, long messageId, EmbedBuilder embed) {
+        return resolver.message(userId, messageId).thenCompose(message -> message.edit(embed)).thenApply(message -> null);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteMessage(long userId, long messageId) {
+        return resolver.message(userId, messageId).thenCompose(Message::delete)
+                .whenComplete((v, e) -> resolver.forgetMessage(userId, messageId));
+    }
+
+    @Override
+    public void forget(long userId) {
+        resolver.forget(userId);
+    }
+
+    @Override
+    public CompletableFuture<String> getUserName(long userId) {
+        return resolver.user(userId).thenApply(User::getDiscriminatedName);
+    }
+
+    private static class JavacordCommandInteraction implements CommandInteraction {
+        private final SlashCommandInteraction interaction;
+        // Set once the response has been deferred, responses then update the original response instead
+        private volatile CompletableFuture<InteractionOriginalResponseUpdater> deferred;
+
+        private JavacordCommandInteraction(SlashCommandInteraction interaction) {
+            this.interaction = interaction;
+        }
+
+        @Override
+        public long getUserId() {
+            return interaction.getUser().getId();
+        }
+
+        @Override
+        public Map<String, Object> getOptions() {
+            Map<String, Object> options = new HashMap<>();
+            for (SlashCommandInteractionOption option : interaction.getOptions()) {
+                option.getStringValue().ifPresent(value -> options.put(option.getName(), value));
+                option.getLongValue().ifPresent(value -> options.put(option.getName(), value));
+            }
+            return options;
+        }
+
+        @Override
+        public Optional<String> getStringOption(String name) {
+            return interaction.getOptionStringValueByName(name);
+        }
+
+        @Override
+        public Optional<Long> getLongOption(String name) {
+            return interaction.getOptionLongValueByName(name);
+        }
+
+        @Override
+        public CompletableFuture<Void> respondLater(boolean ephemeral) {
+            deferred = interaction.respondLater(ephemeral);
+            return deferred.thenApply(updater -> null);
+        }
+
+        @Override
+        public CompletableFuture<Void> respond(String content) {
+            if (deferred != null) {
+                return deferred.thenCompose(updater -> updater.setContent(content).update()).thenApply(message -> null);
+            }
+
+            return interaction.createImmediateResponder()
+                    .setContent(content)
+                    .setFlags(InteractionCallbackDataFlag.EPHEMERAL)
+                    .respond().thenApply(updater -> null);
+        }
+
+        @Override
+        public CompletableFuture<Void> respond(EmbedBuilder embed) {
+            if (deferred != null) {
+                return deferred.thenCompose(updater -> updater.addEmbed(embed).update()).thenApply(message -> null);
+            }
+
+            return interaction.createImmediateResponder()
+                    .addEmbed(embed)
+                    .respond().thenApply(updater -> null);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.AndrewAlbizati;
+
+import org.json.simple.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram of latencies in microseconds that can be recorded into from many threads without locking.
+ * Every power of two is split into 64 buckets, so a percentile is off by at most about 1.6%.
+ * Recording doesn't allocate, so it can be done on every click.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Enough for latencies up to 2^40 microseconds, about 12 days
+    private static final int MAGNITUDES = 40 - SUB_BUCKET_BITS + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAGNITUDES + 1) * SUB_BUCKETS);
+    // Exact total of every recorded latency, which the buckets only approximate
+    private final LongAdder sum = new LongAdder();
+
+    public void recordNanos(long nanos) {
+        record(Math.max(0, nanos / 1000));
+    }
+
+    /**
+     * @param micros The latency in microseconds.
+     */
+    public void record(long micros) {
+        counts.incrementAndGet(index(micros));
+        sum.add(micros);
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // Values in [2^k, 2^(k+1)) keep their top SUB_BUCKET_BITS + 1 bits
+        int magnitude = Math.min(63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1, MAGNITUDES);
+        int subBucket = (int) (value >>> (magnitude - 1)) - SUB_BUCKETS;
+        return magnitude * SUB_BUCKETS + Math.min(subBucket, SUB_BUCKETS - 1);
+    }
+
+    /**
+     * Returns the highest value that lands in a bucket.
+     */
+    private static long highestValue(int index) {
+        int magnitude = index / SUB_BUCKETS;
+        int subBucket = index % SUB_BUCKETS;
+        if (magnitude == 0) {
+            return subBucket;
+        }
+        return (((long) (subBucket + SUB_BUCKETS + 1)) << (magnitude - 1)) - 1;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the latency that the given fraction of recorded latencies are at or below, in microseconds.
+     * @param quantile The fraction, e.g. 0.99.
+     */
+    public long getValueAtQuantile(double quantile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return highestValue(i);
+            }
+        }
+        return highestValue(counts.length() - 1);
+    }
+
+    /**
+     * Returns the total of every recorded latency, in microseconds.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        for (int i = counts.length() - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) {
+                return highestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the count and percentiles, in microseconds, as a JSON object.
+     */
+    public JSONObject toJSONObject() {
+        JSONObject object = new JSONObject();
+        object.put("count", getCount());
+        object.put("p50-us", getValueAtQuantile(0.5));
+        object.put("p99-us", getValueAtQuantile(0.99));
+        object.put("p999-us", getValueAtQuantile(0.999));
+        object.put("max-us", getMax());
+        return object;
+    }
+}
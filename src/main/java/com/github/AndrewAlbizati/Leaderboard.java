@@ -0,0 +1,429 @@
+package com.github.AndrewAlbizati;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Ranks games by their projected cookies (stored cookies + CPS * elapsed time) without sorting every game per query.
+ * <p>
+ * Each game is stored in a treap ordered by its projected cookies at an anchor time. A game's cookies at a later
+ * time are its key plus CPS * (time - anchor), so every subtree keeps its size, smallest and largest key, and
+ * highest CPS. Those give upper and lower bounds on the cookies of every game in the subtree, which lets top-K and
+ * rank queries skip whole subtrees. {@link #reanchor(long)} moves the anchor forward every few minutes so that the
+ * bounds stay tight, queries never do that themselves.
+ * <p>
+ * Cookies are ranked as {@link BigNumber}s, so games past Double.MAX_VALUE cookies are still told apart. Keys and
+ * bounds can be negative, e.g. for a game saved after the anchor, and are compared with {@link BigNumber#compare}.
+ */
+public class Leaderboard {
+    // Returned for games that aren't on the leaderboard, negative zero is never a BigNumber
+    public static final long NOT_RANKED = Long.MIN_VALUE;
+
+    private final HashMap<Long, Node> nodes = new HashMap<>();
+    private Node root;
+    private long anchor;
+    // Nodes added while reanchor is sorting, which aren't in its copy, null the rest of the time
+    private List<Node> addedWhileReanchoring;
+    // Only one reanchor runs at a time, since it reads keys without the leaderboard's lock
+    private final Object reanchorLock = new Object();
+
+    /**
+     * A ranked game and its projected cookies at the time of the query.
+     * @param userId The Discord id of the user playing the game.
+     * @param cookiesBits The cookies, as a {@link BigNumber}.
+     */
+    public record Entry(long userId, long cookiesBits) {
+    }
+
+    private static final class Node {
+        private final long userId;
+        private int priority;
+        // Projected cookies at the anchor, as a BigNumber
+        private long key;
+        private final double cps;
+
+        private Node left;
+        private Node right;
+        private int size;
+        private long minKey;
+        private long maxKey;
+        private double maxCps;
+
+        private Node(long userId, long key, double cps) {
+            this.userId = userId;
+            this.key = key;
+            this.cps = cps;
+            priority = ThreadLocalRandom.current().nextInt();
+        }
+
+        private long score(double elapsed) {
+            return BigNumber.add(key, BigNumber.fromDouble(cps * elapsed));
+        }
+
+        /**
+         * Returns the most cookies any game in the subtree can have.
+         */
+        private long upperBound(double elapsed) {
+            return BigNumber.add(maxKey, BigNumber.fromDouble(maxCps * elapsed));
+        }
+    }
+
+    public Leaderboard() {
+        anchor = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds a game to the leaderboard, or moves it if its cookies or CPS have changed.
+     * @param userId The Discord id of the user playing the game.
+     * @param game The game.
+     */
+    public synchronized void update(long userId, Game game) {
+        Node node;
+        synchronized (game) {
+            node = new Node(userId, game.getProjectedCookiesBits(anchor), game.getCookiesPerSecond());
+        }
+
+        replace(userId, node);
+    }
+
+    /**
+     * Adds a game that isn't loaded to the leaderboard, or moves it, e.g. a parked game.
+     * @param userId The Discord id of the user playing the game.
+     * @param cookiesBits The game's cookies at a certain time, as a {@link BigNumber}.
+     * @param time The time of the cookies, in milliseconds.
+     * @param cps The game's cookies per second.
+     */
+    public synchronized void update(long userId, long cookiesBits, long time, double cps) {
+        long key = BigNumber.add(cookiesBits, BigNumber.fromDouble(cps * (anchor - time) / 1000.0));
+        replace(userId, new Node(userId, key, cps));
+    }
+
+    private void replace(long userId, Node node) {
+        if (addedWhileReanchoring != null) {
+            addedWhileReanchoring.add(node);
+        }
+        Node old = nodes.put(userId, node);
+        if (old != null) {
+            root = delete(root, old);
+        }
+        root = insert(root, node);
+    }
+
+    /**
+     * Removes a game from the leaderboard.
+     * @param userId The Discord id of the user playing the game.
+     */
+    public synchronized void remove(long userId) {
+        Node old = nodes.remove(userId);
+        if (old != null) {
+            root = delete(root, old);
+        }
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Returns the games with the most projected cookies.
+     * @param k The maximum amount of games to return.
+     * @param time The time to project cookies to, in milliseconds.
+     * @return Up to k games, most cookies first.
+     */
+    public synchronized List<Entry> top(int k, long time) {
+        double elapsed = elapsedSeconds(time);
+
+        // Best-first search: subtrees are ordered by the most cookies any of their games could have,
+        // single nodes by their exact cookies, so nodes come out in order
+        PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        List<Entry> entries = new ArrayList<>(k);
+        if (root != null) {
+            queue.add(new Candidate(root, false, root.upperBound(elapsed)));
+        }
+
+        while (!queue.isEmpty() && entries.size() < k) {
+            Candidate candidate = queue.poll();
+            Node node = candidate.node;
+            if (candidate.single) {
+                entries.add(new Entry(node.userId, candidate.bound));
+                continue;
+            }
+
+            queue.add(new Candidate(node, true, node.score(elapsed)));
+            if (node.left != null) {
+                queue.add(new Candidate(node.left, false, node.left.upperBound(elapsed)));
+            }
+            if (node.right != null) {
+                queue.add(new Candidate(node.right, false, node.right.upperBound(elapsed)));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Returns a game's place on the leaderboard.
+     * @param userId The Discord id of the user playing the game.
+     * @param time The time to project cookies to, in milliseconds.
+     * @return The game's place, starting at 1, or 0 if the game isn't on the leaderboard.
+     */
+    public synchronized int rank(long userId, long time) {
+        Node node = nodes.get(userId);
+        if (node == null) {
+            return 0;
+        }
+
+        double elapsed = elapsedSeconds(time);
+        return countAbove(root, node.score(elapsed), elapsed) + 1;
+    }
+
+    /**
+     * Returns a game's cookies as the leaderboard sees them, so they can be ranked on other shards' leaderboards.
+     * @param userId The Discord id of the user playing the game.
+     * @param time The time to project cookies to, in milliseconds.
+     * @return The game's projected cookies as a {@link BigNumber}, or {@link #NOT_RANKED} if the game isn't on the
+     *         leaderboard.
+     */
+    public synchronized long getCookiesBits(long userId, long time) {
+        Node node = nodes.get(userId);
+        return node == null ? NOT_RANKED : node.score(elapsedSeconds(time));
+    }
+
+    /**
+     * Counts the games with more cookies than a game on another shard.
+     * @param cookiesBits The other game's cookies as a {@link BigNumber}, see {@link #getCookiesBits(long, long)}.
+     * @param time The time to project cookies to, in milliseconds.
+     * @return The amount of games with more cookies.
+     */
+    public synchronized int countAbove(long cookiesBits, long time) {
+        return countAbove(root, cookiesBits, elapsedSeconds(time));
+    }
+
+    private record Candidate(Node node, boolean single, long bound) implements Comparable<Candidate> {
+        @Override
+        public int compareTo(Candidate other) {
+            return BigNumber.compare(other.bound, bound);
+        }
+    }
+
+    /**
+     * Counts the games in a subtree with more cookies than a score.
+     * A game's cookies are at least its key and at most its key plus the subtree's highest CPS * elapsed.
+     */
+    private static int countAbove(Node node, long score, double elapsed) {
+        if (node == null || BigNumber.compare(node.upperBound(elapsed), score) <= 0) {
+            return 0;
+        }
+        if (BigNumber.compare(node.minKey, score) > 0) {
+            return node.size;
+        }
+        return (BigNumber.compare(node.score(elapsed), score) > 0 ? 1 : 0)
+                + countAbove(node.left, score, elapsed)
+                + countAbove(node.right, score, elapsed);
+    }
+
+    private double elapsedSeconds(long time) {
+        return Math.max(0, time - anchor) / 1000.0;
+    }
+
+    /**
+     * Moves the anchor forward, projecting every key to a new time, so that the bounds of every subtree stay tight.
+     * The keys are sorted without the leaderboard's lock, so queries and updates only wait for the tree to be rebuilt.
+     * Called every few minutes, off the query path.
+     * @param time The new anchor, in milliseconds.
+     */
+    public void reanchor(long time) {
+        synchronized (reanchorLock) {
+            Node[] sorted;
+            double elapsed;
+            synchronized (this) {
+                if (time <= anchor) {
+                    return;
+                }
+                sorted = nodes.values().toArray(new Node[0]);
+                elapsed = elapsedSeconds(time);
+                addedWhileReanchoring = new ArrayList<>();
+            }
+
+            // Keys are only changed below, by this thread
+            Arrays.sort(sorted, (a, b) -> {
+                int c = BigNumber.compare(a.score(elapsed), b.score(elapsed));
+                return c != 0 ? c : Long.compare(a.userId, b.userId);
+            });
+
+            synchronized (this) {
+                // Games that were moved or removed while sorting have been replaced in the map
+                int kept = 0;
+                for (Node node : sorted) {
+                    if (nodes.get(node.userId) == node) {
+                        node.key = node.score(elapsed);
+                        sorted[kept++] = node;
+                    }
+                }
+                root = build(sorted, 0, kept);
+                assignPriorities(root, kept);
+
+                for (Node node : addedWhileReanchoring) {
+                    if (nodes.get(node.userId) == node) {
+                        node.key = node.score(elapsed);
+                        root = insert(root, node);
+                    }
+                }
+                addedWhileReanchoring = null;
+                anchor = time;
+            }
+        }
+    }
+
+    /**
+     * Builds a balanced tree out of nodes sorted by key.
+     */
+    private static Node build(Node[] sorted, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+
+        int mid = (from + to) >>> 1;
+        Node node = sorted[mid];
+        node.left = build(sorted, from, mid);
+        node.right = build(sorted, mid + 1, to);
+        update(node);
+        return node;
+    }
+
+    /**
+     * Gives a balanced tree fresh random priorities, highest first in breadth-first order, so that every parent
+     * outranks its children and the tree stays a valid treap.
+     */
+    private static void assignPriorities(Node root, int size) {
+        if (root == null) {
+            return;
+        }
+
+        int[] priorities = new int[size];
+        for (int i = 0; i < size; i++) {
+            priorities[i] = ThreadLocalRandom.current().nextInt();
+        }
+        Arrays.sort(priorities);
+
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        queue.add(root);
+        int next = size;
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            node.priority = priorities[--next];
+            if (node.left != null) {
+                queue.add(node.left);
+            }
+            if (node.right != null) {
+                queue.add(node.right);
+            }
+        }
+    }
+
+    private static int compare(Node a, Node b) {
+        int c = BigNumber.compare(a.key, b.key);
+        return c != 0 ? c : Long.compare(a.userId, b.userId);
+    }
+
+    private static Node insert(Node node, Node added) {
+        if (node == null) {
+            added.left = null;
+            added.right = null;
+            update(added);
+            return added;
+        }
+
+        if (compare(added, node) < 0) {
+            node.left = insert(node.left, added);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, added);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        update(node);
+        return node;
+    }
+
+    private static Node delete(Node node, Node removed) {
+        if (node == null) {
+            return null;
+        }
+
+        if (node == removed) {
+            return merge(node.left, node.right);
+        }
+        if (compare(removed, node) < 0) {
+            node.left = delete(node.left, removed);
+        } else {
+            node.right = delete(node.right, removed);
+        }
+        update(node);
+        return node;
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    /**
+     * Recomputes a node's subtree size, key range, and highest CPS from its children.
+     */
+    private static void update(Node node) {
+        node.size = 1;
+        node.minKey = node.key;
+        node.maxKey = node.key;
+        node.maxCps = node.cps;
+
+        if (node.left != null) {
+            node.size += node.left.size;
+            node.minKey = node.left.minKey;
+            node.maxCps = Math.max(node.maxCps, node.left.maxCps);
+        }
+        if (node.right != null) {
+            node.size += node.right.size;
+            node.maxKey = node.right.maxKey;
+            node.maxCps = Math.max(node.maxCps, node.right.maxCps);
+        }
+    }
+}
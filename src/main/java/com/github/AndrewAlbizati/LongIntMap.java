@@ -0,0 +1,129 @@
+package com.github.AndrewAlbizati;
+
+/**
+ * A map from long keys to int values, with open addressing and linear probing over two primitive arrays, so entries
+ * don't box or allocate. Not thread safe. Key 0 is reserved for empty slots, which Discord ids never are.
+ */
+public final class LongIntMap {
+    private static final long EMPTY = 0;
+    // Resized once more than 3/4 of the slots are used
+    private static final int LOAD_NUMERATOR = 3;
+    private static final int LOAD_DENOMINATOR = 4;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    /**
+     * @param expected The amount of entries to make room for.
+     */
+    public LongIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * LOAD_DENOMINATOR / LOAD_NUMERATOR) * 2 - 1);
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Returns the value of a key.
+     * @param key The key, not 0.
+     * @param missing The value to return if the key isn't in the map.
+     * @return The value, or missing.
+     */
+    public int get(long key, int missing) {
+        for (int i = index(key); ; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            if (keys[i] == EMPTY) {
+                return missing;
+            }
+        }
+    }
+
+    /**
+     * Sets the value of a key.
+     * @param key The key, not 0.
+     * @param value The value.
+     */
+    public void put(long key, int value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("0 can't be a key");
+        }
+
+        int i = index(key);
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == EMPTY) {
+            keys[i] = key;
+            if (++size * LOAD_DENOMINATOR > keys.length * LOAD_NUMERATOR) {
+                values[i] = value;
+                resize();
+                return;
+            }
+        }
+        values[i] = value;
+    }
+
+    /**
+     * Removes a key. Later entries of the same probe sequence are moved back, so lookups never need tombstones.
+     * @param key The key.
+     * @return True if the key was in the map.
+     */
+    public boolean remove(long key) {
+        int i = index(key);
+        while (keys[i] != key) {
+            if (keys[i] == EMPTY) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+
+        // Move back any entry that would no longer be found past the gap
+        int gap = i;
+        for (int j = (gap + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = index(keys[j]);
+            // The entry can fill the gap if its home isn't cyclically in (gap, j]
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        keys[gap] = EMPTY;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int j = index(oldKeys[i]);
+                while (keys[j] != EMPTY) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the first slot to probe for a key. Discord ids are mostly a timestamp, so they're mixed first.
+     */
+    private int index(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -4,11 +4,43 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 
 public class Main {
+    // Default minimum time between two edits of the same game message
+    private static final long DEFAULT_EDIT_INTERVAL = 1000;
+    private static final int DEFAULT_RESIDENT_GAMES = 10000;
+    private static final long DEFAULT_IDLE_MINUTES = 60;
+    // Default clicks per second handled in full, for each user and for every user together
+    private static final int DEFAULT_CLICK_RATE = 10;
+    private static final int DEFAULT_CLICK_BURST = 20;
+    private static final int DEFAULT_GLOBAL_CLICK_RATE = 2000;
+    // Users whose click limits are tracked at once
+    private static final int CLICK_LIMITER_CAPACITY = 65536;
+
     public static void main(String[] args) {
+        // Move saved games between shards, e.g. "rebalance 4"
+        if (args.length == 2 && args[0].equals("rebalance")) {
+            try {
+                Rebalancer.rebalance(Integer.parseInt(args[1]));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
         String token;
+        long editInterval;
+        ShardMap shards;
+        List<String> shardAddresses;
+        String shardSecret;
+        int metricsPort;
+        boolean mappedStorage;
+        int residentGames;
+        long idleMinutes;
+        ClickLimiter clickLimiter;
 
         // Get token from config.properties
         try {
@@ -34,22 +66,82 @@ public class Main {
                 throw new NullPointerException("Please add the bot's token to config.properties");
             }
 
-            // Create saves.json
-            File saves = new File("saves.json");
-            if (saves.createNewFile()) {
-                FileWriter writer = new FileWriter("saves.json");
-                writer.write("{}"); // Empty JSON object
-                writer.close();
-                System.out.println(saves.getName() + " has been created");
+            // Get the minimum time between message edits (optional)
+            editInterval = Long.parseLong(prop.getProperty("edit-interval", String.valueOf(DEFAULT_EDIT_INTERVAL)));
+
+            // Get this process's shard, and the address of every shard in order (optional)
+            // e.g. shard-id=1, shard-count=2, shard-peers=10.0.0.1:8090,10.0.0.2:8090
+            int shardCount = Integer.parseInt(prop.getProperty("shard-count", "1"));
+            shards = new ShardMap(Integer.parseInt(prop.getProperty("shard-id", "0")), shardCount);
+            shardAddresses = shardCount == 1 ? List.of() : Arrays.asList(prop.getProperty("shard-peers", "").split(","));
+            if (shardAddresses.size() != shardCount && shardCount != 1) {
+                throw new NullPointerException("Please add the address of all " + shardCount + " shards to config.properties");
+            }
+
+            // Get the secret that shards send each other, the same on every shard (required when sharded)
+            shardSecret = prop.getProperty("shard-secret", "");
+            if (shardCount != 1 && shardSecret.isEmpty()) {
+                throw new NullPointerException("Please add a shard-secret to config.properties");
+            }
+
+            // Get the port to serve Prometheus metrics on, locally (optional, 0 to not serve them)
+            metricsPort = Integer.parseInt(prop.getProperty("metrics-port", "0"));
+
+            // Get how games are saved, a log of changes or a memory-mapped table (optional)
+            String storage = prop.getProperty("storage", "journal");
+            if (!storage.equals("journal") && !storage.equals("mapped")) {
+                throw new IllegalArgumentException("storage must be journal or mapped, not " + storage);
+            }
+            mappedStorage = storage.equals("mapped");
+
+            // Get how many games to keep in memory, and how long until an idle game is parked (optional)
+            residentGames = Integer.parseInt(prop.getProperty("resident-games", String.valueOf(DEFAULT_RESIDENT_GAMES)));
+            idleMinutes = Long.parseLong(prop.getProperty("idle-minutes", String.valueOf(DEFAULT_IDLE_MINUTES)));
+
+            // Get how fast clicks are handled in full, and what happens to the rest, fold or drop (optional)
+            // A click-rate of 0 handles every click in full, a global-click-rate of 0 only limits each user
+            int clickRate = Integer.parseInt(prop.getProperty("click-rate", String.valueOf(DEFAULT_CLICK_RATE)));
+            String clickPolicy = prop.getProperty("click-policy", "fold");
+            if (!clickPolicy.equals("fold") && !clickPolicy.equals("drop")) {
+                throw new IllegalArgumentException("click-policy must be fold or drop, not " + clickPolicy);
             }
+            clickLimiter = clickRate == 0 ? null : new ClickLimiter(clickRate,
+                    Integer.parseInt(prop.getProperty("click-burst", String.valueOf(DEFAULT_CLICK_BURST))),
+                    Integer.parseInt(prop.getProperty("global-click-rate", String.valueOf(DEFAULT_GLOBAL_CLICK_RATE))),
+                    clickPolicy.equals("fold") ? ClickLimiter.Policy.FOLD : ClickLimiter.Policy.DROP,
+                    CLICK_LIMITER_CAPACITY);
+
+            // Get how much of each game's history is kept for audits, in KB (optional)
+            GameEventLog.setMaxBytes(1024 * Integer.parseInt(prop.getProperty("event-log-kb",
+                    String.valueOf(GameEventLog.DEFAULT_MAX_BYTES / 1024))));
+
+            // Don't start if games are saved in a different amount of shards
+            shards.checkSavedShardCount();
 
         // Stop program if an error is raised (bot token not found)
-        } catch (IOException | NullPointerException e) {
+        } catch (IOException | NullPointerException | IllegalArgumentException e) {
             e.printStackTrace();
             return;
         }
 
-        Bot bot = new Bot(token);
-        bot.start();
+        Bot bot = new Bot(token, editInterval, shards, shardAddresses, shardSecret,
+                shards.createGameStore(mappedStorage));
+        bot.setEviction(residentGames, idleMinutes * 60 * 1000);
+        bot.setClickLimiter(clickLimiter);
+        try {
+            bot.start();
+        } catch (IOException e) {
+            // Don't serve anyone without their saves, fix or restore them and restart
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        if (metricsPort != 0) {
+            try {
+                bot.startMetricsServer(metricsPort);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
     }
 }
@@ -0,0 +1,276 @@
+package com.github.AndrewAlbizati;
+
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps games in a memory-mapped {@link GameTable} (saves.table), which they read and write in place, so the heap
+ * only holds small game objects and loading is mapping the file rather than parsing it.
+ * <p>
+ * Every change is in the page cache as soon as it's made. {@link #logGame} forces the table to disk on a writer thread
+ * that forces once for everything queued while the last force was running (group commit), like the log of
+ * {@link SaveStore}. Games that only changed by clicks are forced by {@link #flush(GameRegistry)}.
+ * <p>
+ * Parked games stay in the table, only their {@link Game} objects are dropped.
+ * <p>
+ * Saves of the log-based store are imported the first time the table is created, and are kept with a .bak extension.
+ */
+public class MappedGameStore implements GameStore {
+    private final Path tableFile;
+    private final SaveStore importStore;
+    private final BlockingQueue<CompletableFuture<Void>> queue = new LinkedBlockingQueue<>();
+
+    private GameTable table;
+    // Slots of the games that weren't loaded, until they're added to the leaderboard
+    private List<Integer> parkedAtLoad = List.of();
+    // For metrics, see getBytesWritten and getBytesLoaded
+    private final LongAdder bytesWritten = new LongAdder();
+    private volatile long bytesLoaded;
+    private Thread writer;
+
+    /**
+     * @param tableFile The table, e.g. saves.table.
+     * @param importStore The log-based store whose saves are imported if the table doesn't exist yet.
+     */
+    public MappedGameStore(String tableFile, SaveStore importStore) {
+        this.tableFile = Path.of(tableFile);
+        this.importStore = importStore;
+    }
+
+    /**
+     * Maps the table, importing the log-based saves into it if it doesn't exist yet, and loads the games that were
+     * updated most recently. Games whose message was never sent are freed.
+     */
+    @Override
+    public synchronized Collection<Game> loadGames(int resident) throws IOException, ParseException {
+        boolean exists = Files.exists(tableFile);
+        table = GameTable.open(tableFile);
+        if (!exists) {
+            importSaves();
+        }
+
+        List<Integer> slots = new ArrayList<>(table.size());
+        for (int slot : table.usedSlots()) {
+            ByteBuffer record = table.record(slot);
+            if (record.getLong(GameTable.MESSAGE_ID) != 0) {
+                slots.add(slot);
+            } else {
+                table.free(record.getLong(GameTable.USER_ID), slot);
+            }
+        }
+        if (slots.size() > resident) {
+            // Most recently updated first
+            slots.sort(Comparator.comparingLong((Integer slot) -> lastUpdated(slot)).reversed());
+            parkedAtLoad = slots.subList(resident, slots.size());
+            slots = slots.subList(0, resident);
+        }
+
+        List<Game> games = new ArrayList<>(slots.size());
+        for (int slot : slots) {
+            games.add(new Game(table.record(slot), slot));
+        }
+        bytesLoaded = table.sizeInBytes();
+        return games;
+    }
+
+    private long lastUpdated(int slot) {
+        return table.record(slot).getLong(GameTable.LAST_UPDATED);
+    }
+
+    @Override
+    public synchronized void rankParked(Leaderboard leaderboard) {
+        for (int slot : parkedAtLoad) {
+            GameSave save = GameTable.read(table.record(slot));
+            leaderboard.update(save.userId(), save.cookiesBits(), save.saveTime(), Game.computeCPS(save.owned()));
+        }
+        parkedAtLoad = List.of();
+    }
+
+    private void importSaves() throws IOException, ParseException {
+        Collection<GameSave> saves = importStore.loadAll().values();
+        if (saves.isEmpty()) {
+            return;
+        }
+
+        for (GameSave save : saves) {
+            GameTable.write(table.record(table.allocate(save.userId())), save);
+        }
+        table.force();
+        importStore.backUp();
+        System.out.println("Imported " + saves.size() + " games into " + tableFile);
+    }
+
+    /**
+     * Starts the writer thread. Must be called after {@link #loadGames(int)}.
+     */
+    @Override
+    public synchronized void open() {
+        writer = new Thread(this::forceLoop, "save-table");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Creates a game in a new slot of the table.
+     * @throws UncheckedIOException If the table couldn't grow.
+     */
+    @Override
+    public Game createGame(long userId) {
+        try {
+            int slot = table.allocate(userId);
+            return new Game(userId, table.record(slot), slot);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Forces the table to disk, e.g. after a purchase or when a game is created.
+     * @param games All active games, used to skip games that were quit before they could be saved.
+     * @param userId The Discord id of the user playing the game.
+     * @param game The game.
+     * @return A future that completes once the game's record is durable on disk.
+     */
+    @Override
+    public CompletableFuture<Void> logGame(GameRegistry games, long userId, Game game) {
+        if (games.get(userId) != game || !game.hasMessage()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Cleared before the force starts, so a change after this is forced later
+        if (game.clearDirty()) {
+            bytesWritten.add(GameTable.RECORD_SIZE);
+        }
+        return enqueue();
+    }
+
+    /**
+     * Frees a game's slot. The game keeps a copy of its record, so anything still handling it can't change the
+     * slot's next game.
+     * @param userId The Discord id of the user who quit.
+     * @param game The game that was quit.
+     * @return A future that completes once the free slot is durable on disk.
+     */
+    @Override
+    public CompletableFuture<Void> logQuit(long userId, Game game) {
+        int slot = game.detach();
+        if (slot == -1) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        table.free(userId, slot);
+        bytesWritten.add(GameTable.RECORD_SIZE);
+        return enqueue();
+    }
+
+    /**
+     * Drops a game's record in favour of a copy on the heap, leaving the record in the table. Its changes are forced
+     * to disk later if it was changed since the last force.
+     */
+    @Override
+    public void park(long userId, Game game) {
+        game.detach();
+        if (game.clearDirty()) {
+            bytesWritten.add(GameTable.RECORD_SIZE);
+            enqueue();
+        }
+    }
+
+    /**
+     * Loads a parked game from its record in the table.
+     */
+    @Override
+    public Game unpark(long userId) {
+        int slot = table.slot(userId);
+        return slot == -1 ? null : new Game(table.record(slot), slot);
+    }
+
+    /**
+     * Forces every game that changed since it was last forced to disk.
+     * @param games All active games.
+     */
+    @Override
+    public void flush(GameRegistry games) throws IOException {
+        long dirty = 0;
+        for (long id : games.userIds()) {
+            Game game = games.get(id);
+            if (game != null && game.clearDirty()) {
+                dirty++;
+            }
+        }
+        if (dirty == 0) {
+            return;
+        }
+
+        bytesWritten.add(dirty * GameTable.RECORD_SIZE);
+        try {
+            enqueue().join();
+        } catch (RuntimeException e) {
+            throw new IOException("Couldn't force " + tableFile, e);
+        }
+    }
+
+    /**
+     * Returns the size of the records that were forced to disk since the store was created. The pages that were
+     * actually written can be more, since a whole page is written if any record in it changed.
+     */
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * Returns the size of the table that was mapped by {@link #loadGames(int)}, in bytes.
+     */
+    @Override
+    public long getBytesLoaded() {
+        return bytesLoaded;
+    }
+
+    private CompletableFuture<Void> enqueue() {
+        CompletableFuture<Void> forced = new CompletableFuture<>();
+        queue.add(forced);
+        return forced;
+    }
+
+    /**
+     * Forces the table in batches on the writer thread, with one force per batch.
+     */
+    private void forceLoop() {
+        List<CompletableFuture<Void>> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                table.force();
+                for (CompletableFuture<Void> forced : batch) {
+                    forced.complete(null);
+                }
+            } catch (UncheckedIOException e) {
+                e.printStackTrace();
+                for (CompletableFuture<Void> forced : batch) {
+                    forced.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+}
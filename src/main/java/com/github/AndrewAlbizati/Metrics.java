@@ -0,0 +1,372 @@
+package com.github.AndrewAlbizati;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Timespan;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencies and sizes of the bot's hot paths, recorded as histograms and as JFR events.
+ * <p>
+ * Recording doesn't allocate: histograms are fixed arrays of buckets, and events are only created once a recording
+ * has enabled them, so the JIT removes them otherwise. The histograms are served in the Prometheus text format by
+ * {@link MetricsServer}, and the events show up in any JFR recording, e.g. -XX:StartFlightRecording.
+ */
+public class Metrics {
+    // Commands that get their own histogram, anything else is counted as "other"
+    private static final String[] COMMANDS = {"newgame", "buy", "advise", "help", "resendmessage", "quit", "other"};
+
+    // How often the scheduler's lag is measured
+    private static final long LAG_PROBE_INTERVAL_MILLIS = 1000;
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<String, LatencyHistogram> commands = new HashMap<>();
+    private final LatencyHistogram other;
+    private final LatencyHistogram clicks = new LatencyHistogram();
+    private final LatencyHistogram saves = new LatencyHistogram();
+    private final LatencyHistogram schedulerLag = new LatencyHistogram();
+    private volatile long lastSaveBytes;
+    private volatile long lastSaveRecords;
+    private volatile long loadMicros;
+    private volatile long loadBytes;
+    private volatile long loadGames;
+
+    // Next time the lag probe should run, in System.nanoTime()
+    private long nextProbe;
+
+    @Name("com.github.AndrewAlbizati.Command")
+    @Label("Slash Command")
+    @Category("Cookie Clicker")
+    @Description("A slash command, from when it was received until its response was sent")
+    static class CommandEvent extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("User Id")
+        long userId;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("com.github.AndrewAlbizati.Click")
+    @Label("Click")
+    @Category("Cookie Clicker")
+    @Description("A press of the cookie button, including forwarding it to the shard that owns the game")
+    static class ClickEvent extends Event {
+        @Label("User Id")
+        long userId;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("com.github.AndrewAlbizati.Save")
+    @Label("Save")
+    @Category("Cookie Clicker")
+    @Description("Saving every game that changed, or loading every game at startup")
+    static class SaveEvent extends Event {
+        @Label("Load")
+        boolean load;
+
+        @Label("Games")
+        long games;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("com.github.AndrewAlbizati.SchedulerLag")
+    @Label("Scheduler Lag")
+    @Category("Cookie Clicker")
+    @Description("How late a task on the bot's message edit thread ran, e.g. because other edits held it up")
+    static class SchedulerLagEvent extends Event {
+        @Label("Lag")
+        @Timespan(Timespan.NANOSECONDS)
+        long lag;
+    }
+
+    @Name("com.github.AndrewAlbizati.GameStatistics")
+    @Label("Game Statistics")
+    @Category("Cookie Clicker")
+    @Period("10 s")
+    static class GameStatisticsEvent extends Event {
+        @Label("Active Games")
+        long activeGames;
+
+        @Label("Edits Requested")
+        long editsRequested;
+
+        @Label("Edits Sent")
+        long editsSent;
+
+        @Label("Edits Failed")
+        long editsFailed;
+    }
+
+    public Metrics() {
+        for (String command : COMMANDS) {
+            commands.put(command, new LatencyHistogram());
+        }
+        other = commands.get("other");
+    }
+
+    /**
+     * Records a slash command that has been responded to.
+     * @param command The name of the command, e.g. buy.
+     * @param userId The Discord id of the user who called it.
+     * @param startNanos When it was received, in System.nanoTime().
+     */
+    public void command(String command, long userId, long startNanos) {
+        long latency = System.nanoTime() - startNanos;
+        commands.getOrDefault(command, other).recordNanos(latency);
+
+        CommandEvent event = new CommandEvent();
+        if (event.isEnabled()) {
+            event.command = command;
+            event.userId = userId;
+            event.latency = latency;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records a press of the cookie button that has been handled.
+     * @param userId The Discord id of the user who pressed it.
+     * @param startNanos When it was received, in System.nanoTime().
+     */
+    public void click(long userId, long startNanos) {
+        long latency = System.nanoTime() - startNanos;
+        clicks.recordNanos(latency);
+
+        ClickEvent event = new ClickEvent();
+        if (event.isEnabled()) {
+            event.userId = userId;
+            event.latency = latency;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records a save of every game that changed.
+     * @param games The amount of active games.
+     * @param bytes The amount of bytes written.
+     * @param startNanos When the save started, in System.nanoTime().
+     */
+    public void save(long games, long bytes, long startNanos) {
+        long latency = System.nanoTime() - startNanos;
+        saves.recordNanos(latency);
+        lastSaveBytes = bytes;
+        lastSaveRecords = games;
+        commitSaveEvent(false, games, bytes, latency);
+    }
+
+    /**
+     * Records loading every game at startup.
+     * @param games The amount of games loaded.
+     * @param bytes The amount of bytes read.
+     * @param startNanos When loading started, in System.nanoTime().
+     */
+    public void load(long games, long bytes, long startNanos) {
+        long latency = System.nanoTime() - startNanos;
+        loadMicros = latency / 1000;
+        loadBytes = bytes;
+        loadGames = games;
+        commitSaveEvent(true, games, bytes, latency);
+    }
+
+    private static void commitSaveEvent(boolean load, long games, long bytes, long latency) {
+        SaveEvent event = new SaveEvent();
+        if (event.isEnabled()) {
+            event.load = load;
+            event.games = games;
+            event.bytes = bytes;
+            event.latency = latency;
+            event.commit();
+        }
+    }
+
+    /**
+     * Measures how late tasks on a scheduler run, by scheduling a task every second and comparing when it ran with
+     * when it should have.
+     * @param scheduler The scheduler.
+     */
+    public void watchScheduler(ScheduledExecutorService scheduler) {
+        nextProbe = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LAG_PROBE_INTERVAL_MILLIS);
+        scheduler.scheduleAtFixedRate(this::probeScheduler, LAG_PROBE_INTERVAL_MILLIS, LAG_PROBE_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void probeScheduler() {
+        // Runs of a fixed rate task are due at fixed intervals, however late the last one was
+        long lag = Math.max(0, System.nanoTime() - nextProbe);
+        nextProbe += TimeUnit.MILLISECONDS.toNanos(LAG_PROBE_INTERVAL_MILLIS);
+        schedulerLag.recordNanos(lag);
+
+        SchedulerLagEvent event = new SchedulerLagEvent();
+        if (event.isEnabled()) {
+            event.lag = lag;
+            event.commit();
+        }
+    }
+
+    /**
+     * Commits a {@link GameStatisticsEvent}, see {@link jdk.jfr.FlightRecorder#addPeriodicEvent}.
+     * @param games The games on this shard.
+     * @param edits The coalescer of game message edits.
+     */
+    static void commitGameStatistics(long activeGames, EditCoalescer edits) {
+        GameStatisticsEvent event = new GameStatisticsEvent();
+        event.activeGames = activeGames;
+        if (edits != null) {
+            event.editsRequested = edits.getEditsRequested();
+            event.editsSent = edits.getEditsSent();
+            event.editsFailed = edits.getEditsFailed();
+        }
+        event.commit();
+    }
+
+    public LatencyHistogram getCommandLatency(String command) {
+        return commands.getOrDefault(command, other);
+    }
+
+    public LatencyHistogram getClickLatency() {
+        return clicks;
+    }
+
+    public LatencyHistogram getSaveLatency() {
+        return saves;
+    }
+
+    public LatencyHistogram getSchedulerLag() {
+        return schedulerLag;
+    }
+
+    /**
+     * Writes every metric in the Prometheus text format.
+     * @param activeGames The amount of games on this shard.
+     * @param edits The coalescer of game message edits, or null before the bot has started.
+     * @param bytesSaved The amount of bytes written to the save since the bot started.
+     * @param clickLimiter The limiter of clicks, or null if every click is handled in full.
+     * @return The metrics.
+     */
+    public String toPrometheus(GameRegistry games, EditCoalescer edits, long bytesSaved, ClickLimiter clickLimiter) {
+        StringBuilder sb = new StringBuilder(8192);
+
+        header(sb, "cookie_clicker_command_seconds", "summary", "Time from a slash command being received until its response is sent");
+        for (String command : COMMANDS) {
+            summary(sb, "cookie_clicker_command_seconds", "command=\"" + command + "\",", commands.get(command));
+        }
+
+        header(sb, "cookie_clicker_click_seconds", "summary", "Time to handle a press of the cookie button, including forwarding it to another shard");
+        summary(sb, "cookie_clicker_click_seconds", "", clicks);
+
+        header(sb, "cookie_clicker_save_seconds", "summary", "Time to save every game that changed");
+        summary(sb, "cookie_clicker_save_seconds", "", saves);
+
+        header(sb, "cookie_clicker_scheduler_lag_seconds", "summary", "How late tasks on the bot's scheduler ran");
+        summary(sb, "cookie_clicker_scheduler_lag_seconds", "", schedulerLag);
+
+        header(sb, "cookie_clicker_saved_bytes_total", "counter", "Bytes written to the save log and snapshots");
+        sample(sb, "cookie_clicker_saved_bytes_total", "", bytesSaved);
+        header(sb, "cookie_clicker_last_save_bytes", "gauge", "Bytes written by the last save");
+        sample(sb, "cookie_clicker_last_save_bytes", "", lastSaveBytes);
+        header(sb, "cookie_clicker_last_save_games", "gauge", "Active games at the last save");
+        sample(sb, "cookie_clicker_last_save_games", "", lastSaveRecords);
+
+        header(sb, "cookie_clicker_load_seconds", "gauge", "Time it took to load every game at startup");
+        sample(sb, "cookie_clicker_load_seconds", "", loadMicros / 1e6);
+        header(sb, "cookie_clicker_load_bytes", "gauge", "Bytes read to load every game at startup");
+        sample(sb, "cookie_clicker_load_bytes", "", loadBytes);
+        header(sb, "cookie_clicker_load_games", "gauge", "Games loaded at startup");
+        sample(sb, "cookie_clicker_load_games", "", loadGames);
+
+        header(sb, "cookie_clicker_active_games", "gauge", "Games on this shard that are in memory");
+        sample(sb, "cookie_clicker_active_games", "", games.size());
+        header(sb, "cookie_clicker_parked_games", "gauge", "Games on this shard that are parked in the save store");
+        sample(sb, "cookie_clicker_parked_games", "", games.parkedCount());
+        header(sb, "cookie_clicker_game_evictions_total", "counter", "Games parked because they were idle or didn't fit in memory");
+        sample(sb, "cookie_clicker_game_evictions_total", "", games.getEvictions());
+        header(sb, "cookie_clicker_game_reloads_total", "counter", "Parked games that were loaded again");
+        sample(sb, "cookie_clicker_game_reloads_total", "", games.getReloads());
+
+        if (edits != null) {
+            // Requested edits that weren't sent were folded into another edit
+            long requested = edits.getEditsRequested();
+            long sent = edits.getEditsSent();
+            header(sb, "cookie_clicker_edits_total", "counter", "Game message edits, by what happened to them");
+            sample(sb, "cookie_clicker_edits_total", "result=\"requested\"", requested);
+            sample(sb, "cookie_clicker_edits_total", "result=\"sent\"", sent);
+            sample(sb, "cookie_clicker_edits_total", "result=\"coalesced\"", requested - sent);
+            sample(sb, "cookie_clicker_edits_total", "result=\"failed\"", edits.getEditsFailed());
+        }
+
+        if (clickLimiter != null) {
+            // Shed clicks are folded into their games later or dropped, depending on the policy
+            String policy = "policy=\"" + clickLimiter.getPolicy().name().toLowerCase() + "\",";
+            header(sb, "cookie_clicker_click_admissions_total", "counter", "Cookie button presses, by whether they were handled in full or shed and by which limit");
+            sample(sb, "cookie_clicker_click_admissions_total", policy + "result=\"admitted\"", clickLimiter.getAdmitted());
+            sample(sb, "cookie_clicker_click_admissions_total", policy + "result=\"shed_user\"", clickLimiter.getShedByUser());
+            sample(sb, "cookie_clicker_click_admissions_total", policy + "result=\"shed_global\"", clickLimiter.getShedByGlobal());
+            header(sb, "cookie_clicker_click_untracked_total", "counter", "Cookie button presses from users that didn't fit in the limiter's table");
+            sample(sb, "cookie_clicker_click_untracked_total", "", clickLimiter.getUntracked());
+        }
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Writes a histogram as a summary, in seconds. Labels end with a comma, or are empty.
+     */
+    private static void summary(StringBuilder sb, String name, String labels, LatencyHistogram histogram) {
+        for (double quantile : QUANTILES) {
+            sb.append(name).append('{').append(labels).append("quantile=\"").append(quantile).append("\"} ")
+                    .append(format(histogram.getValueAtQuantile(quantile) / 1e6)).append('\n');
+        }
+        String bare = labels.isEmpty() ? "" : labels.substring(0, labels.length() - 1);
+        sample(sb, name + "_sum", bare, histogram.getSum() / 1e6);
+        sample(sb, name + "_count", bare, histogram.getCount());
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name);
+        if (!labels.isEmpty()) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(format(value)).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, long value) {
+        sb.append(name);
+        if (!labels.isEmpty()) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+}
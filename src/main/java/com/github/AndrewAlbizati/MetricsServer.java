@@ -0,0 +1,50 @@
+package com.github.AndrewAlbizati;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the bot's {@link Metrics} at /metrics in the Prometheus text format. Only listens on the loopback address,
+ * so a Prometheus server or agent on the same machine can scrape it.
+ */
+public class MetricsServer {
+    private final Bot bot;
+    private final HttpServer server;
+
+    /**
+     * @param bot The bot whose metrics are served.
+     * @param port The port to listen on.
+     * @throws IOException If the port couldn't be opened.
+     */
+    public MetricsServer(Bot bot, int port) throws IOException {
+        this.bot = bot;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // Scrapes are rare, the server's own thread is enough
+        server.createContext("/metrics", this::metrics);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        String text = bot.getMetrics().toPrometheus(bot.getGames(), bot.getEditCoalescer(),
+                bot.getSaveStore().getBytesWritten(), bot.getClickLimiter());
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
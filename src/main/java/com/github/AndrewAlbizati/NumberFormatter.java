@@ -0,0 +1,148 @@
+package com.github.AndrewAlbizati;
+
+/**
+ * Appends numbers with comma grouping, e.g. 1,234,567, without the regex and allocation of String.format, or
+ * compactly, e.g. 1.23 quintillion.
+ */
+public final class NumberFormatter {
+    // Numbers from a million on are written compactly
+    private static final double COMPACT_FROM = 1e6;
+
+    // Short scale names of 1000^index, from a million to a vigintillion (10^63), after which numbers are written
+    // as e.g. 1.23e66
+    private static final String[] SCALE_NAMES = {
+            null, null, "million", "billion", "trillion", "quadrillion", "quintillion", "sextillion", "septillion",
+            "octillion", "nonillion", "decillion", "undecillion", "duodecillion", "tredecillion",
+            "quattuordecillion", "quindecillion", "sexdecillion", "septendecillion", "octodecillion",
+            "novemdecillion", "vigintillion"
+    };
+
+    private NumberFormatter() {
+    }
+
+    /**
+     * Appends a whole number with comma grouping, matching String.format("%,d") in an English locale.
+     * @param sb The StringBuilder to append to.
+     * @param value The number to append.
+     * @return The StringBuilder, for chaining.
+     */
+    public static StringBuilder appendGrouped(StringBuilder sb, long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                return sb.append(String.format("%,d", value));
+            }
+            sb.append('-');
+            value = -value;
+        }
+
+        // Find the highest power of 1000 in the value, then write three digits at a time
+        long divisor = 1;
+        while (value / divisor >= 1000) {
+            divisor *= 1000;
+        }
+
+        sb.append(value / divisor);
+        while (divisor > 1) {
+            value %= divisor;
+            divisor /= 1000;
+            long group = value / divisor;
+            sb.append(',');
+            if (group < 100) {
+                sb.append('0');
+            }
+            if (group < 10) {
+                sb.append('0');
+            }
+            sb.append(group);
+        }
+        return sb;
+    }
+
+    /**
+     * Appends an amount with comma grouping below a million, and rounded to 3 significant digits from a million on,
+     * with the name of its power of 1000 up to a vigintillion (10^63) and in scientific notation past it,
+     * e.g. 999,999, 1.00 million, 12.3 quintillion, or 4.56e68.
+     * @param sb The StringBuilder to append to.
+     * @param value The amount, as a {@link BigNumber}. Fractions below a million are rounded down.
+     * @return The StringBuilder, for chaining.
+     */
+    public static StringBuilder appendCompact(StringBuilder sb, long value) {
+        if (BigNumber.isNegative(value)) {
+            sb.append('-');
+            value = BigNumber.negate(value);
+        }
+        double approximate = BigNumber.toDouble(value);
+        if (approximate < COMPACT_FROM) {
+            return appendGrouped(sb, (long) Math.floor(approximate));
+        }
+
+        // The value is mantissa * 1000^scale with a mantissa in [1, 1000). Within a double's range the mantissa is
+        // divided out, so e.g. a billion is exactly 1.00 billion, past it it's taken from the logarithm
+        double log10 = BigNumber.log10(value);
+        int scale = (int) Math.floor(log10 / 3);
+        double mantissa = approximate < Double.MAX_VALUE
+                ? approximate / Math.pow(10, 3 * scale)
+                : Math.pow(10, log10 - 3.0 * scale);
+        if (mantissa < 1) {
+            mantissa *= 1000;
+            scale--;
+        }
+
+        // Past the names, e.g. 1.23e66, so the mantissa is in [1, 10)
+        int power = 3 * scale;
+        boolean named = scale < SCALE_NAMES.length;
+        if (!named) {
+            while (mantissa >= 10) {
+                mantissa /= 10;
+                power++;
+            }
+        }
+
+        // 3 significant digits, rounding up to the next power of 1000 if needed
+        int decimals;
+        if (mantissa < 9.995) {
+            decimals = 2;
+        } else if (named && mantissa < 99.95) {
+            decimals = 1;
+        } else if (named && mantissa < 999.5) {
+            decimals = 0;
+        } else {
+            mantissa /= named ? 1000 : 10;
+            scale++;
+            power += named ? 3 : 1;
+            decimals = 2;
+        }
+        long unit = decimals == 2 ? 100 : decimals == 1 ? 10 : 1;
+        long digits = Math.round(mantissa * unit);
+
+        sb.append(digits / unit);
+        if (decimals > 0) {
+            sb.append('.');
+            if (decimals == 2 && digits % unit < 10) {
+                sb.append('0');
+            }
+            sb.append(digits % unit);
+        }
+
+        if (scale < SCALE_NAMES.length) {
+            return sb.append(' ').append(SCALE_NAMES[scale]);
+        }
+        return sb.append('e').append(power);
+    }
+
+    /**
+     * Appends a number rounded to one decimal place with comma grouping, matching String.format("%,.1f").
+     * @param sb The StringBuilder to append to.
+     * @param value The number to append.
+     * @return The StringBuilder, for chaining.
+     */
+    public static StringBuilder appendGroupedTenths(StringBuilder sb, double value) {
+        long tenths = Math.round(value * 10);
+        if (tenths < 0) {
+            sb.append('-');
+            tenths = -tenths;
+        }
+        appendGrouped(sb, tenths / 10);
+        return sb.append('.').append(tenths % 10);
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.AndrewAlbizati;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ranks a game's items by payback time, for /advise. The payback time of an item is how long it takes to save up
+ * for it plus how long it takes to produce its cost: (cost - cookies) / cps + cost / item cps.
+ * <p>
+ * The price terms of the next few purchases of each item are kept up to date as the game buys them, so advice only
+ * does arithmetic on cached values, without calling Math.pow. The index is owned by a {@link Game} and only used
+ * while holding its lock.
+ */
+public final class PaybackIndex {
+    /**
+     * The most purchases that {@link #advise(double, double, int)} plans ahead.
+     */
+    public static final int LOOKAHEAD = 5;
+
+    // Cached terms per item
+    private static final int TERMS = LOOKAHEAD + 1;
+
+    private static final Items[] ITEMS = Items.values();
+
+    /**
+     * An item and how long it takes to pay for itself.
+     * @param item The item.
+     * @param costBits The price of the next one in cookies, encoded as the bits of a {@link BigNumber}.
+     * @param saving Seconds until the game can afford it without clicking, 0 if it already can.
+     * @param payback The time saving plus the seconds the item takes to produce its cost.
+     */
+    public record Choice(Items item, long costBits, double saving, double payback) {
+    }
+
+    /**
+     * One purchase of a plan.
+     * @param item The item to buy.
+     * @param costBits Its price at that point of the plan in cookies, encoded as the bits of a {@link BigNumber}.
+     * @param at Seconds from now until it can be bought, if every earlier step of the plan was followed.
+     */
+    public record Step(Items item, long costBits, double at) {
+    }
+
+    /**
+     * @param ranking Every item that can still be bought, best payback first.
+     * @param plan The next purchases if the best payback is bought every time. Ends early if the game
+     *             needs to click before it can afford the next one.
+     */
+    public record Advice(List<Choice> ranking, List<Step> plan) {
+    }
+
+    // terms[i * TERMS + j] is PurchaseSolver.term(basePrice, owned + j) of item i
+    private final long[] terms = new long[Store.SIZE * TERMS];
+    // Seconds each item takes to produce the price of its next one, Double.POSITIVE_INFINITY if it can't be bought
+    private final double[] selfPayback = new double[Store.SIZE];
+
+    /**
+     * @param owned The amount of each item owned, indexed by Items.ordinal().
+     */
+    public PaybackIndex(long[] owned) {
+        for (int i = 0; i < Store.SIZE; i++) {
+            fill(i, owned[i], 0);
+        }
+    }
+
+    /**
+     * Updates an item's prices after it was bought.
+     * @param item The ordinal of the item.
+     * @param owned The amount owned after the purchase.
+     * @param amount The amount that was bought.
+     */
+    public void bought(int item, long owned, long amount) {
+        int start = item * TERMS;
+        if (amount < TERMS) {
+            // Terms that are still ahead move to the front, only the new ones need Math.pow
+            int kept = TERMS - (int) amount;
+            System.arraycopy(terms, start + (int) amount, terms, start, kept);
+            fill(item, owned, kept);
+        } else {
+            fill(item, owned, 0);
+        }
+    }
+
+    private void fill(int item, long owned, int from) {
+        int start = item * TERMS;
+        for (int j = from; j < TERMS; j++) {
+            terms[start + j] = PurchaseSolver.term(Store.getBasePrice(item), owned + j);
+        }
+        long cost = cost(item, 0);
+        selfPayback[item] = cost == BigNumber.MAX_VALUE ? Double.POSITIVE_INFINITY : seconds(cost, Store.getCPS(item));
+    }
+
+    /**
+     * Returns the price of an item after some more of it have been bought, the same as {@link PurchaseSolver#cost}.
+     * @param item The ordinal of the item.
+     * @param ahead How many more have been bought, less than TERMS - 1.
+     * @return The price, as a BigNumber.
+     */
+    private long cost(int item, int ahead) {
+        int start = item * TERMS + ahead;
+        return PurchaseSolver.costBetween(terms[start], terms[start + 1]);
+    }
+
+    /**
+     * Ranks every item by payback time, and plans the next purchases by repeatedly buying the best one.
+     * @param cookies The cookies the game has now, as a BigNumber.
+     * @param cps The game's production.
+     * @param steps The length of the plan, up to {@link #LOOKAHEAD}.
+     * @return The ranking and the plan.
+     */
+    public Advice advise(long cookies, double cps, int steps) {
+        List<Choice> ranking = new ArrayList<>(Store.SIZE);
+        for (int i = 0; i < Store.SIZE; i++) {
+            if (selfPayback[i] == Double.POSITIVE_INFINITY) {
+                // Price has overflowed
+                continue;
+            }
+            long cost = cost(i, 0);
+            double wait = wait(cost, cookies, cps);
+            ranking.add(new Choice(ITEMS[i], cost, wait, wait + selfPayback[i]));
+        }
+        ranking.sort((a, b) -> Double.compare(a.payback(), b.payback()));
+
+        return new Advice(ranking, plan(cookies, cps, Math.min(steps, LOOKAHEAD)));
+    }
+
+    /**
+     * Follows the best payback for a few purchases, on the cached terms.
+     */
+    private List<Step> plan(long cookies, double cps, int steps) {
+        List<Step> plan = new ArrayList<>(steps);
+        int[] ahead = new int[Store.SIZE];
+        double time = 0;
+        for (int s = 0; s < steps; s++) {
+            int best = -1;
+            long bestCost = 0;
+            double bestWait = 0;
+            double bestPayback = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < Store.SIZE; i++) {
+                long cost = cost(i, ahead[i]);
+                if (cost == BigNumber.MAX_VALUE) {
+                    continue;
+                }
+
+                double wait = wait(cost, cookies, cps);
+                double payback = wait + seconds(cost, Store.getCPS(i));
+                if (payback < bestPayback) {
+                    best = i;
+                    bestCost = cost;
+                    bestWait = wait;
+                    bestPayback = payback;
+                }
+            }
+
+            // Nothing is affordable without clicking
+            if (best == -1) {
+                break;
+            }
+
+            time += bestWait;
+            cookies = BigNumber.subtract(BigNumber.add(cookies, BigNumber.multiply(BigNumber.fromDouble(cps), bestWait)),
+                    bestCost);
+            cps += Store.getCPS(best);
+            ahead[best]++;
+            plan.add(new Step(ITEMS[best], bestCost, time));
+        }
+        return plan;
+    }
+
+    /**
+     * Returns the seconds until a price is affordable, or Double.POSITIVE_INFINITY if the game has to click for it.
+     */
+    private static double wait(long cost, long cookies, double cps) {
+        if (BigNumber.compare(cookies, cost) >= 0) {
+            return 0;
+        }
+        return cps == 0 ? Double.POSITIVE_INFINITY : seconds(BigNumber.subtract(cost, cookies), cps);
+    }
+
+    /**
+     * Returns the seconds it takes to produce an amount of cookies.
+     */
+    private static double seconds(long cookies, double cps) {
+        return BigNumber.toDouble(BigNumber.divide(cookies, cps));
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.AndrewAlbizati;
+
+/**
+ * Prices purchases of buildings. Prices grow by 10% per building owned, so they're {@link BigNumber}s, which don't
+ * overflow until about 10^5240 cookies.
+ */
+public final class PurchaseSolver {
+    private static final double GROWTH = 1.1;
+    private static final double LOG_GROWTH = Math.log(GROWTH);
+
+    // Steps the log estimate may be off by before falling back to a bisection
+    private static final int MAX_CORRECTION_STEPS = 4;
+
+    private PurchaseSolver() {
+    }
+
+    /**
+     * Returns the cost of buying a certain amount of a building, using the geometric series price formula.
+     * @param basePrice The base price of the building.
+     * @param owned The amount of that building that is already owned.
+     * @param amount The amount of that building that will be purchased.
+     * @return The amount of cookies that it will cost to buy that amount of buildings, as a BigNumber.
+     *         {@link BigNumber#MAX_VALUE} if the price is too large to ever be affordable, including amounts
+     *         that would overflow the amount owned.
+     */
+    public static long cost(long basePrice, long owned, long amount) {
+        if (amount <= 0) {
+            return BigNumber.ZERO;
+        }
+        if (amount > Long.MAX_VALUE - owned) {
+            return BigNumber.MAX_VALUE;
+        }
+        return costBetween(term(basePrice, owned), term(basePrice, amount + owned));
+    }
+
+    /**
+     * Returns the cost of buying buildings from their terms, see {@link #term(long, long)}.
+     * @param from The term of the amount owned.
+     * @param to The term of the amount owned after the purchase.
+     * @return The cost, as a BigNumber. {@link BigNumber#MAX_VALUE} if it overflowed, or if it isn't positive,
+     *         since buying at least one building always costs something.
+     */
+    public static long costBetween(long from, long to) {
+        if (to == BigNumber.MAX_VALUE) {
+            return BigNumber.MAX_VALUE;
+        }
+        long cost = BigNumber.subtract(to, from);
+        return cost > BigNumber.ZERO ? cost : BigNumber.MAX_VALUE;
+    }
+
+    /**
+     * Returns the cumulative price of the first n buildings, rounded up. The cost of buying buildings is the
+     * difference between two terms, so terms can be kept to price purchases without calling Math.pow again.
+     * @param basePrice The base price of the building.
+     * @param n The amount of buildings.
+     * @return basePrice * 1.1^n / 0.1, rounded up, as a BigNumber.
+     */
+    public static long term(long basePrice, long n) {
+        double term = basePrice * Math.pow(GROWTH, n) / 0.1;
+        if (!Double.isInfinite(term)) {
+            // The same double as the price formula always gave
+            return BigNumber.fromDouble(Math.ceil(term));
+        }
+        // Past a double's range, which is reached at about 7,000 of the same building. Rounding up doesn't
+        // matter at this size
+        return BigNumber.exp(Math.log(basePrice / 0.1) + n * LOG_GROWTH);
+    }
+
+    /**
+     * Returns the largest amount of a building, no larger than the amount requested, that can be bought.
+     * The amount is estimated with a logarithm and then corrected against {@link #cost(long, long, long)},
+     * so the result is the same as decreasing the amount one at a time until it is affordable.
+     * @param basePrice The base price of the building.
+     * @param owned The amount of that building that is already owned.
+     * @param cookies The amount of cookies that can be spent, as a BigNumber.
+     * @param requested The amount of that building that the player asked for.
+     * @return The largest affordable amount, or 0 if none can be bought.
+     */
+    public static long maxAffordable(long basePrice, long owned, long cookies, long requested) {
+        if (requested <= 0) {
+            return 0;
+        }
+        // The amount owned can't overflow
+        requested = Math.min(requested, Long.MAX_VALUE - owned);
+
+        if (affordable(cost(basePrice, owned, requested), cookies)) {
+            return requested;
+        }
+
+        // The answer is now somewhere in [0, requested - 1]
+        long amount = clamp(estimate(basePrice, owned, cookies), requested - 1);
+        for (int i = 0; i < MAX_CORRECTION_STEPS; i++) {
+            if (amount > 0 && !affordable(cost(basePrice, owned, amount), cookies)) {
+                amount--;
+            } else if (amount + 1 < requested && affordable(cost(basePrice, owned, amount + 1), cookies)) {
+                amount++;
+            } else {
+                return amount;
+            }
+        }
+
+        // Estimate was too far off (extreme values), bisect instead
+        long low = 0;
+        long high = requested - 1;
+        while (low < high) {
+            long mid = low + (high - low + 1) / 2;
+            if (affordable(cost(basePrice, owned, mid), cookies)) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns true if a price can be paid with an amount of cookies. Prices that overflowed or are negative
+     * never can.
+     * @param cost The price, as a BigNumber.
+     * @param cookies The cookies, as a BigNumber.
+     */
+    public static boolean affordable(long cost, long cookies) {
+        return cost != BigNumber.MAX_VALUE && !BigNumber.isNegative(cost) && BigNumber.compare(cost, cookies) <= 0;
+    }
+
+    /**
+     * Solves cookies = basePrice * (1.1^(owned + n) - 1.1^owned) / 0.1 for n.
+     * Works in log space so that large amounts owned don't overflow.
+     */
+    private static double estimate(long basePrice, long owned, long cookies) {
+        // n = log(1 + cookies * 0.1 / (basePrice * 1.1^owned)) / log(1.1)
+        double logRatio = BigNumber.log(cookies) + Math.log(0.1 / basePrice) - owned * LOG_GROWTH;
+        if (logRatio > 30) {
+            // log1p(x) is indistinguishable from log(x) at this size
+            return logRatio / LOG_GROWTH;
+        }
+        return Math.log1p(Math.exp(logRatio)) / LOG_GROWTH;
+    }
+
+    private static long clamp(double estimate, long max) {
+        if (Double.isNaN(estimate) || estimate <= 0) {
+            return 0;
+        }
+        if (estimate >= max) {
+            return max;
+        }
+        return (long) Math.floor(estimate);
+    }
+}
@@ -0,0 +1,93 @@
+package com.github.AndrewAlbizati;
+
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves saved games between shards when the amount of shards changes. Every shard must be stopped first.
+ * <p>
+ * Every save file is copied to a backup folder before anything is changed. The new shards' snapshots are then
+ * written, the old files are deleted, and shards.properties is updated last, so the bot refuses to start until
+ * the rebalance has finished. If it's interrupted, copy the backup back and run it again.
+ */
+public class Rebalancer {
+    /**
+     * Splits every saved game between a new amount of shards.
+     * @param shardCount The new amount of shards.
+     * @throws IOException If the saves couldn't be read or written.
+     * @throws ParseException If old saves are being imported and aren't valid JSON.
+     */
+    public static void rebalance(int shardCount) throws IOException, ParseException {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("There must be at least 1 shard");
+        }
+
+        int oldCount = Math.max(1, ShardMap.readSavedShardCount());
+        for (int shard = 0; shard < oldCount; shard++) {
+            if (Files.exists(Path.of(ShardMap.tableFile(shard, oldCount)))) {
+                // Only the log-based saves can be split
+                throw new IOException("Games in " + ShardMap.tableFile(shard, oldCount) + " can't be rebalanced, "
+                        + "only storage=journal supports rebalancing");
+            }
+        }
+
+        // Load every game from the old shards
+        Map<Long, GameSave> games = new LinkedHashMap<>();
+        List<SaveStore> oldStores = new ArrayList<>(oldCount);
+        for (int shard = 0; shard < oldCount; shard++) {
+            SaveStore store = ShardMap.createSaveStore(shard, oldCount);
+            games.putAll(store.loadAll());
+            oldStores.add(store);
+        }
+
+        Path backup = backup();
+        System.out.println("Backed up saves to " + backup);
+
+        // Split the games by their new shard
+        List<List<GameSave>> split = new ArrayList<>(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            split.add(new ArrayList<>());
+        }
+        for (GameSave save : games.values()) {
+            split.get(ShardMap.shardOf(save.userId(), shardCount)).add(save);
+        }
+
+        // Old files only need deleting if the layout changes, otherwise they're replaced below
+        if (oldCount != shardCount) {
+            for (SaveStore store : oldStores) {
+                store.delete();
+            }
+        }
+
+        for (int shard = 0; shard < shardCount; shard++) {
+            ShardMap.createSaveStore(shard, shardCount).replaceAll(split.get(shard));
+            System.out.println("Shard " + shard + ": " + split.get(shard).size() + " games");
+        }
+
+        ShardMap.writeSavedShardCount(shardCount);
+        System.out.println("Rebalanced " + games.size() + " games from " + oldCount + " to " + shardCount + " shards.");
+    }
+
+    /**
+     * Copies every save file to a new folder.
+     * @return The folder the saves were copied to.
+     */
+    private static Path backup() throws IOException {
+        Path backup = Files.createDirectory(Path.of("saves-backup-" + System.currentTimeMillis()));
+        File[] files = new File(".").listFiles((dir, name) -> name.startsWith("saves.") || name.equals("shards.properties"));
+        if (files != null) {
+            for (File file : files) {
+                Files.copy(file.toPath(), backup.resolve(file.getName()));
+            }
+        }
+        return backup;
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.AndrewAlbizati;
+
+import org.javacord.api.entity.message.embed.EmbedBuilder;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A command that another shard received for a user this shard owns. The response is sent back to that shard, which
+ * responds to Discord and has already deferred the response.
+ */
+public class RemoteInteraction implements CommandInteraction {
+    // Embeds can't be sent between shards, only /help responds with one and it's never forwarded
+    static final String EMBED_RESPONSE = "(embed)";
+
+    private final long userId;
+    private final Map<String, Object> options;
+    private final CompletableFuture<String> response = new CompletableFuture<>();
+
+    /**
+     * @param userId The Discord id of the user who called the command.
+     * @param options The command's options, Strings or Longs.
+     */
+    public RemoteInteraction(long userId, Map<String, Object> options) {
+        this.userId = userId;
+        this.options = options;
+    }
+
+    @Override
+    public long getUserId() {
+        return userId;
+    }
+
+    @Override
+    public Map<String, Object> getOptions() {
+        return options;
+    }
+
+    @Override
+    public Optional<String> getStringOption(String name) {
+        return options.get(name) instanceof String value ? Optional.of(value) : Optional.empty();
+    }
+
+    @Override
+    public Optional<Long> getLongOption(String name) {
+        return options.get(name) instanceof Long value ? Optional.of(value) : Optional.empty();
+    }
+
+    @Override
+    public CompletableFuture<Void> respondLater(boolean ephemeral) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> respond(String content) {
+        response.complete(content);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> respond(EmbedBuilder embed) {
+        response.complete(EMBED_RESPONSE);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Returns a future that completes with the response once the command has responded.
+     */
+    public CompletableFuture<String> getResponse() {
+        return response;
+    }
+}
@@ -0,0 +1,271 @@
+package com.github.AndrewAlbizati;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the binary save format, which is used for both snapshots and log segments.
+ * <p>
+ * A file starts with a header: the magic number, the format version, the amount of items each record has counts
+ * for, and the log segment that follows a snapshot (0 for log segments). Then come fixed-width records:
+ * <pre>
+ * type (1 byte), user id, message id, start time, save time (8 bytes each), cookies (8 byte {@link BigNumber}),
+ * one 8 byte count per item, CRC32 of everything before it in the record (4 bytes)
+ * </pre>
+ * Files of version 1 hold cookies as an 8 byte double instead, and are still read.
+ * Quit records only use the user id, the rest of the record is zeroed. A record that is cut off or whose checksum
+ * doesn't match was torn by a crash, and ends the file.
+ */
+public final class SaveCodec {
+    public static final int MAGIC = 0x434B5356; // "CKSV"
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+    public static final byte TYPE_GAME = 1;
+    public static final byte TYPE_QUIT = 2;
+
+    // Records are buffered up to this size before being written to the channel
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private SaveCodec() {
+    }
+
+    /**
+     * Returns the size of a record with counts for a certain amount of items.
+     * @param itemCount The amount of items.
+     * @return The size of the record in bytes.
+     */
+    public static int recordSize(int itemCount) {
+        return 1 + 8 * 5 + 8 * itemCount + 4;
+    }
+
+    /**
+     * Encodes a record with counts for every item in the store.
+     * @param buffer The buffer to encode the record into, which must have room for it.
+     * @param type TYPE_GAME or TYPE_QUIT.
+     * @param userId The Discord id of the user playing the game.
+     * @param save The game's save, null for quit records.
+     */
+    public static void encode(ByteBuffer buffer, byte type, long userId, GameSave save) {
+        int start = buffer.position();
+        buffer.put(type);
+        buffer.putLong(userId);
+        if (save != null) {
+            buffer.putLong(save.messageId());
+            buffer.putLong(save.startTime());
+            buffer.putLong(save.saveTime());
+            buffer.putLong(save.cookiesBits());
+            for (int i = 0; i < Store.SIZE; i++) {
+                buffer.putLong(save.owned()[i]);
+            }
+        } else {
+            for (int i = 0; i < 4 + Store.SIZE; i++) {
+                buffer.putLong(0);
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(start).limit(buffer.position()));
+        buffer.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Writes a header and then records to a channel through a buffer.
+     */
+    public static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        /**
+         * Writes the header to a new file.
+         * @param channel The channel to write to, positioned at the start of the file.
+         * @param journalSegment The log segment that follows a snapshot, or 0.
+         * @throws IOException If the header couldn't be written.
+         */
+        public Writer(FileChannel channel, long journalSegment) throws IOException {
+            this.channel = channel;
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(Store.SIZE);
+            buffer.putLong(journalSegment);
+        }
+
+        public void write(GameSave save) throws IOException {
+            reserve();
+            encode(buffer, TYPE_GAME, save.userId(), save);
+        }
+
+        public void writeQuit(long userId) throws IOException {
+            reserve();
+            encode(buffer, TYPE_QUIT, userId, null);
+        }
+
+        /**
+         * Writes everything buffered to the channel. Doesn't sync it.
+         * @throws IOException If the channel couldn't be written.
+         */
+        public void flush() throws IOException {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } finally {
+                // Even if only part of it was written, so the buffer can be used again
+                buffer.clear();
+            }
+        }
+
+        /**
+         * Drops every record that is buffered but wasn't flushed yet, e.g. after writing a batch of them failed.
+         */
+        public void discard() {
+            buffer.clear();
+        }
+
+        private void reserve() throws IOException {
+            if (buffer.remaining() < recordSize(Store.SIZE)) {
+                flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * Reads a header and then records from a channel, one record at a time.
+     */
+    public static class Reader implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final int version;
+        private final int itemCount;
+        private final int recordSize;
+        private final long journalSegment;
+        private final CRC32 crc = new CRC32();
+
+        private byte type;
+        private long userId;
+        private GameSave save;
+        private boolean torn;
+
+        /**
+         * Reads the header of a file.
+         * @param channel The channel to read from, positioned at the start of the file.
+         * @throws IOException If the header couldn't be read, or isn't a supported save file.
+         */
+        public Reader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            buffer.flip();
+            if (!fill(HEADER_SIZE)) {
+                throw new IOException("Save file header is incomplete");
+            }
+
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a save file");
+            }
+            version = buffer.getInt();
+            if (version != VERSION && version != 1) {
+                throw new IOException("Unsupported save file version " + version);
+            }
+            itemCount = buffer.getInt();
+            journalSegment = buffer.getLong();
+            recordSize = recordSize(itemCount);
+        }
+
+        public long getJournalSegment() {
+            return journalSegment;
+        }
+
+        /**
+         * Reads the next record.
+         * @return False at the end of the file, or at a torn record.
+         * @throws IOException If the channel couldn't be read.
+         */
+        public boolean next() throws IOException {
+            if (torn || !fill(recordSize)) {
+                torn = torn || buffer.hasRemaining();
+                return false;
+            }
+
+            int start = buffer.position();
+            crc.reset();
+            crc.update(buffer.duplicate().limit(start + recordSize - 4));
+
+            type = buffer.get();
+            userId = buffer.getLong();
+            long messageId = buffer.getLong();
+            long startTime = buffer.getLong();
+            long saveTime = buffer.getLong();
+            long cookies = version == 1 ? BigNumber.fromDouble(buffer.getDouble()) : buffer.getLong();
+
+            // Items added since the file was written are 0, items that were removed are dropped
+            long[] owned = new long[Store.SIZE];
+            for (int i = 0; i < itemCount; i++) {
+                long amount = buffer.getLong();
+                if (i < Store.SIZE) {
+                    owned[i] = amount;
+                }
+            }
+
+            if (buffer.getInt() != (int) crc.getValue() || (type != TYPE_GAME && type != TYPE_QUIT)) {
+                torn = true;
+                return false;
+            }
+
+            save = type == TYPE_GAME ? new GameSave(userId, messageId, startTime, saveTime, cookies, owned) : null;
+            return true;
+        }
+
+        /**
+         * Returns true if reading stopped at a record that was cut off or corrupted.
+         */
+        public boolean isTorn() {
+            return torn;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        /**
+         * Returns the save in the current record, or null for quit records.
+         */
+        public GameSave getSave() {
+            return save;
+        }
+
+        /**
+         * Makes sure that a certain amount of bytes are buffered.
+         * @return False if the file ends first.
+         */
+        private boolean fill(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return true;
+            }
+
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer.remaining() >= bytes;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,809 @@
+package com.github.AndrewAlbizati;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Saves games durably and incrementally, in the binary format of {@link SaveCodec}.
+ * <p>
+ * Every new game, purchase, and quit is appended to a write-ahead log (saves.wal.N) as the game's state after
+ * the event. A single writer thread writes everything that was queued while the last batch was being synced, then
+ * syncs once (group commit), and only then completes the futures of the records in the batch. Games that only
+ * changed by clicks are logged in bulk by {@link #flush(GameRegistry)}.
+ * <p>
+ * Once the log gets longer than the amount of games, a new log segment is started and every game is written to a
+ * snapshot (saves.dat). The snapshot is written to a temporary file that is atomically renamed over the old one,
+ * so a crash leaves either the old or the new snapshot. The snapshot records which segment it is followed by, and
+ * older segments are deleted. Loading reads the snapshot and then replays every segment after it in order.
+ * <p>
+ * Parked games are moved to a {@link GameTable} of cold games (saves.cold.table), and a quit record is logged for
+ * them. The cold table is forced before the quit record is written, and loading a parked game logs it again before
+ * its cold record is freed, so a crash in between leaves both copies and the newer one is kept.
+ * <p>
+ * Saves from before the binary format (saves.json and its saves.journal.N segments) are imported the first time
+ * the bot loads, and are kept with a .bak extension.
+ */
+public class SaveStore implements GameStore {
+    // Log records allowed before compacting, as long as there are fewer games than this
+    private static final int MIN_COMPACTION_RECORDS = 1000;
+
+    private static final String LEGACY_SNAPSHOT = "saves.json";
+    private static final String LEGACY_JOURNAL = "saves.journal";
+
+    private final Path snapshotFile;
+    private final String journalPrefix;
+    private final boolean importLegacy;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+    private FileChannel journal;
+    private SaveCodec.Writer journalWriter;
+    private long segment;
+    private volatile long journalRecords;
+    // Segment that the snapshot is followed by, new segments must not be numbered below it
+    private volatile long snapshotSegment;
+    // Held while a snapshot is written by compact, which doesn't hold the store's lock for that long
+    private final Object compactionLock = new Object();
+
+    // Parked games, opened once there are any
+    private final Path coldFile;
+    private volatile GameTable cold;
+    // For metrics, see getBytesWritten and getBytesLoaded
+    private final LongAdder bytesWritten = new LongAdder();
+    private volatile long bytesLoaded;
+    // Set by a load that read every save, see open
+    private boolean loaded;
+    private volatile Thread writer;
+
+    /**
+     * A record waiting to be written by the writer thread. Records with a type of 0 start a new segment instead.
+     */
+    private record Pending(byte type, long userId, GameSave save, CompletableFuture<Void> written) {
+    }
+
+    /**
+     * @param snapshotFile The file that holds every game, e.g. saves.dat.
+     * @param journalPrefix The name of the log segments, followed by their number, e.g. saves.wal.
+     */
+    public SaveStore(String snapshotFile, String journalPrefix) {
+        this(snapshotFile, journalPrefix, true);
+    }
+
+    /**
+     * @param snapshotFile The file that holds every game, e.g. saves.dat.
+     * @param journalPrefix The name of the log segments, followed by their number, e.g. saves.wal.
+     * @param importLegacy True if saves.json should be imported when there's no snapshot yet. Shards hold only part
+     *                     of the games, so they leave that to {@link Rebalancer}.
+     */
+    public SaveStore(String snapshotFile, String journalPrefix, boolean importLegacy) {
+        this.snapshotFile = Path.of(snapshotFile);
+        this.journalPrefix = journalPrefix;
+        this.importLegacy = importLegacy;
+        // e.g. saves.dat is followed by saves.cold.table
+        coldFile = this.snapshotFile.resolveSibling(
+                this.snapshotFile.getFileName().toString().replaceFirst("\\.dat$", "") + ".cold.table");
+    }
+
+    /**
+     * Reads every game in the snapshot and log, and parks the ones that were played least recently. The snapshot is
+     * rewritten without the parked games. Games that were parked before aren't read.
+     */
+    @Override
+    public synchronized Collection<Game> loadGames(int resident) throws IOException, ParseException {
+        Map<Long, GameSave> saves = load();
+
+        boolean changed = false;
+        if (Files.exists(coldFile)) {
+            cold = GameTable.open(coldFile);
+
+            // A crash while a game was being parked or loaded leaves it in both, the newer copy wins
+            for (Iterator<GameSave> it = saves.values().iterator(); it.hasNext(); ) {
+                GameSave save = it.next();
+                int slot = cold.slot(save.userId());
+                if (slot == -1) {
+                    continue;
+                }
+                if (cold.record(slot).getLong(GameTable.LAST_UPDATED) > save.saveTime()) {
+                    it.remove();
+                } else {
+                    cold.free(save.userId(), slot);
+                }
+                changed = true;
+            }
+        }
+
+        if (saves.size() > resident) {
+            List<GameSave> oldest = new ArrayList<>(saves.values());
+            oldest.sort(Comparator.comparingLong(GameSave::saveTime));
+            for (GameSave save : oldest.subList(0, saves.size() - resident)) {
+                writeCold(save);
+                saves.remove(save.userId());
+            }
+            changed = true;
+        }
+
+        if (changed) {
+            cold.force();
+            replaceAll(saves.values());
+        }
+
+        List<Game> games = new ArrayList<>(saves.size());
+        for (GameSave save : saves.values()) {
+            games.add(new Game(save));
+        }
+        return games;
+    }
+
+    @Override
+    public synchronized void rankParked(Leaderboard leaderboard) {
+        if (cold == null) {
+            return;
+        }
+        for (int slot : cold.usedSlots()) {
+            GameSave save = GameTable.read(cold.record(slot));
+            leaderboard.update(save.userId(), save.cookiesBits(), save.saveTime(), Game.computeCPS(save.owned()));
+        }
+    }
+
+    /**
+     * Starts a new log segment and the writer thread. Must be called after {@link #load()}.
+     * @throws IOException If the log segment couldn't be created.
+     */
+    @Override
+    public synchronized void open() throws IOException {
+        // Otherwise the next compaction would replace the saves that couldn't be read
+        if (!loaded) {
+            throw new IOException("Saves weren't loaded");
+        }
+
+        // Never append to a segment from before a crash, its last record might be torn
+        segment = Math.max(lastSegment(journalPrefix) + 1, snapshotSegment);
+        openSegment(segment);
+
+        writer = new Thread(this::writeLoop, "save-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Creates a game on the heap. It's saved once its message is sent and it's logged.
+     */
+    @Override
+    public Game createGame(long userId) {
+        return new Game(userId);
+    }
+
+    /**
+     * Logs a game's current state, e.g. after a purchase or when it's created.
+     * @param games All active games, used to skip games that were quit before they could be logged.
+     * @param userId The Discord id of the user playing the game.
+     * @param game The game.
+     * @return A future that completes once the record is durable on disk.
+     */
+    @Override
+    public synchronized CompletableFuture<Void> logGame(GameRegistry games, long userId, Game game) {
+        // Checked under this lock, since the quit record is logged after the game is removed
+        if (games.get(userId) != game || !game.hasMessage()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        GameSave save;
+        synchronized (game) {
+            game.clearDirty();
+            save = game.toSave(System.currentTimeMillis());
+        }
+        return enqueue(SaveCodec.TYPE_GAME, userId, save);
+    }
+
+    /**
+     * Logs that a game was quit, so it is removed from the save. Must be called after it is removed from the registry.
+     * @param userId The Discord id of the user who quit.
+     * @param game The game that was quit.
+     * @return A future that completes once the record is durable on disk.
+     */
+    @Override
+    public synchronized CompletableFuture<Void> logQuit(long userId, Game game) {
+        return enqueue(SaveCodec.TYPE_QUIT, userId, null);
+    }
+
+    /**
+     * Writes a game to the cold table, then logs a quit record so it's no longer loaded from the log.
+     * The writer thread forces the cold table before it writes the quit record.
+     */
+    @Override
+    public synchronized void park(long userId, Game game) throws IOException {
+        GameSave save;
+        synchronized (game) {
+            game.clearDirty();
+            save = game.toSave(System.currentTimeMillis());
+        }
+        writeCold(save);
+        enqueue(SaveCodec.TYPE_QUIT, userId, null);
+    }
+
+    /**
+     * Loads a game from the cold table and logs it. Its cold record is freed once the log record is durable.
+     */
+    @Override
+    public synchronized Game unpark(long userId) {
+        if (cold == null) {
+            return null;
+        }
+        int slot = cold.slot(userId);
+        if (slot == -1) {
+            return null;
+        }
+
+        GameSave save = GameTable.read(cold.record(slot));
+        enqueue(SaveCodec.TYPE_GAME, userId, save).thenRun(() -> cold.free(userId, slot));
+        return new Game(save);
+    }
+
+    private void writeCold(GameSave save) throws IOException {
+        if (cold == null) {
+            cold = GameTable.open(coldFile);
+        }
+        GameTable.write(cold.record(cold.allocate(save.userId())), save);
+    }
+
+    /**
+     * Logs every game that changed since it was last logged, and compacts the log if it is too long.
+     * @param games All active games.
+     * @throws IOException If the log or snapshot couldn't be written.
+     */
+    @Override
+    public void flush(GameRegistry games) throws IOException {
+        checkOpen();
+        CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+        synchronized (this) {
+            long saveTime = System.currentTimeMillis();
+            for (long id : games.userIds()) {
+                Game game = games.get(id);
+                // Quit during the flush, or hasn't sent its message yet
+                if (game == null || !game.hasMessage()) {
+                    continue;
+                }
+
+                synchronized (game) {
+                    if (game.clearDirty()) {
+                        last = enqueue(SaveCodec.TYPE_GAME, id, game.toSave(saveTime));
+                    }
+                }
+            }
+        }
+        // Records are written in order, so the last one being written means they all are
+        join(last);
+
+        if (journalRecords > Math.max(MIN_COMPACTION_RECORDS, games.size())) {
+            compact(games);
+        }
+    }
+
+    /**
+     * Starts a new log segment, writes every game to a new snapshot, and deletes the old segments. Only the new
+     * segment and the copy of the games are made under the store's lock, so games can still be logged while the
+     * snapshot is written and synced.
+     * @param games All active games.
+     * @throws IOException If the log or snapshot couldn't be written.
+     */
+    public void compact(GameRegistry games) throws IOException {
+        checkOpen();
+        synchronized (compactionLock) {
+            long firstSegment;
+            List<GameSave> saves = new ArrayList<>(games.size());
+            synchronized (this) {
+                // Everything logged before this is in the older segments, and is older than the snapshot below
+                CompletableFuture<Void> rolled = new CompletableFuture<>();
+                queue.add(new Pending((byte) 0, 0, null, rolled));
+                join(rolled);
+                firstSegment = segment;
+
+                long saveTime = System.currentTimeMillis();
+                for (long id : games.userIds()) {
+                    Game game = games.get(id);
+                    if (game == null || !game.hasMessage()) {
+                        continue;
+                    }
+
+                    // Dirty flags are left alone, changes after the records in the new segment still need to be logged
+                    saves.add(game.toSave(saveTime));
+                }
+            }
+
+            // Anything logged from here on is in the new segment, which is replayed after the snapshot
+            writeSnapshot(saves, firstSegment);
+            deleteSegmentsBefore(journalPrefix, firstSegment);
+        }
+    }
+
+    /**
+     * Reads every saved game from the snapshot and the log segments after it.
+     * @return The saved games, keyed by the Discord id of the user playing them.
+     * @throws IOException If the snapshot or log couldn't be read.
+     * @throws ParseException If an old saves.json file is being imported and isn't valid JSON.
+     */
+    public synchronized Map<Long, GameSave> load() throws IOException, ParseException {
+        LinkedHashMap<Long, GameSave> games = new LinkedHashMap<>();
+        journalRecords = 0;
+        bytesLoaded = 0;
+        loaded = false;
+
+        if (!Files.exists(snapshotFile) && importLegacy && Files.exists(Path.of(LEGACY_SNAPSHOT))) {
+            importLegacy(games);
+            loaded = true;
+            return games;
+        }
+
+        // Without a snapshot, every game is in the log, e.g. before the first compaction
+        long firstSegment = 0;
+        if (Files.exists(snapshotFile)) {
+            try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ);
+                 SaveCodec.Reader reader = new SaveCodec.Reader(channel)) {
+                firstSegment = reader.getJournalSegment();
+                snapshotSegment = firstSegment;
+                while (reader.next()) {
+                    games.put(reader.getUserId(), reader.getSave());
+                }
+                if (reader.isTorn()) {
+                    // Snapshots are only ever replaced whole, so this is disk corruption rather than a crash
+                    throw new IOException(snapshotFile + " is corrupted");
+                }
+                bytesLoaded += channel.size();
+            }
+        }
+
+        // A crash after the snapshot was replaced can leave segments that it already contains
+        deleteSegmentsBefore(journalPrefix, firstSegment);
+
+        for (File file : segments(journalPrefix).values()) {
+            replay(file, games);
+            bytesLoaded += file.length();
+        }
+        loaded = true;
+        return games;
+    }
+
+    /**
+     * Reads every saved game like {@link #load()}, along with the parked games, e.g. to move them somewhere else.
+     * @return The saved games, keyed by the Discord id of the user playing them.
+     * @throws IOException If the snapshot, log, or cold table couldn't be read.
+     * @throws ParseException If an old saves.json file is being imported and isn't valid JSON.
+     */
+    public synchronized Map<Long, GameSave> loadAll() throws IOException, ParseException {
+        Map<Long, GameSave> games = load();
+        if (!Files.exists(coldFile)) {
+            return games;
+        }
+
+        try (GameTable table = GameTable.open(coldFile)) {
+            for (int slot : table.usedSlots()) {
+                GameSave save = GameTable.read(table.record(slot));
+                GameSave logged = games.get(save.userId());
+                if (logged == null || save.saveTime() > logged.saveTime()) {
+                    games.put(save.userId(), save);
+                }
+            }
+        }
+        return games;
+    }
+
+    /**
+     * Returns the amount of bytes written to the log and snapshots since the store was created.
+     */
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * Returns the size of the snapshot and log segments that the last {@link #load()} read, in bytes.
+     */
+    @Override
+    public long getBytesLoaded() {
+        return bytesLoaded;
+    }
+
+    /**
+     * Replaces everything saved with the given games, e.g. when games are moved between shards.
+     * Must be called before {@link #open()}.
+     * @param saves The games to keep.
+     * @throws IOException If the snapshot couldn't be written.
+     */
+    public synchronized void replaceAll(Collection<GameSave> saves) throws IOException {
+        long firstSegment = lastSegment(journalPrefix) + 1;
+        writeSnapshot(saves, firstSegment);
+        deleteSegmentsBefore(journalPrefix, firstSegment);
+    }
+
+    /**
+     * Deletes the snapshot and every log segment, e.g. after the games were moved to other shards.
+     * Must be called before {@link #open()}.
+     * @throws IOException If a file couldn't be deleted.
+     */
+    public synchronized void delete() throws IOException {
+        Files.deleteIfExists(snapshotFile);
+        Files.deleteIfExists(coldFile);
+        deleteSegmentsBefore(journalPrefix, Long.MAX_VALUE);
+    }
+
+    /**
+     * Renames the snapshot and every log segment with a .bak extension, e.g. after they were imported into a
+     * {@link GameTable}. Must be called before {@link #open()}.
+     * @throws IOException If a file couldn't be renamed.
+     */
+    public synchronized void backUp() throws IOException {
+        if (Files.exists(snapshotFile)) {
+            Files.move(snapshotFile, snapshotFile.resolveSibling(snapshotFile.getFileName() + ".bak"),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (Files.exists(coldFile)) {
+            Files.move(coldFile, coldFile.resolveSibling(coldFile.getFileName() + ".bak"),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        for (File file : segments(journalPrefix).values()) {
+            Files.move(file.toPath(), file.toPath().resolveSibling(file.getName() + ".bak"),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Applies every record in a log segment. A record that was cut off or doesn't match its checksum was torn by a
+     * crash while it was being written, and is the last record in the segment. Its event was never acknowledged.
+     */
+    private void replay(File file, Map<Long, GameSave> games) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // Crashed before the header was synced
+            if (channel.size() < SaveCodec.HEADER_SIZE) {
+                return;
+            }
+
+            SaveCodec.Reader reader = new SaveCodec.Reader(channel);
+            while (reader.next()) {
+                if (reader.getType() == SaveCodec.TYPE_QUIT) {
+                    games.remove(reader.getUserId());
+                } else {
+                    games.put(reader.getUserId(), reader.getSave());
+                }
+                journalRecords++;
+            }
+            if (reader.isTorn()) {
+                System.out.println("Skipping torn record in " + file.getName());
+            }
+        }
+    }
+
+    /**
+     * Reads saves.json and its journal from before the binary format, writes them to a binary snapshot, and renames
+     * the old files so they aren't imported again.
+     */
+    private void importLegacy(Map<Long, GameSave> games) throws IOException, ParseException {
+        JSONParser parser = new JSONParser();
+        long firstSegment = 0;
+
+        try (FileReader reader = new FileReader(LEGACY_SNAPSHOT, StandardCharsets.UTF_8)) {
+            JSONObject saves = (JSONObject) parser.parse(reader);
+            if (saves.containsKey("last-saved")) {
+                long lastSaved = (long) saves.get("last-saved");
+
+                JSONObject gamesObj = (JSONObject) saves.get("games");
+                for (Object obj : gamesObj.keySet()) {
+                    long id = Long.parseLong((String) obj);
+                    games.put(id, GameSave.fromJSON(id, (JSONObject) gamesObj.get(obj), lastSaved));
+                }
+            }
+            if (saves.containsKey("journal-segment")) {
+                firstSegment = (long) saves.get("journal-segment");
+            }
+        }
+
+        for (File file : segments(LEGACY_JOURNAL).tailMap(firstSegment).values()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    JSONObject record;
+                    try {
+                        record = (JSONObject) parser.parse(line);
+                    } catch (ParseException | RuntimeException e) {
+                        // Torn by a crash
+                        break;
+                    }
+
+                    long id = Long.parseLong((String) record.get("id"));
+                    if (record.containsKey("quit")) {
+                        games.remove(id);
+                    } else {
+                        games.put(id, GameSave.fromJSON(id, (JSONObject) record.get("game"), (long) record.get("saved")));
+                    }
+                }
+            }
+        }
+
+        writeSnapshot(games.values(), lastSegment(journalPrefix) + 1);
+
+        Files.move(Path.of(LEGACY_SNAPSHOT), Path.of(LEGACY_SNAPSHOT + ".bak"), StandardCopyOption.REPLACE_EXISTING);
+        for (File file : segments(LEGACY_JOURNAL).values()) {
+            Files.move(file.toPath(), Path.of(file.getPath() + ".bak"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        System.out.println("Imported " + games.size() + " games from " + LEGACY_SNAPSHOT);
+    }
+
+    /**
+     * Writes a snapshot to a temporary file, then replaces the old snapshot in one step.
+     */
+    private void writeSnapshot(Iterable<GameSave> saves, long firstSegment) throws IOException {
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            try (SaveCodec.Writer writer = new SaveCodec.Writer(channel, firstSegment)) {
+                for (GameSave save : saves) {
+                    writer.write(save);
+                }
+            }
+            channel.force(true);
+            bytesWritten.add(channel.size());
+        }
+        Files.move(temp, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // The rename is only durable once the directory is synced, and the old segments are deleted after this
+        syncDirectory(snapshotFile);
+        snapshotSegment = firstSegment;
+    }
+
+    private CompletableFuture<Void> enqueue(byte type, long userId, GameSave save) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        queue.add(new Pending(type, userId, save, written));
+        return written;
+    }
+
+    /**
+     * Writes records in batches on the writer thread, with one sync per batch.
+     */
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                // Records are written up to a segment roll, synced, and then the roll (if any) is done
+                int start = 0;
+                while (start < batch.size()) {
+                    int end = start;
+                    while (end < batch.size() && batch.get(end).type() != 0) {
+                        end++;
+                    }
+
+                    writeBatch(batch.subList(start, end));
+                    if (end < batch.size()) {
+                        roll(batch.get(end).written());
+                        end++;
+                    }
+                    start = end;
+                }
+            } catch (RuntimeException e) {
+                // Nothing waiting on this batch may hang, and the thread must keep writing the next one
+                e.printStackTrace();
+                for (Pending record : batch) {
+                    record.written().completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes and syncs records to the current segment. If that fails, it's retried once in a new segment, and the
+     * futures of the records fail if that doesn't work either.
+     */
+    private void writeBatch(List<Pending> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+
+        Exception failure = null;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            long start = -1;
+            try {
+                // Quit records of parked games must not be durable before their cold records
+                GameTable cold = this.cold;
+                if (cold != null) {
+                    cold.force();
+                }
+
+                start = journal.position();
+                for (Pending record : records) {
+                    if (record.type() == SaveCodec.TYPE_QUIT) {
+                        journalWriter.writeQuit(record.userId());
+                    } else {
+                        journalWriter.write(record.save());
+                    }
+                }
+                journalWriter.flush();
+                journal.force(false);
+                bytesWritten.add(journal.position() - start);
+
+                journalRecords += records.size();
+                for (Pending record : records) {
+                    record.written().complete(null);
+                }
+                return;
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                failure = e;
+                recover(start);
+            }
+        }
+
+        for (Pending record : records) {
+            record.written().completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * Cleans up after a batch couldn't be written. Whatever part of it reached the segment is cut off, since replay
+     * stops at the first torn record and would skip every record written after it. Then a new segment is started,
+     * in case the old one can't be written anymore.
+     * @param start The position in the segment the batch started at, or -1 if nothing was written.
+     */
+    private void recover(long start) {
+        journalWriter.discard();
+        if (start != -1) {
+            try {
+                journal.truncate(start);
+                journal.position(start);
+            } catch (IOException e) {
+                // The torn part is left at the end of the old segment, nothing is written after it
+                e.printStackTrace();
+            }
+        }
+
+        try {
+            nextSegment();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void roll(CompletableFuture<Void> rolled) {
+        try {
+            nextSegment();
+            journalRecords = 0;
+            rolled.complete(null);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            rolled.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Opens the next log segment, and only closes the current one once it's open, so the current one is still
+     * written to if that fails.
+     */
+    private void nextSegment() throws IOException {
+        FileChannel old = journal;
+        openSegment(segment + 1);
+        segment++;
+        try {
+            old.close();
+        } catch (IOException e) {
+            // Everything in it was synced already
+            e.printStackTrace();
+        }
+    }
+
+    private void openSegment(long number) throws IOException {
+        Path file = Path.of(journalPrefix + "." + number);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            SaveCodec.Writer writer = new SaveCodec.Writer(channel, 0);
+            writer.flush();
+            // Otherwise the segment could be gone after a power loss, along with every record synced to it
+            syncDirectory(file);
+            journal = channel;
+            journalWriter = writer;
+        } catch (IOException e) {
+            // So the next attempt can create it again
+            channel.close();
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns every log segment with a certain prefix on disk, ordered by number.
+     */
+    private static TreeMap<Long, File> segments(String journalPrefix) {
+        TreeMap<Long, File> segments = new TreeMap<>();
+        File journalFile = new File(journalPrefix).getAbsoluteFile();
+        String prefix = journalFile.getName() + ".";
+
+        File[] files = journalFile.getParentFile().listFiles((dir, name) -> name.startsWith(prefix));
+        if (files == null) {
+            return segments;
+        }
+        for (File file : files) {
+            try {
+                segments.put(Long.parseLong(file.getName().substring(prefix.length())), file);
+            } catch (NumberFormatException ignored) {
+                // Not a segment
+            }
+        }
+        return segments;
+    }
+
+    private static long lastSegment(String journalPrefix) {
+        TreeMap<Long, File> segments = segments(journalPrefix);
+        return segments.isEmpty() ? 0 : segments.lastKey();
+    }
+
+    /**
+     * Deletes the log segments before a certain one. The directory is synced first, so that the snapshot and the
+     * segments that replace them are durable before they're gone.
+     */
+    private static void deleteSegmentsBefore(String journalPrefix, long number) throws IOException {
+        Collection<File> files = segments(journalPrefix).headMap(number).values();
+        if (files.isEmpty()) {
+            return;
+        }
+
+        syncDirectory(Path.of(journalPrefix));
+        for (File file : files) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * Syncs the directory a file is in, which makes creating, renaming, or deleting the file durable.
+     * @param file The file.
+     * @throws IOException If the directory couldn't be synced.
+     */
+    static void syncDirectory(Path file) throws IOException {
+        try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+    }
+
+    /**
+     * Throws if the writer thread wasn't started, since nothing queued would be written.
+     */
+    private void checkOpen() throws IOException {
+        if (writer == null) {
+            throw new IOException("The store isn't open");
+        }
+    }
+
+    private static void join(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.join();
+        } catch (Exception e) {
+            throw new IOException(e.getCause() != null ? e.getCause() : e);
+        }
+    }
+}
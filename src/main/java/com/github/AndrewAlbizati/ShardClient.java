@@ -0,0 +1,129 @@
+package com.github.AndrewAlbizati;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Sends requests to other shards' {@link ShardServer}s, as JSON over HTTP, with the secret every shard shares.
+ */
+public class ShardClient {
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    // Shard servers only speak HTTP/1.1, so don't offer an upgrade with every request
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(TIMEOUT)
+            .build();
+    private final List<String> addresses;
+    private final String secret;
+
+    /**
+     * The top of a shard's leaderboard.
+     * @param entries The shard's games with the most cookies, most first.
+     * @param size The amount of games on the shard.
+     * @param cookiesBits The cookies of the user that was asked about as a {@link BigNumber}, or
+     *                    {@link Leaderboard#NOT_RANKED} if the shard doesn't have their game.
+     */
+    public record ShardTop(List<Leaderboard.Entry> entries, int size, long cookiesBits) {
+    }
+
+    /**
+     * @param addresses The host:port of every shard's server, in order of shard id.
+     * @param secret The secret every shard shares, see {@link ShardServer}.
+     */
+    public ShardClient(List<String> addresses, String secret) {
+        this.addresses = addresses;
+        this.secret = secret;
+    }
+
+    public int getShardCount() {
+        return addresses.size();
+    }
+
+    /**
+     * Runs a command on the shard that owns the user's game.
+     * @return A future that completes with the command's response.
+     */
+    public CompletableFuture<String> command(int shard, String command, long userId, Map<String, Object> options) {
+        JSONObject body = new JSONObject();
+        body.put("command", command);
+        body.put("user", userId);
+        body.put("options", new JSONObject(options));
+        return post(shard, "/command", body).thenApply(response -> (String) response.get("response"));
+    }
+
+    /**
+     * Adds a cookie to a game on the shard that owns it.
+     * @return A future that completes with false if the user isn't playing.
+     */
+    public CompletableFuture<Boolean> click(int shard, long userId) {
+        JSONObject body = new JSONObject();
+        body.put("user", userId);
+        return post(shard, "/click", body).thenApply(response -> (Boolean) response.get("playing"));
+    }
+
+    /**
+     * Returns the top of a shard's leaderboard, and a user's cookies if the shard has their game.
+     */
+    public CompletableFuture<ShardTop> top(int shard, int k, long time, long userId) {
+        return get(shard, "/top?k=" + k + "&time=" + time + "&user=" + userId).thenApply(response -> {
+            List<Leaderboard.Entry> entries = new ArrayList<>();
+            for (Object obj : (JSONArray) response.get("entries")) {
+                JSONObject entry = (JSONObject) obj;
+                entries.add(new Leaderboard.Entry((long) entry.get("user"), (long) entry.get("cookies")));
+            }
+            Object cookies = response.get("cookies");
+            return new ShardTop(entries, ((Number) response.get("size")).intValue(),
+                    cookies == null ? Leaderboard.NOT_RANKED : (long) cookies);
+        });
+    }
+
+    /**
+     * Counts the games on a shard with more cookies than some amount, given as a {@link BigNumber}.
+     */
+    public CompletableFuture<Integer> countAbove(int shard, long cookiesBits, long time) {
+        return get(shard, "/count-above?cookies=" + cookiesBits + "&time=" + time)
+                .thenApply(response -> ((Number) response.get("count")).intValue());
+    }
+
+    private CompletableFuture<JSONObject> get(int shard, String path) {
+        return send(request(shard, path).GET().build());
+    }
+
+    private CompletableFuture<JSONObject> post(int shard, String path, JSONObject body) {
+        return send(request(shard, path).POST(HttpRequest.BodyPublishers.ofString(body.toJSONString())).build());
+    }
+
+    private HttpRequest.Builder request(int shard, String path) {
+        return HttpRequest.newBuilder(URI.create("http://" + addresses.get(shard) + path))
+                .timeout(TIMEOUT)
+                .header(ShardServer.SECRET_HEADER, secret);
+    }
+
+    private CompletableFuture<JSONObject> send(HttpRequest request) {
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+            if (response.statusCode() != 200) {
+                throw new CompletionException(new IOException(request.uri() + " failed (" + response.statusCode() + "): " + response.body()));
+            }
+            try {
+                return (JSONObject) new JSONParser().parse(response.body());
+            } catch (ParseException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,161 @@
+package com.github.AndrewAlbizati;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Splits games between bot processes by the Discord id of the user playing them. Each shard owns the games of the
+ * users that hash to it, and saves them to its own files.
+ * <p>
+ * A single shard keeps the original save files (saves.dat and saves.wal.N), shards of a larger bot use
+ * saves.shardI.dat and saves.shardI.wal.N (or saves.table and saves.shardI.table with the mapped store). The amount of shards the saves are split into is kept in
+ * shards.properties, and is changed by {@link Rebalancer}.
+ */
+public final class ShardMap {
+    private static final String SHARDS_FILE = "shards.properties";
+
+    public static final ShardMap SINGLE = new ShardMap(0, 1);
+
+    private final int shardId;
+    private final int shardCount;
+
+    /**
+     * @param shardId This process's shard, from 0 to shardCount - 1.
+     * @param shardCount The amount of shards.
+     */
+    public ShardMap(int shardId, int shardCount) {
+        if (shardCount < 1 || shardId < 0 || shardId >= shardCount) {
+            throw new IllegalArgumentException("Shard " + shardId + " of " + shardCount + " doesn't exist");
+        }
+        this.shardId = shardId;
+        this.shardCount = shardCount;
+    }
+
+    public int getShardId() {
+        return shardId;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public boolean isSharded() {
+        return shardCount > 1;
+    }
+
+    /**
+     * Returns the shard that owns a user's game.
+     * @param userId The Discord id of the user.
+     */
+    public int owner(long userId) {
+        return shardOf(userId, shardCount);
+    }
+
+    public boolean owns(long userId) {
+        return owner(userId) == shardId;
+    }
+
+    /**
+     * Returns the shard that owns a user's game for some amount of shards.
+     * Discord ids are mostly a timestamp, so they're mixed first for games to be spread evenly.
+     */
+    public static int shardOf(long userId, int shardCount) {
+        long h = userId;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) Math.floorMod(h, (long) shardCount);
+    }
+
+    public static String snapshotFile(int shardId, int shardCount) {
+        return shardCount == 1 ? "saves.dat" : "saves.shard" + shardId + ".dat";
+    }
+
+    public static String journalPrefix(int shardId, int shardCount) {
+        return shardCount == 1 ? "saves.wal" : "saves.shard" + shardId + ".wal";
+    }
+
+    /**
+     * Creates the save store of a shard. Only a single shard imports saves from before the binary format.
+     */
+    public static SaveStore createSaveStore(int shardId, int shardCount) {
+        return new SaveStore(snapshotFile(shardId, shardCount), journalPrefix(shardId, shardCount), shardCount == 1);
+    }
+
+    public SaveStore createSaveStore() {
+        return createSaveStore(shardId, shardCount);
+    }
+
+    public static String tableFile(int shardId, int shardCount) {
+        return shardCount == 1 ? "saves.table" : "saves.shard" + shardId + ".table";
+    }
+
+    /**
+     * Creates the memory-mapped game store of a shard, which imports the shard's log-based saves the first time.
+     */
+    public static MappedGameStore createMappedStore(int shardId, int shardCount) {
+        return new MappedGameStore(tableFile(shardId, shardCount), createSaveStore(shardId, shardCount));
+    }
+
+    /**
+     * Creates this shard's game store.
+     * @param mapped True for a {@link MappedGameStore}, false for a {@link SaveStore}.
+     */
+    public GameStore createGameStore(boolean mapped) {
+        return mapped ? createMappedStore(shardId, shardCount) : createSaveStore();
+    }
+
+    /**
+     * Returns the amount of shards the saves are split into. Saves from before sharding belong to a single shard.
+     * @return The amount of shards, or 0 if nothing has been saved yet.
+     * @throws IOException If shards.properties couldn't be read.
+     */
+    public static int readSavedShardCount() throws IOException {
+        File file = new File(SHARDS_FILE);
+        if (!file.exists()) {
+            File[] saves = new File(".").listFiles((dir, name) -> name.startsWith("saves."));
+            return saves == null || saves.length == 0 ? 0 : 1;
+        }
+
+        Properties prop = new Properties();
+        try (FileInputStream ip = new FileInputStream(file)) {
+            prop.load(ip);
+        }
+        try {
+            return Integer.parseInt(prop.getProperty("shard-count", "1"));
+        } catch (NumberFormatException e) {
+            throw new IOException(SHARDS_FILE + " is corrupted", e);
+        }
+    }
+
+    public static void writeSavedShardCount(int shardCount) throws IOException {
+        // Replaced in one step, shards that start at the same time may write it at once
+        Path temp = Files.createTempFile(Path.of("").toAbsolutePath(), SHARDS_FILE, ".tmp");
+        try (FileWriter fw = new FileWriter(temp.toFile())) {
+            fw.write("shard-count=" + shardCount + "\n");
+        }
+        Files.move(temp, Path.of(SHARDS_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Makes sure the saves are split into as many shards as this bot has, so no games are missed.
+     * @throws IOException If the saves are split differently, and need to be rebalanced first.
+     */
+    public void checkSavedShardCount() throws IOException {
+        int saved = readSavedShardCount();
+        if (saved == 0) {
+            writeSavedShardCount(shardCount);
+        } else if (saved != shardCount) {
+            throw new IOException("Games are saved in " + saved + " shards, but the bot has " + shardCount
+                    + ". Run the bot with \"rebalance " + shardCount + "\" first.");
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.github.AndrewAlbizati;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Answers other shards' requests for the games this shard owns, see {@link ShardClient}.
+ * Commands and clicks are routed by {@link Bot} the same way as ones from Discord, so requests that reach the wrong
+ * shard are still handled.
+ * <p>
+ * Requests act as any user, so the server only listens on this shard's own address from shard-peers, and rejects
+ * requests without the shared secret in their {@link #SECRET_HEADER} header.
+ */
+public class ShardServer {
+    // Connections waiting to be accepted, every shard may open many at once when shard 0 forwards a burst of clicks
+    private static final int BACKLOG = 1024;
+    // Header that every request must send the shard secret in
+    static final String SECRET_HEADER = "X-Shard-Secret";
+
+    private final Bot bot;
+    private final byte[] secret;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    /**
+     * @param bot The bot that owns this shard's games.
+     * @param host The host to listen on, e.g. this shard's address on the network between shards.
+     * @param port The port to listen on.
+     * @param secret The secret every shard shares, which requests must send.
+     * @throws IOException If the port couldn't be opened.
+     */
+    public ShardServer(Bot bot, String host, int port, String secret) throws IOException {
+        this.bot = bot;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress(host, port), BACKLOG);
+        server.setExecutor(executor);
+
+        server.createContext("/command", exchange -> handle(exchange, this::command));
+        server.createContext("/click", exchange -> handle(exchange, this::click));
+        server.createContext("/top", exchange -> handle(exchange, this::top));
+        server.createContext("/count-above", exchange -> handle(exchange, this::countAbove));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private CompletableFuture<JSONObject> command(HttpExchange exchange) throws Exception {
+        JSONObject body = readBody(exchange);
+        Map<String, Object> options = new HashMap<>();
+        for (Object obj : ((JSONObject) body.get("options")).entrySet()) {
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) obj;
+            options.put((String) entry.getKey(), entry.getValue());
+        }
+
+        RemoteInteraction interaction = new RemoteInteraction((long) body.get("user"), options);
+        return bot.command((String) body.get("command"), interaction)
+                .thenCompose(v -> interaction.getResponse())
+                .thenApply(response -> {
+                    JSONObject result = new JSONObject();
+                    result.put("response", response);
+                    return result;
+                });
+    }
+
+    private CompletableFuture<JSONObject> click(HttpExchange exchange) throws Exception {
+        long userId = (long) readBody(exchange).get("user");
+        return bot.handleClick(userId).thenApply(playing -> {
+            JSONObject result = new JSONObject();
+            result.put("playing", playing);
+            return result;
+        });
+    }
+
+    private CompletableFuture<JSONObject> top(HttpExchange exchange) {
+        Map<String, String> query = readQuery(exchange);
+        int k = Integer.parseInt(query.get("k"));
+        long time = Long.parseLong(query.get("time"));
+        long userId = Long.parseLong(query.get("user"));
+        // Clicks since the last fold tick count as well
+        bot.getGames().rankClicked();
+        Leaderboard leaderboard = bot.getGames().getLeaderboard();
+
+        JSONArray entries = new JSONArray();
+        for (Leaderboard.Entry entry : leaderboard.top(k, time)) {
+            JSONObject object = new JSONObject();
+            object.put("user", entry.userId());
+            object.put("cookies", entry.cookiesBits());
+            entries.add(object);
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("entries", entries);
+        result.put("size", leaderboard.size());
+        // Cookies are sent as the bits of a BigNumber, so they're exact past Double.MAX_VALUE
+        long cookies = leaderboard.getCookiesBits(userId, time);
+        if (cookies != Leaderboard.NOT_RANKED) {
+            result.put("cookies", cookies);
+        }
+        return CompletableFuture.completedFuture(result);
+    }
+
+    private CompletableFuture<JSONObject> countAbove(HttpExchange exchange) {
+        Map<String, String> query = readQuery(exchange);
+        bot.getGames().rankClicked();
+        JSONObject result = new JSONObject();
+        result.put("count", bot.getGames().getLeaderboard().countAbove(
+                Long.parseLong(query.get("cookies")), Long.parseLong(query.get("time"))));
+        return CompletableFuture.completedFuture(result);
+    }
+
+    private interface Handler {
+        CompletableFuture<JSONObject> handle(HttpExchange exchange) throws Exception;
+    }
+
+    /**
+     * Runs a handler and sends its result once it completes, without holding a server thread while it waits.
+     * Requests without the shard secret are rejected before they're read.
+     */
+    private void handle(HttpExchange exchange, Handler handler) {
+        if (!isAuthorized(exchange)) {
+            try {
+                send(exchange, 401, "Missing or wrong " + SECRET_HEADER);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        CompletableFuture<JSONObject> result;
+        try {
+            result = handler.handle(exchange);
+        } catch (Exception e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+
+        result.whenComplete((response, e) -> {
+            try {
+                if (e != null) {
+                    e.printStackTrace();
+                    send(exchange, 500, String.valueOf(e.getMessage()));
+                } else {
+                    send(exchange, 200, response.toJSONString());
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+    }
+
+    private boolean isAuthorized(HttpExchange exchange) {
+        String sent = exchange.getRequestHeaders().getFirst(SECRET_HEADER);
+        // Compares in constant time, so the secret can't be guessed a byte at a time
+        return sent != null && MessageDigest.isEqual(secret, sent.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static JSONObject readBody(HttpExchange exchange) throws Exception {
+        try (InputStream is = exchange.getRequestBody()) {
+            return (JSONObject) new JSONParser().parse(new String(is.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Map<String, String> readQuery(HttpExchange exchange) {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw != null) {
+            for (String pair : raw.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals != -1) {
+                    query.put(pair.substring(0, equals), pair.substring(equals + 1));
+                }
+            }
+        }
+        return query;
+    }
+}
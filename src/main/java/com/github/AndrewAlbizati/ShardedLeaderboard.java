@@ -0,0 +1,106 @@
+package com.github.AndrewAlbizati;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The leaderboard of every shard, for /help. The global top k is always within the union of each shard's top k,
+ * so each shard sends only its top k, and a user's place is one plus the games with more cookies on every shard.
+ * Shards that don't answer are left out rather than failing /help.
+ */
+public class ShardedLeaderboard {
+    private final ShardMap shards;
+    private final GameRegistry games;
+    private final ShardClient peers;
+
+    /**
+     * The top of the leaderboard as seen by one user.
+     * @param top The games with the most cookies, most first.
+     * @param rank The user's place, starting at 1, or 0 if they aren't playing.
+     * @param size The amount of games on the leaderboard.
+     */
+    public record Ranking(List<Leaderboard.Entry> top, int rank, int size) {
+    }
+
+    /**
+     * @param shards This process's shard.
+     * @param games This shard's games.
+     * @param peers Used to reach the other shards, or null if there's a single shard.
+     */
+    public ShardedLeaderboard(ShardMap shards, GameRegistry games, ShardClient peers) {
+        this.shards = shards;
+        this.games = games;
+        this.peers = peers;
+    }
+
+    /**
+     * Ranks a user against every game on every shard.
+     * @param userId The Discord id of the user.
+     * @param k The maximum amount of games to return.
+     * @param time The time to project cookies to, in milliseconds.
+     * @return A future that completes with the ranking.
+     */
+    public CompletableFuture<Ranking> ranking(long userId, int k, long time) {
+        // Clicks since the last fold tick count as well
+        games.rankClicked();
+        Leaderboard local = games.getLeaderboard();
+        if (!shards.isSharded()) {
+            return CompletableFuture.completedFuture(new Ranking(local.top(k, time), local.rank(userId, time), local.size()));
+        }
+
+        List<CompletableFuture<ShardClient.ShardTop>> tops = new ArrayList<>(shards.getShardCount());
+        for (int shard = 0; shard < shards.getShardCount(); shard++) {
+            if (shard == shards.getShardId()) {
+                tops.add(CompletableFuture.completedFuture(new ShardClient.ShardTop(local.top(k, time), local.size(),
+                        local.getCookiesBits(userId, time))));
+            } else {
+                tops.add(peers.top(shard, k, time, userId).exceptionally(ShardedLeaderboard::missingShard));
+            }
+        }
+
+        return CompletableFuture.allOf(tops.toArray(new CompletableFuture[0])).thenCompose(v -> {
+            List<Leaderboard.Entry> merged = new ArrayList<>();
+            int size = 0;
+            long cookies = Leaderboard.NOT_RANKED;
+            for (CompletableFuture<ShardClient.ShardTop> future : tops) {
+                ShardClient.ShardTop top = future.join();
+                merged.addAll(top.entries());
+                size += top.size();
+                if (top.cookiesBits() != Leaderboard.NOT_RANKED) {
+                    cookies = top.cookiesBits();
+                }
+            }
+            merged.sort((a, b) -> BigNumber.compare(b.cookiesBits(), a.cookiesBits()));
+            List<Leaderboard.Entry> top = new ArrayList<>(merged.subList(0, Math.min(k, merged.size())));
+            int total = size;
+
+            // User isn't playing
+            if (cookies == Leaderboard.NOT_RANKED) {
+                return CompletableFuture.completedFuture(new Ranking(top, 0, total));
+            }
+
+            // Count the games above the user on every shard
+            List<CompletableFuture<Integer>> counts = new ArrayList<>(shards.getShardCount());
+            for (int shard = 0; shard < shards.getShardCount(); shard++) {
+                if (shard == shards.getShardId()) {
+                    counts.add(CompletableFuture.completedFuture(local.countAbove(cookies, time)));
+                } else {
+                    counts.add(peers.countAbove(shard, cookies, time).exceptionally(e -> 0));
+                }
+            }
+            return CompletableFuture.allOf(counts.toArray(new CompletableFuture[0])).thenApply(w -> {
+                int above = 0;
+                for (CompletableFuture<Integer> count : counts) {
+                    above += count.join();
+                }
+                return new Ranking(top, above + 1, total);
+            });
+        });
+    }
+
+    private static ShardClient.ShardTop missingShard(Throwable e) {
+        e.printStackTrace();
+        return new ShardClient.ShardTop(List.of(), 0, Leaderboard.NOT_RANKED);
+    }
+}
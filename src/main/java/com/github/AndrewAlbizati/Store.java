@@ -0,0 +1,103 @@
+package com.github.AndrewAlbizati;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * All information about the store, parsed once from store.json into arrays indexed by Items.ordinal().
+ * The "store" system property loads another file instead, e.g. to try a catalog in the simulator.
+ */
+public final class Store {
+    public static final int SIZE = Items.values().length;
+
+    private static final String[] keys = new String[SIZE];
+    private static final double[] cps = new double[SIZE];
+    private static final long[] basePrice = new long[SIZE];
+    private static final String[] descriptions = new String[SIZE];
+
+    // Static parts of each item's embed field, so that renders only format the numbers
+    private static final String[] fieldNamePrefixes = new String[SIZE];
+    private static final String[] fieldValuePrefixes = new String[SIZE];
+
+    static {
+        // Get all information about the store (saved locally in resources)
+        try {
+            String path = System.getProperty("store");
+            InputStream jsonStream = path == null ? Store.class.getResourceAsStream("/store.json") : new FileInputStream(path);
+            if (jsonStream == null) {
+                throw new NullPointerException("store.json is null");
+            }
+
+            JSONParser parser = new JSONParser();
+            JSONObject itemData = (JSONObject) parser.parse(new InputStreamReader(jsonStream, StandardCharsets.UTF_8));
+
+            for (Items item : Items.values()) {
+                String key = item.toString().toLowerCase();
+                JSONObject data = (JSONObject) itemData.get(key);
+                if (data == null) {
+                    throw new NullPointerException(key + " is missing from store.json");
+                }
+
+                int i = item.ordinal();
+                keys[i] = key;
+                cps[i] = ((Number) data.get("cps")).doubleValue();
+                basePrice[i] = ((Number) data.get("base-price")).longValue();
+                descriptions[i] = data.get("description").toString();
+
+                fieldNamePrefixes[i] = item + " (:cookie: ";
+                fieldValuePrefixes[i] = "*" + descriptions[i] + " (" + cps[i] + " CPS)*\n**";
+            }
+        } catch (IOException | ParseException | NullPointerException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Store() {
+    }
+
+    /**
+     * Returns the key used for an item in store.json and saves.json.
+     * @param index The ordinal of the item.
+     * @return The lowercase name of the item, e.g. "alchemy lab".
+     */
+    public static String getKey(int index) {
+        return keys[index];
+    }
+
+    public static double getCPS(int index) {
+        return cps[index];
+    }
+
+    public static long getBasePrice(int index) {
+        return basePrice[index];
+    }
+
+    public static String getDescription(int index) {
+        return descriptions[index];
+    }
+
+    /**
+     * Returns the start of an item's embed field name, which is followed by its price and ")".
+     * @param index The ordinal of the item.
+     * @return The item's name and cookie emoji, e.g. "Cursor (:cookie: ".
+     */
+    public static String getFieldNamePrefix(int index) {
+        return fieldNamePrefixes[index];
+    }
+
+    /**
+     * Returns the start of an item's embed field value, which is followed by the amount owned and " owned.**".
+     * @param index The ordinal of the item.
+     * @return The item's description and CPS, in the embed's markdown.
+     */
+    public static String getFieldValuePrefix(int index) {
+        return fieldValuePrefixes[index];
+    }
+}
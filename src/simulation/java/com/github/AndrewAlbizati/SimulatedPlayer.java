@@ -0,0 +1,124 @@
+package com.github.AndrewAlbizati;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Plays one game on a simulated clock. Instead of ticking, the clock jumps straight to the next thing that happens:
+ * the moment the next item becomes affordable, or the player's next session of clicking.
+ */
+public class SimulatedPlayer {
+    static final long SECOND = 1000;
+    static final long DAY = 24 * 60 * 60 * SECOND;
+
+    // Time between clicks while the player is clicking
+    private static final long CLICK_INTERVAL = 200;
+
+    /**
+     * Production levels that count as milestones, in cookies per second.
+     */
+    static final double[] CPS_MILESTONES = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000};
+
+    /**
+     * The amount of milestones: owning the first of each item, then each production level.
+     */
+    static final int MILESTONES = Store.SIZE + CPS_MILESTONES.length;
+
+    /**
+     * The result of one game.
+     * @param strategy The strategy the player used.
+     * @param reached When each milestone was reached, in milliseconds since the game started, or -1 if it wasn't.
+     * @param cookiesPerSecond The game's production at the end.
+     * @param purchases The amount of items bought.
+     */
+    public record Result(Strategy strategy, long[] reached, double cookiesPerSecond, long purchases) {
+    }
+
+    private final Strategy strategy;
+    private final long horizon;
+    private final long clicksPerDay;
+    private final SplittableRandom random;
+
+    /**
+     * @param strategy How the player picks items.
+     * @param horizon How long to play for, in milliseconds.
+     * @param clicksPerDay The amount of clicks the player makes each day, in one session.
+     * @param random The source of the player's session times.
+     */
+    public SimulatedPlayer(Strategy strategy, long horizon, long clicksPerDay, SplittableRandom random) {
+        this.strategy = strategy;
+        this.horizon = horizon;
+        this.clicksPerDay = clicksPerDay;
+        this.random = random;
+    }
+
+    public Result play() {
+        // A new game on the simulated clock, which starts at 0
+        Game game = new Game(new GameSave(0, 0, 0, 0, 0, new long[Store.SIZE]));
+        long[] reached = new long[MILESTONES];
+        Arrays.fill(reached, -1);
+        int nextCpsMilestone = 0;
+        long purchases = 0;
+
+        long time = 0;
+        long nextSession = random.nextLong(DAY);
+        while (time < horizon) {
+            Items item = strategy.choose(game, time);
+            long affordable = item == null ? Long.MAX_VALUE : affordableAt(game, item, time);
+
+            if (nextSession <= affordable) {
+                time = nextSession;
+                for (long i = 0; i < clicksPerDay && time < horizon; i++) {
+                    game.addCookie(time);
+                    time += CLICK_INTERVAL;
+                }
+                // Same time of day, give or take an hour
+                nextSession += DAY + random.nextLong(-DAY / 24, DAY / 24);
+                nextSession = Math.max(nextSession, time);
+                continue;
+            }
+
+            time = affordable;
+            if (time >= horizon) {
+                break;
+            }
+            if (!game.buy(item, 1, time)) {
+                // Can't happen unless the cost changed, try again a moment later rather than looping forever
+                time++;
+                continue;
+            }
+            purchases++;
+
+            if (reached[item.ordinal()] == -1) {
+                reached[item.ordinal()] = time;
+            }
+            while (nextCpsMilestone < CPS_MILESTONES.length && game.getCookiesPerSecond() >= CPS_MILESTONES[nextCpsMilestone]) {
+                reached[Store.SIZE + nextCpsMilestone++] = time;
+            }
+        }
+
+        return new Result(strategy, reached, game.getCookiesPerSecond(), purchases);
+    }
+
+    /**
+     * Returns the first time the game can afford one of an item without clicking, or Long.MAX_VALUE if it never will.
+     */
+    private static long affordableAt(Game game, Items item, long time) {
+        long cost = game.getCostBits(item, 1);
+        if (PurchaseSolver.affordable(cost, game.getCookiesBits(time))) {
+            return time;
+        }
+
+        double cps = game.getCookiesPerSecond();
+        if (cps == 0 || cost == BigNumber.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        double cookies = game.getProjectedCookies(time);
+        long at = time + (long) Math.ceil((BigNumber.toDouble(cost) - cookies) * 1000 / cps);
+        // Rounding can leave it a cookie short
+        while (!PurchaseSolver.affordable(cost, game.getCookiesBits(at))) {
+            at++;
+        }
+        return at;
+    }
+}
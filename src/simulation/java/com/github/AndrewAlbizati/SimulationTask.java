@@ -0,0 +1,61 @@
+package com.github.AndrewAlbizati;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Plays a range of simulated games, splitting the range in half until it's small enough to play on one thread.
+ * Game i uses strategy i % strategies.length, and its own random stream, so results don't depend on the splits.
+ */
+public class SimulationTask extends RecursiveTask<List<SimulatedPlayer.Result>> {
+    // Games per task below which splitting costs more than it saves
+    private static final int THRESHOLD = 8;
+
+    private final Strategy[] strategies;
+    private final long horizon;
+    private final long clicksPerDay;
+    private final long seed;
+    private final int from;
+    private final int to;
+
+    /**
+     * @param strategies The strategies to play, in turn.
+     * @param horizon How long to play each game for, in milliseconds.
+     * @param clicksPerDay The average amount of clicks a player makes each day.
+     * @param seed The seed of every game's random stream.
+     * @param from The first game to play.
+     * @param to The game after the last one to play.
+     */
+    public SimulationTask(Strategy[] strategies, long horizon, long clicksPerDay, long seed, int from, int to) {
+        this.strategies = strategies;
+        this.horizon = horizon;
+        this.clicksPerDay = clicksPerDay;
+        this.seed = seed;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected List<SimulatedPlayer.Result> compute() {
+        if (to - from <= THRESHOLD) {
+            List<SimulatedPlayer.Result> results = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + i);
+                // Some players click far more than others
+                long clicks = Math.round(clicksPerDay * Math.exp(random.nextGaussian() * 0.75 - 0.28));
+                results.add(new SimulatedPlayer(strategies[i % strategies.length], horizon, clicks, random).play());
+            }
+            return results;
+        }
+
+        int middle = (from + to) >>> 1;
+        SimulationTask left = new SimulationTask(strategies, horizon, clicksPerDay, seed, from, middle);
+        SimulationTask right = new SimulationTask(strategies, horizon, clicksPerDay, seed, middle, to);
+        left.fork();
+        List<SimulatedPlayer.Result> results = right.compute();
+        results.addAll(0, left.join());
+        return results;
+    }
+}
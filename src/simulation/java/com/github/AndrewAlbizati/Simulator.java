@@ -0,0 +1,244 @@
+package com.github.AndrewAlbizati;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Plays thousands of simulated games with different strategies, and reports how long each milestone takes, so
+ * store.json can be tuned before the change ships.
+ * <p>
+ * The catalog is read once when {@link Store} loads, so each store file given with stores= is simulated in its own
+ * JVM, with the "store" system property pointing at it. Without stores=, the bot's own store.json is simulated.
+ */
+public class Simulator {
+    private static final String[] DEFAULTS = {
+            "players=500          // Games per strategy",
+            "days=60              // Length of every game, in simulated days",
+            "clicks-per-day=300   // Average clicks per player per day, some players click far more or less",
+            "strategies=GREEDY_PAYBACK,CHEAPEST,ROUND_ROBIN,HIGHEST_TIER",
+            "stores=              // Comma separated store.json files to compare, empty for the bot's own",
+            "threads=0            // Fork/join parallelism, 0 for every core",
+            "seed=1               // Seed of the players' random streams",
+            "output=simulation-results.json",
+    };
+
+    private static final double[] PERCENTILES = {0.1, 0.5, 0.9};
+
+    private final Properties options;
+
+    private Simulator(Properties options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) {
+        Properties options = new Properties();
+        for (String option : DEFAULTS) {
+            put(options, option);
+        }
+        for (String arg : args) {
+            if (!arg.contains("=") || !options.containsKey(arg.substring(0, arg.indexOf('=')))) {
+                System.out.println("Unknown option " + arg);
+                return;
+            }
+            put(options, arg);
+        }
+
+        try {
+            new Simulator(options).run();
+        } catch (IOException | InterruptedException | ParseException | IllegalArgumentException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static void put(Properties options, String option) {
+        int comment = option.indexOf("//");
+        option = (comment == -1 ? option : option.substring(0, comment)).trim();
+        options.setProperty(option.substring(0, option.indexOf('=')), option.substring(option.indexOf('=') + 1));
+    }
+
+    private int integer(String key) {
+        return Integer.parseInt(options.getProperty(key));
+    }
+
+    private void run() throws IOException, InterruptedException, ParseException {
+        String stores = options.getProperty("stores");
+        JSONObject catalogs = new JSONObject();
+        if (stores.isEmpty()) {
+            String store = System.getProperty("store", "store.json");
+            catalogs.put(store, simulate(store));
+        } else {
+            for (String store : stores.split(",")) {
+                catalogs.put(store, simulateInNewJvm(store));
+            }
+        }
+
+        JSONObject results = new JSONObject();
+        JSONObject config = new JSONObject();
+        for (String key : options.stringPropertyNames()) {
+            config.put(key, options.getProperty(key));
+        }
+        results.put("options", config);
+        results.put("catalogs", catalogs);
+
+        try (FileWriter writer = new FileWriter(options.getProperty("output"))) {
+            writer.write(results.toJSONString());
+        }
+        System.out.println("Results written to " + options.getProperty("output"));
+    }
+
+    /**
+     * Simulates the catalog {@link Store} loaded, and prints a table of the results.
+     */
+    private JSONObject simulate(String store) {
+        Strategy[] strategies = Arrays.stream(options.getProperty("strategies").split(","))
+                .map(name -> Strategy.valueOf(name.trim().toUpperCase(Locale.ROOT)))
+                .toArray(Strategy[]::new);
+        int games = integer("players") * strategies.length;
+        long horizon = integer("days") * SimulatedPlayer.DAY;
+        int threads = integer("threads") > 0 ? integer("threads") : Runtime.getRuntime().availableProcessors();
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<SimulatedPlayer.Result> results;
+        try {
+            results = pool.invoke(new SimulationTask(strategies, horizon, Long.parseLong(options.getProperty("clicks-per-day")),
+                    Long.parseLong(options.getProperty("seed")), 0, games));
+        } finally {
+            pool.shutdown();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println();
+        System.out.println(store + ": " + games + " games of " + integer("days") + " days in " + elapsedMillis + " ms on " + threads + " threads");
+        System.out.printf("%-16s %-20s %8s %9s %9s %9s%n", "strategy", "milestone", "reached", "p10 days", "p50 days", "p90 days");
+
+        JSONObject report = new JSONObject();
+        for (Strategy strategy : strategies) {
+            List<SimulatedPlayer.Result> played = new ArrayList<>();
+            for (SimulatedPlayer.Result result : results) {
+                if (result.strategy() == strategy) {
+                    played.add(result);
+                }
+            }
+            report.put(strategy.name(), summarize(strategy, played));
+        }
+
+        JSONObject catalog = new JSONObject();
+        catalog.put("elapsed-ms", elapsedMillis);
+        catalog.put("strategies", report);
+        return catalog;
+    }
+
+    /**
+     * Returns the distribution of the time to each milestone, and of the production at the end.
+     */
+    private JSONObject summarize(Strategy strategy, List<SimulatedPlayer.Result> played) {
+        JSONObject milestones = new JSONObject();
+        for (int m = 0; m < SimulatedPlayer.MILESTONES; m++) {
+            long[] times = new long[played.size()];
+            int reached = 0;
+            for (SimulatedPlayer.Result result : played) {
+                if (result.reached()[m] != -1) {
+                    times[reached++] = result.reached()[m];
+                }
+            }
+            Arrays.sort(times, 0, reached);
+
+            JSONObject milestone = new JSONObject();
+            double fraction = played.isEmpty() ? 0 : (double) reached / played.size();
+            milestone.put("reached", fraction);
+            JSONArray days = new JSONArray();
+            for (double p : PERCENTILES) {
+                // Percentiles of every game, so they're missing once too few games reached the milestone
+                int index = (int) Math.ceil(p * played.size()) - 1;
+                days.add(index < reached ? (double) times[Math.max(0, index)] / SimulatedPlayer.DAY : null);
+            }
+            milestone.put("days-p10-p50-p90", days);
+            milestones.put(milestoneName(m), milestone);
+
+            System.out.printf("%-16s %-20s %7.0f%% %9s %9s %9s%n", strategy, milestoneName(m), fraction * 100,
+                    format(days.get(0)), format(days.get(1)), format(days.get(2)));
+        }
+
+        double[] cps = new double[played.size()];
+        long purchases = 0;
+        for (int i = 0; i < played.size(); i++) {
+            cps[i] = played.get(i).cookiesPerSecond();
+            purchases += played.get(i).purchases();
+        }
+        Arrays.sort(cps);
+        JSONArray finalCps = new JSONArray();
+        for (double p : PERCENTILES) {
+            finalCps.add(cps.length == 0 ? 0.0 : cps[Math.max(0, (int) Math.ceil(p * cps.length) - 1)]);
+        }
+
+        JSONObject summary = new JSONObject();
+        summary.put("games", played.size());
+        summary.put("purchases", purchases);
+        summary.put("final-cps-p10-p50-p90", finalCps);
+        summary.put("milestones", milestones);
+        return summary;
+    }
+
+    private static String milestoneName(int milestone) {
+        if (milestone < Store.SIZE) {
+            return "first " + Store.getKey(milestone);
+        }
+        return String.format(Locale.ROOT, "%,.0f cps", SimulatedPlayer.CPS_MILESTONES[milestone - Store.SIZE]);
+    }
+
+    private static String format(Object days) {
+        return days == null ? "-" : String.format(Locale.ROOT, "%.2f", (Double) days);
+    }
+
+    /**
+     * Simulates another store file in a new JVM with the same classpath, and reads back its results.
+     */
+    private JSONObject simulateInNewJvm(String store) throws IOException, InterruptedException, ParseException {
+        if (!Files.exists(Path.of(store))) {
+            throw new IllegalArgumentException(store + " doesn't exist");
+        }
+
+        Path output = Files.createTempFile("simulation", ".json");
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Dstore=" + Path.of(store).toAbsolutePath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Simulator.class.getName());
+        for (String key : options.stringPropertyNames()) {
+            if (!key.equals("stores") && !key.equals("output")) {
+                command.add(key + "=" + options.getProperty(key));
+            }
+        }
+        command.add("output=" + output);
+
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        if (process.waitFor() != 0) {
+            throw new IOException("Simulating " + store + " failed");
+        }
+
+        try (FileReader reader = new FileReader(output.toFile(), StandardCharsets.UTF_8)) {
+            JSONObject results = (JSONObject) new JSONParser().parse(reader);
+            return (JSONObject) ((JSONObject) results.get("catalogs")).values().iterator().next();
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+}
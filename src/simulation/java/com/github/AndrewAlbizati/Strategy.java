@@ -0,0 +1,100 @@
+package com.github.AndrewAlbizati;
+
+/**
+ * How a simulated player picks the next item to buy. The player waits until it can afford the item, then buys one.
+ * Items whose price has overflowed are never picked.
+ */
+public enum Strategy {
+    /**
+     * Buys the item that pays for itself soonest, counting the time spent saving up for it.
+     */
+    GREEDY_PAYBACK {
+        @Override
+        Items choose(Game game, long time) {
+            double cookies = game.getProjectedCookies(time);
+            double cps = game.getCookiesPerSecond();
+
+            Items best = null;
+            double bestPayback = Double.MAX_VALUE;
+            for (Items item : Items.values()) {
+                long cost = game.getCostBits(item, 1);
+                if (cost == BigNumber.MAX_VALUE) {
+                    continue;
+                }
+
+                double price = BigNumber.toDouble(cost);
+                double wait = cookies >= price ? 0 : cps == 0 ? Double.MAX_VALUE : (price - cookies) / cps;
+                double payback = wait + price / Store.getCPS(item.ordinal());
+                if (payback < bestPayback) {
+                    best = item;
+                    bestPayback = payback;
+                }
+            }
+            // Nothing produces yet, so clicks have to pay for the first item
+            return best == null ? CHEAPEST.choose(game, time) : best;
+        }
+    },
+
+    /**
+     * Always buys the cheapest item.
+     */
+    CHEAPEST {
+        @Override
+        Items choose(Game game, long time) {
+            Items cheapest = null;
+            long cheapestCost = BigNumber.MAX_VALUE;
+            for (Items item : Items.values()) {
+                long cost = game.getCostBits(item, 1);
+                if (BigNumber.compare(cost, cheapestCost) < 0) {
+                    cheapest = item;
+                    cheapestCost = cost;
+                }
+            }
+            return cheapest;
+        }
+    },
+
+    /**
+     * A fixed build order: one of every item in store order, then another of each, and so on.
+     */
+    ROUND_ROBIN {
+        @Override
+        Items choose(Game game, long time) {
+            Items next = null;
+            for (Items item : Items.values()) {
+                if (game.getCostBits(item, 1) != BigNumber.MAX_VALUE && (next == null || game.getAmountOwned(item) < game.getAmountOwned(next))) {
+                    next = item;
+                }
+            }
+            return next;
+        }
+    },
+
+    /**
+     * Saves for the most productive item that takes less than an hour of production, otherwise buys the cheapest.
+     */
+    HIGHEST_TIER {
+        private static final double SAVING_SECONDS = 3600;
+
+        @Override
+        Items choose(Game game, long time) {
+            double budget = game.getProjectedCookies(time) + game.getCookiesPerSecond() * SAVING_SECONDS;
+            Items[] items = Items.values();
+            for (int i = items.length - 1; i >= 0; i--) {
+                long cost = game.getCostBits(items[i], 1);
+                if (cost != BigNumber.MAX_VALUE && BigNumber.toDouble(cost) <= budget) {
+                    return items[i];
+                }
+            }
+            return CHEAPEST.choose(game, time);
+        }
+    };
+
+    /**
+     * Picks the next item to buy.
+     * @param game The simulated game.
+     * @param time The simulated time, in milliseconds.
+     * @return The item, or null if every price has overflowed.
+     */
+    abstract Items choose(Game game, long time);
+}